@@ -72,6 +72,7 @@ import org.finroc.tools.finstruct.views.ComponentVisualization;
 import org.finroc.tools.finstruct.views.Ib2cViewClassic;
 import org.finroc.tools.finstruct.views.PortView;
 import org.finroc.tools.finstruct.views.Profiling;
+import org.finroc.tools.finstruct.views.ScheduleTimeline;
 import org.finroc.tools.finstruct.views.StandardViewGraphViz;
 import org.finroc.tools.gui.ConnectDialog;
 import org.finroc.tools.gui.ConnectionPanel;
@@ -194,6 +195,7 @@ public class Finstruct extends FinstructWindow implements ConnectionListener, Wi
         registerViewType(Ib2cViewClassic.class, "iB2C (Classic)");
         registerViewType(ComponentVisualization.class, "Component-defined Visualization");
         registerViewType(Profiling.class, "Execution Order");
+        registerViewType(ScheduleTimeline.class, "Schedule Timeline");
 
         final String address = connect;
         SwingUtilities.invokeLater(new Runnable() {
@@ -25,11 +25,19 @@ import java.awt.Color;
 import java.awt.Font;
 import java.awt.Graphics;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.awt.event.MouseEvent;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.swing.JLabel;
 import javax.swing.JMenuItem;
@@ -37,6 +45,7 @@ import javax.swing.JOptionPane;
 import javax.swing.JTree;
 import javax.swing.Popup;
 import javax.swing.PopupFactory;
+import javax.swing.SwingUtilities;
 import javax.swing.Timer;
 import javax.swing.border.LineBorder;
 import javax.swing.tree.TreeModel;
@@ -91,6 +100,18 @@ public class FinstructConnectionPanel extends ConnectionPanel {
     private final ArrayList<RemotePort> tempConnectList1 = new ArrayList<RemotePort>();
     private final ArrayList<ModelNode> tempConnectList2 = new ArrayList<ModelNode>();
 
+    /** Cached results of SmartConnecting.mayConnect() - filled by AWT Thread and precomputation thread */
+    private final SmartConnecting.MayConnectCache mayConnectCache = new SmartConnecting.MayConnectCache();
+
+    /** Precomputation of mayConnect() results for visible nodes during drag operation - null if there is none (accessed by AWT Thread only) */
+    private Precomputation precomputation;
+
+    /** Thread that precomputes mayConnect() results (created on first use) */
+    private static ExecutorService precomputationThread;
+
+    /** Reason returned by mayConnect() while result is still being precomputed */
+    private static final String PRECOMPUTATION_PENDING = "Checking connection...";
+
     /** More colors */
     public static final ConnectorIcon.IconColor lightGrayColor = new ConnectorIcon.IconColor(new Color(211, 211, 211), new Color(233, 233, 233));
     public static final Color rootViewColor = new Color(211, 211, 211);
@@ -155,7 +176,24 @@ public class FinstructConnectionPanel extends ConnectionPanel {
         tempConnectList2.clear();
         tempConnectList1.add(p1);
         tempConnectList2.add(p2);
-        return SmartConnecting.mayConnect(tempConnectList1, tempConnectList2, finstruct.allowDirectConnectingAcrossGroupBoundaries()); // TODO: this can be optimized
+        return mayConnect();
+    }
+
+    /**
+     * Can ports in tempConnectList1 be connected to nodes in tempConnectList2?
+     * (results are cached until the interface tree changes or a new drag operation starts)
+     * If the result is still being computed by the running precomputation, does not block and returns PRECOMPUTATION_PENDING
+     * (tree is repainted when result is available).
+     *
+     * @return "" if they can be connected. Otherwise the reason why not.
+     */
+    private String mayConnect() {
+        mayConnectCache.setModel(finstruct.getIoInterface());
+        boolean allowDirectConnecting = finstruct.allowDirectConnectingAcrossGroupBoundaries();
+        if (precomputation != null && precomputation.isPending(tempConnectList1, tempConnectList2, allowDirectConnecting) && (!mayConnectCache.contains(tempConnectList1, tempConnectList2, allowDirectConnecting))) {
+            return PRECOMPUTATION_PENDING;
+        }
+        return mayConnectCache.mayConnect(tempConnectList1, tempConnectList2, allowDirectConnecting);
     }
 
     /**
@@ -225,7 +263,7 @@ public class FinstructConnectionPanel extends ConnectionPanel {
             for (int i = 0; i < tempConnectList1.size(); i++) {
                 tempConnectList2.add((ModelNode)tn);
             }
-            String reason = SmartConnecting.mayConnect(tempConnectList1, tempConnectList2, finstruct.allowDirectConnectingAcrossGroupBoundaries());
+            String reason = mayConnect();
             if (reason.length() > 0) {
                 return reason;
             }
@@ -254,7 +292,7 @@ public class FinstructConnectionPanel extends ConnectionPanel {
             for (int i = 0; i < tempConnectList1.size(); i++) {
                 tempConnectList2.add((ModelNode)tn);
             }
-            String reason = SmartConnecting.mayConnect(tempConnectList1, tempConnectList2, finstruct.allowDirectConnectingAcrossGroupBoundaries());
+            String reason = mayConnect();
             if (reason.length() > 0) {
                 return reason;
             }
@@ -293,6 +331,7 @@ public class FinstructConnectionPanel extends ConnectionPanel {
             List<CompositeAction> actions = SmartConnecting.getConnectAction(tempConnectList1, tempConnectList2, finstruct.allowDirectConnectingAcrossGroupBoundaries());
             assert(actions.size() > 0);
 
+            // actions are sorted by score: top-scored action is the default - alternatives are offered in the chooser
             CompositeAction action = actions.get(0);
             if (actions.size() > 1) {
                 for (CompositeAction a : actions) {
@@ -469,6 +508,9 @@ public class FinstructConnectionPanel extends ConnectionPanel {
         MJTree<Object> otherTree = selectionFromRight ? leftTree : rightTree;
         MJTree<Object> selTree = selectionFromRight ? rightTree : leftTree;
         Object element = super.getTreeNodeFromPos(otherTree);
+        if (showRightTree && (!(getRightTree() instanceof ConfigFileModel)) && selTree.getSelectionCount() > 0) {
+            startPrecomputation(selTree, otherTree, SwingUtilities.convertPoint(e.getComponent(), e.getPoint(), otherTree));
+        }
 
         String tooltip = null;
         if (element == null || showRightTree == false || getRightTree() instanceof ConfigFileModel || selTree.getSelectionCount() == 0 || otherTree.getSelectedObjects().contains(element)) {
@@ -485,10 +527,258 @@ public class FinstructConnectionPanel extends ConnectionPanel {
 
     @Override
     public void mouseReleased(MouseEvent e) {
+        cancelPrecomputation(); // so that drop target is checked synchronously
         super.mouseReleased(e);
         setToolTip(e.getLocationOnScreen(), null, null);
     }
 
+    /**
+     * Starts precomputing mayConnect() results for the visible nodes in the other tree -
+     * so that the AWT thread finds cached results when painting the tree during the drag operation.
+     * The AWT thread takes a snapshot of the model data that the checks need (the remote model is modified by the AWT thread).
+     * Results are computed from this snapshot on the precomputation thread.
+     * Visible nodes are processed first (starting at the mouse cursor), followed by nodes one page above and below.
+     * A running precomputation is kept if selection and visible rows did not change.
+     *
+     * @param selTree Tree with nodes to connect (dragged nodes)
+     * @param otherTree Tree with potential destination nodes
+     * @param mousePosition Mouse position in coordinates of other tree
+     */
+    private void startPrecomputation(MJTree<Object> selTree, MJTree<Object> otherTree, Point mousePosition) {
+        ArrayList<RemotePort> sources = new ArrayList<RemotePort>();
+        RemoteFrameworkElement nonPortNode = processSourceNodesToConnect(sources, selTree.getSelectedObjects());
+        Rectangle visible = otherTree.getVisibleRect();
+        int firstRow = otherTree.getClosestRowForLocation(visible.x, visible.y);
+        int lastRow = otherTree.getClosestRowForLocation(visible.x, visible.y + visible.height - 1);
+        if (precomputation != null && precomputation.tree == otherTree && precomputation.firstRow == firstRow && precomputation.lastRow == lastRow &&
+                precomputation.nonPortNode == nonPortNode && precomputation.sources.equals(sources)) {
+            return;
+        }
+        cancelPrecomputation();
+        if (sources.size() == 0 || firstRow < 0) {
+            return;
+        }
+
+        // Collect nodes in processing order
+        boolean allowDirectConnecting = finstruct.allowDirectConnectingAcrossGroupBoundaries();
+        List<Object> otherTreeSelection = otherTree.getSelectedObjects();
+        int mouseRow = Math.max(firstRow, Math.min(lastRow, otherTree.getClosestRowForLocation(mousePosition.x, mousePosition.y)));
+        int pageSize = lastRow - firstRow + 1;
+        ArrayList<ModelNode> targets = new ArrayList<ModelNode>();
+        for (int distance = 0; mouseRow - distance >= firstRow || mouseRow + distance <= lastRow; distance++) {
+            if (mouseRow + distance <= lastRow) {
+                addPrecomputationTarget(targets, otherTree, mouseRow + distance, sources, nonPortNode, allowDirectConnecting, otherTreeSelection);
+            }
+            if (distance > 0 && mouseRow - distance >= firstRow) {
+                addPrecomputationTarget(targets, otherTree, mouseRow - distance, sources, nonPortNode, allowDirectConnecting, otherTreeSelection);
+            }
+        }
+        for (int distance = 1; distance <= pageSize; distance++) {
+            if (lastRow + distance < otherTree.getRowCount()) {
+                addPrecomputationTarget(targets, otherTree, lastRow + distance, sources, nonPortNode, allowDirectConnecting, otherTreeSelection);
+            }
+            if (firstRow - distance >= 0) {
+                addPrecomputationTarget(targets, otherTree, firstRow - distance, sources, nonPortNode, allowDirectConnecting, otherTreeSelection);
+            }
+        }
+        if (targets.size() == 0) {
+            return;
+        }
+
+        mayConnectCache.setModel(finstruct.getIoInterface());
+        precomputation = new Precomputation(otherTree, firstRow, lastRow, sources, nonPortNode, targets, allowDirectConnecting);
+        getPrecomputationThread().execute(precomputation);
+    }
+
+    /**
+     * Adds node to list of precomputation targets - if hypotheticalConnectionImplementation() would call mayConnect() for it
+     *
+     * @param targets List of targets
+     * @param tree Tree with destination nodes
+     * @param row Row of node to possibly add
+     * @param sources Ports to connect
+     * @param nonPortNode Non-port node that is dragged (interface)
+     * @param allowDirectConnecting Allow direct connecting across group boundaries?
+     * @param otherTreeSelection Selected nodes in tree
+     */
+    private void addPrecomputationTarget(ArrayList<ModelNode> targets, MJTree<Object> tree, int row, ArrayList<RemotePort> sources, RemoteFrameworkElement nonPortNode, boolean allowDirectConnecting, List<Object> otherTreeSelection) {
+        TreePath path = tree.getPathForRow(row);
+        Object node = path != null ? path.getLastPathComponent() : null;
+        if ((!(node instanceof ModelNode)) || (!acceptElement(node)) || otherTreeSelection.contains(node)) {
+            return;
+        }
+        if (node instanceof RemotePort && (nonPortNode != null || sources.size() != 1 || allowDirectConnecting)) {
+            return;
+        }
+        targets.add((ModelNode)node);
+    }
+
+    /**
+     * Cancels precomputation of mayConnect() results (if one is running)
+     */
+    private void cancelPrecomputation() {
+        if (precomputation != null) {
+            precomputation.cancelled = true;
+            precomputation = null;
+        }
+    }
+
+    /**
+     * @return Thread that precomputes mayConnect() results
+     */
+    private static synchronized ExecutorService getPrecomputationThread() {
+        if (precomputationThread == null) {
+            precomputationThread = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "Connection check precomputation");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return precomputationThread;
+    }
+
+    /**
+     * Precomputes mayConnect() results for a list of destination nodes.
+     * The constructor (AWT thread) takes a snapshot of the model data that is needed for the checks.
+     * run() computes the results from this snapshot on the precomputation thread and publishes them in mayConnectCache -
+     * with the structure version at the time the snapshot was taken (outdated results are discarded by the cache).
+     * Other tree is repainted when new results are available.
+     */
+    private class Precomputation implements Runnable {
+
+        /** Tree with destination nodes */
+        private final MJTree<Object> tree;
+
+        /** Visible rows in tree when precomputation was started */
+        private final int firstRow, lastRow;
+
+        /** Ports to connect (and non-port node that is dragged - null if ports are dragged) */
+        private final ArrayList<RemotePort> sources;
+        private final RemoteFrameworkElement nonPortNode;
+
+        /** Destination nodes in processing order (only nodes whose results are not cached yet) */
+        private final ArrayList<ModelNode> targets = new ArrayList<ModelNode>();
+
+        /** Destination nodes as set (identity) */
+        private final Set<ModelNode> targetSet = Collections.newSetFromMap(new IdentityHashMap<ModelNode, Boolean>());
+
+        /** Allow direct connecting across group boundaries? */
+        private final boolean allowDirectConnecting;
+
+        /** Set when precomputation is no longer needed (drag operation ended, selection or visible rows changed) */
+        private volatile boolean cancelled;
+
+        /** Structure version of model when snapshot was taken */
+        private final int structureVersion = mayConnectCache.getStructureVersion();
+
+        /** Snapshot of model data required for checks */
+        private final SmartConnecting.Snapshot snapshot = new SmartConnecting.Snapshot();
+
+        /** Is repainting tree scheduled? */
+        private final AtomicBoolean repaintScheduled = new AtomicBoolean();
+
+        /** Repaints tree (on AWT thread) */
+        private final Runnable repaint = new Runnable() {
+            @Override
+            public void run() {
+                repaintScheduled.set(false);
+                if (!cancelled) {
+                    tree.repaint();
+                }
+            }
+        };
+
+        /**
+         * Takes snapshot (must be called by AWT thread)
+         */
+        private Precomputation(MJTree<Object> tree, int firstRow, int lastRow, ArrayList<RemotePort> sources, RemoteFrameworkElement nonPortNode, ArrayList<ModelNode> targets, boolean allowDirectConnecting) {
+            this.tree = tree;
+            this.firstRow = firstRow;
+            this.lastRow = lastRow;
+            this.sources = sources;
+            this.nonPortNode = nonPortNode;
+            this.allowDirectConnecting = allowDirectConnecting;
+            ArrayList<RemotePort> nodes1 = new ArrayList<RemotePort>();
+            ArrayList<ModelNode> nodes2 = new ArrayList<ModelNode>();
+            for (ModelNode target : targets) {
+                if (target instanceof RemotePort && sources.get(0).isConnectedTo((RemotePort)target)) {
+                    continue;
+                }
+                getConnectLists(target, nodes1, nodes2);
+                if (targetSet.contains(target) || mayConnectCache.contains(nodes1, nodes2, allowDirectConnecting)) {
+                    continue;
+                }
+                snapshot.add(nodes1, nodes2);
+                this.targets.add(target);
+                targetSet.add(target);
+            }
+        }
+
+        /**
+         * Fills lists with mayConnect() parameters for target
+         *
+         * @param target Destination node
+         * @param nodes1 List to fill with source ports
+         * @param nodes2 List to fill with destination nodes
+         */
+        private void getConnectLists(ModelNode target, ArrayList<RemotePort> nodes1, ArrayList<ModelNode> nodes2) {
+            nodes1.clear();
+            nodes2.clear();
+            if (target instanceof RemotePort) {
+                nodes1.add(sources.get(0));
+                nodes2.add(target);
+            } else {
+                nodes1.addAll(sources);
+                for (int i = 0; i < sources.size(); i++) {
+                    nodes2.add(target);
+                }
+            }
+        }
+
+        /**
+         * @return True if result of mayConnect() with these parameters will be provided by this precomputation (must be called by AWT thread)
+         */
+        private boolean isPending(List<RemotePort> nodes1, List<ModelNode> nodes2, boolean allowDirectConnecting) {
+            if (cancelled || allowDirectConnecting != this.allowDirectConnecting || structureVersion != mayConnectCache.getStructureVersion() ||
+                    nodes2.size() == 0 || (!targetSet.contains(nodes2.get(0)))) {
+                return false;
+            }
+            ModelNode target = nodes2.get(0);
+            if (target instanceof RemotePort) {
+                return nodes1.size() == 1 && nodes2.size() == 1 && nodes1.get(0) == sources.get(0);
+            }
+            if (!nodes1.equals(sources) || nodes2.size() != sources.size()) {
+                return false;
+            }
+            for (ModelNode node : nodes2) {
+                if (node != target) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void run() {
+            ArrayList<RemotePort> nodes1 = new ArrayList<RemotePort>();
+            ArrayList<ModelNode> nodes2 = new ArrayList<ModelNode>();
+            for (ModelNode target : targets) {
+                if (cancelled || structureVersion != mayConnectCache.getStructureVersion()) {
+                    return;
+                }
+                getConnectLists(target, nodes1, nodes2);
+                String result = SmartConnecting.mayConnect(snapshot, nodes1, nodes2, allowDirectConnecting);
+                mayConnectCache.put(nodes1, nodes2, allowDirectConnecting, structureVersion, result);
+                if (repaintScheduled.compareAndSet(false, true)) {
+                    SwingUtilities.invokeLater(repaint);
+                }
+            }
+        }
+    }
+
     /**
      * Set custom tool tip
      *
@@ -805,6 +1095,8 @@ public class FinstructConnectionPanel extends ConnectionPanel {
     @Override
     public void mousePressed(MouseEvent e) {
         if (e.getButton() == MouseEvent.BUTTON1) {
+            cancelPrecomputation();
+            mayConnectCache.clear(); // connections might have changed since last drag operation
             checkMouseEvent(e);
         }
 
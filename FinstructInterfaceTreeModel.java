@@ -38,6 +38,9 @@ import org.finroc.tools.gui.util.treemodel.InterfaceTreeModel;
  */
 public class FinstructInterfaceTreeModel extends InterfaceTreeModel implements Runnable, TreeModelListener {
 
+    /** Index of framework element tags in this tree */
+    private final TagIndex tagIndex = new TagIndex();
+
     public FinstructInterfaceTreeModel() {
         Thread workerThread = new Thread(this);
         workerThread.setDaemon(true);
@@ -67,10 +70,30 @@ public class FinstructInterfaceTreeModel extends InterfaceTreeModel implements R
     /** Elements that worker thread should check for editable interfaces */
     private final ConcurrentLinkedQueue<RemoteFrameworkElement> frameworkElementsToCheckForInterface = new ConcurrentLinkedQueue<RemoteFrameworkElement>();
 
+    /**
+     * @return Index of framework element tags in this tree
+     */
+    public TagIndex getTagIndex() {
+        return tagIndex;
+    }
+
     @Override
-    public void treeNodesChanged(TreeModelEvent e) {}
+    public void treeNodesChanged(TreeModelEvent e) {
+        if (e.getChildren() == null) {
+            tagIndex.add((ModelNode)e.getPath()[e.getPath().length - 1]);
+            return;
+        }
+        for (Object child : e.getChildren()) {
+            tagIndex.add((ModelNode)child);
+        }
+    }
+
     @Override
-    public void treeNodesRemoved(TreeModelEvent e) {}
+    public void treeNodesRemoved(TreeModelEvent e) {
+        for (Object child : e.getChildren()) {
+            tagIndex.removeSubtree((ModelNode)child);
+        }
+    }
 
     @Override
     public void treeNodesInserted(TreeModelEvent e) {
@@ -82,6 +105,7 @@ public class FinstructInterfaceTreeModel extends InterfaceTreeModel implements R
 
     @Override
     public void treeStructureChanged(TreeModelEvent e) {
+        tagIndex.removeBelow((ModelNode)e.getPath()[e.getPath().length - 1]);
         processSubtree((ModelNode)e.getPath()[e.getPath().length - 1]);
     }
 
@@ -91,6 +115,7 @@ public class FinstructInterfaceTreeModel extends InterfaceTreeModel implements R
      * @param node Inserted node
      */
     private void processSubtree(ModelNode node) {
+        tagIndex.add(node);
         if (node instanceof RemoteFrameworkElement && ((RemoteFrameworkElement)node).isCompositeComponent()) {
             frameworkElementsToCheckForInterface.add((RemoteFrameworkElement)node);
         }
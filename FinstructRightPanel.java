@@ -76,10 +76,10 @@ import org.finroc.core.remote.RemoteType;
 import org.finroc.tools.finstruct.propertyeditor.ConnectingPortAccessor;
 import org.finroc.tools.finstruct.propertyeditor.FinrocComponentFactory;
 import org.finroc.tools.finstruct.propertyeditor.FinrocObjectAccessor;
-import org.finroc.tools.finstruct.propertyeditor.PortAccessor;
 import org.finroc.tools.finstruct.propertyeditor.PropertyEditorTable;
 import org.finroc.tools.finstruct.propertyeditor.PropertyEditorTableModel;
 import org.finroc.tools.finstruct.propertyeditor.StaticParameterAccessor;
+import org.finroc.tools.finstruct.propertyeditor.UpdateThrottle;
 import org.finroc.tools.finstruct.views.AbstractGraphView;
 import org.finroc.tools.finstruct.views.StandardViewGraphViz;
 import org.finroc.tools.gui.util.ElementFilter;
@@ -93,7 +93,7 @@ import org.rrlib.serialization.rtti.DataTypeBase;
  *
  * Panel on the right side of finstruct graph views
  */
-public class FinstructRightPanel extends JPanel implements ElementFilter<Object>, TreeSelectionListener, ActionListener, TreeModelListener, Comparator<Object>, PortAccessor.Listener, PropertyEditorTableModel.PropertySetListener {
+public class FinstructRightPanel extends JPanel implements ElementFilter<Object>, TreeSelectionListener, ActionListener, TreeModelListener, Comparator<Object>, PropertyEditorTableModel.PropertySetListener {
 
     /** UID */
     private static final long serialVersionUID = -6762519933079911025L;
@@ -404,7 +404,7 @@ public class FinstructRightPanel extends JPanel implements ElementFilter<Object>
                         ConnectingPortAccessor portAccess = new ConnectingPortAccessor((RemotePort)interfaceElement.getChildAt(i), prefix ? interfaceElement.getParent().getQualifiedName('/') : interfaceElement.getQualifiedName('/'));
                         componentPropertyAccessPorts.add(portAccess);
                         result.add(portAccess);
-                        portAccess.setListener(this);
+                        portAccess.setUpdateThrottle(UpdateThrottle.maxRate(UpdateThrottle.PROPERTY_EDITOR_RATE));
                         portAccess.setAutoUpdate(true);
                         portAccess.init();
                     }
@@ -782,11 +782,6 @@ public class FinstructRightPanel extends JPanel implements ElementFilter<Object>
         return o1.toString().compareTo(o2.toString());
     }
 
-    @Override
-    public void portChanged() {
-        componentProperties.repaint();
-    }
-
     @Override
     public boolean acceptElement(Object element) {
         return element instanceof DefaultMutableTreeNode;
@@ -23,11 +23,25 @@
 package org.finroc.tools.finstruct;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.TreeModel;
 
 import org.finroc.core.FrameworkElementFlags;
 import org.finroc.core.datatype.DataTypeReference;
@@ -41,6 +55,7 @@ import org.finroc.tools.finstruct.actions.AddPortsToInterfaceAction;
 import org.finroc.tools.finstruct.actions.CompositeAction;
 import org.finroc.tools.finstruct.actions.ConnectAction;
 import org.finroc.tools.finstruct.actions.FinstructAction;
+import org.rrlib.serialization.rtti.DataTypeBase;
 
 /**
  * @author Max Reichardt
@@ -49,11 +64,28 @@ import org.finroc.tools.finstruct.actions.FinstructAction;
  * possibly across group boundaries creating all required ports in interfaces.
  *
  * Due to the complexity, this concern is separated in a separated class.
+ *
+ * The search operates on a Snapshot of the relevant part of the remote model.
+ * The snapshot is created by the AWT thread (that also modifies the remote model).
+ * The search itself may then run on any thread.
  */
 public class SmartConnecting {
 
+    /** Minimum number of element pairs for processing the pairs in parallel */
+    public static final int PARALLEL_PAIR_THRESHOLD = 256;
+
+    /** Score penalty for connecting directly across component boundaries (see createPlan()) - exceeds the cost of any plan */
+    public static final long DIRECT_CONNECTING_PENALTY = Integer.MAX_VALUE;
+
+    /** Search variants (bits): select controller interfaces on sensor/controller ambiguity, connect directly across component boundaries */
+    private static final int CONTROLLER_VARIANT = 1, DIRECT_VARIANT = 2, VARIANT_COUNT = 4;
+
+    /** Threads that process element pairs in parallel (created on first use) */
+    private static ExecutorService searchThreads;
+
     /**
      * Checks whether remote ports can be connected directly (ignoring component boundaries)
+     * (must be called by AWT thread)
      *
      * @param sourcePort First remote port
      * @param destinationPort Second remote port
@@ -61,42 +93,48 @@ public class SmartConnecting {
      * @return Empty string if connecting is possible. If connecting is not possible, reason for this.
      */
     public static String mayConnectDirectly(RemotePort sourcePort, RemotePort destinationPort, boolean alsoCheckReverse) {
-        RemoteRuntime sourceRuntime = RemoteRuntime.find(sourcePort);
-        if (sourceRuntime == null) {
-            return "No runtime found for '" + sourcePort.getQualifiedLink() + "'";
+        Snapshot snapshot = new Snapshot();
+        return mayConnectDirectly(snapshot, snapshot.get(sourcePort), snapshot.get(destinationPort), alsoCheckReverse);
+    }
+
+    /**
+     * Same as mayConnectDirectly above - with elements from snapshot
+     */
+    private static String mayConnectDirectly(Snapshot snapshot, Element sourcePort, Element destinationPort, boolean alsoCheckReverse) {
+        if (sourcePort.runtime == null) {
+            return "No runtime found for '" + sourcePort.qualifiedLink + "'";
         }
-        RemoteRuntime destinationRuntime = RemoteRuntime.find(destinationPort);
-        if (destinationRuntime == null) {
-            return "No runtime found for '" + destinationPort.getQualifiedLink() + "'";
+        if (destinationPort.runtime == null) {
+            return "No runtime found for '" + destinationPort.qualifiedLink + "'";
         }
 
         if (alsoCheckReverse) {
             if (!(sourcePort.getFlag(FrameworkElementFlags.EMITS_DATA) || destinationPort.getFlag(FrameworkElementFlags.EMITS_DATA))) {
-                return "Neither port emits data ('" + sourcePort.getQualifiedLink() + "' and '" + destinationPort.getQualifiedLink() + "')";
+                return "Neither port emits data ('" + sourcePort.qualifiedLink + "' and '" + destinationPort.qualifiedLink + "')";
             }
             if (!(sourcePort.getFlag(FrameworkElementFlags.ACCEPTS_DATA) || destinationPort.getFlag(FrameworkElementFlags.ACCEPTS_DATA))) {
-                return "Neither port accepts data ('" + sourcePort.getQualifiedLink() + "' and '" + destinationPort.getQualifiedLink() + "')";
+                return "Neither port accepts data ('" + sourcePort.qualifiedLink + "' and '" + destinationPort.qualifiedLink + "')";
             }
         } else if (!sourcePort.getFlag(FrameworkElementFlags.EMITS_DATA)) {
-            return "Source port (" + sourcePort.getQualifiedLink() + ") does not emit data";
+            return "Source port (" + sourcePort.qualifiedLink + ") does not emit data";
         } else if (!destinationPort.getFlag(FrameworkElementFlags.ACCEPTS_DATA)) {
-            return "Destination port (" + sourcePort.getQualifiedLink() + ") does not accept data";
+            return "Destination port (" + sourcePort.qualifiedLink + ") does not accept data";
         }
 
-        if (sourcePort.getDataType() != destinationPort.getDataType()) {
-            return "Ports have different types ('" + sourcePort.getQualifiedLink() + "' has type '" + sourcePort.getDataType().getName() + "' and '" + destinationPort.getQualifiedLink() + "' has type '" + destinationPort.getDataType().getName() + "')";
+        if (sourcePort.dataType != destinationPort.dataType) {
+            return "Ports have different types ('" + sourcePort.qualifiedLink + "' has type '" + sourcePort.dataType.getName() + "' and '" + destinationPort.qualifiedLink + "' has type '" + destinationPort.dataType.getName() + "')";
         }
 
-        if (sourceRuntime != destinationRuntime) {
+        if (sourcePort.runtime != destinationPort.runtime) {
             if ((!sourcePort.getFlag(FrameworkElementFlags.SHARED)) && (!destinationPort.getFlag(FrameworkElementFlags.SHARED))) {
-                return "Neither port is shared ('" + sourcePort.getQualifiedLink() + "' and '" + destinationPort.getQualifiedLink() + "')";
+                return "Neither port is shared ('" + sourcePort.qualifiedLink + "' and '" + destinationPort.qualifiedLink + "')";
             }
-            if (!((sourceRuntime.getAdminInterface() != null && destinationPort.getFlag(FrameworkElementFlags.SHARED)) || (destinationRuntime.getAdminInterface() != null && sourcePort.getFlag(FrameworkElementFlags.SHARED)))) {
+            if (!((sourcePort.runtimeHasAdminInterface && destinationPort.getFlag(FrameworkElementFlags.SHARED)) || (destinationPort.runtimeHasAdminInterface && sourcePort.getFlag(FrameworkElementFlags.SHARED)))) {
                 return "One non-shared port needs admin interface";
             }
 
-            ModelNode commonParent = findCommonParent(sourcePort, destinationPort);
-            if (commonParent == Finstruct.getInstance().getIoInterface().getRoot()) {
+            Element commonParent = findCommonParent(sourcePort, destinationPort);
+            if (commonParent.node == snapshot.root) {
                 return "Ports need to be connected to the same protocol/interface. Are parts connected to each other.";
             }
         }
@@ -108,6 +146,7 @@ public class SmartConnecting {
      * Can elements in both lists be connected?
      * (Connects first element in list with first element in other list, second with second etc.
      * => Lists need to have the same size.)
+     * (must be called by AWT thread)
      *
      * @param nodes1 First collection (only ports)
      * @param nodes2 Second collection (possibly containing interface and components)
@@ -115,9 +154,20 @@ public class SmartConnecting {
      * @return Empty string if connecting is possible. If connecting is not possible, reason for this.
      */
     public static String mayConnect(List<RemotePort> nodes1, List<ModelNode> nodes2, boolean allowDirectConnecting) {
+        Snapshot snapshot = new Snapshot();
+        snapshot.add(nodes1, nodes2);
+        return mayConnect(snapshot, nodes1, nodes2, allowDirectConnecting);
+    }
+
+    /**
+     * Same as mayConnect above - on a snapshot.
+     * May be called by any thread - provided that nodes were added to snapshot (and snapshot is not modified anymore).
+     *
+     * @param snapshot Snapshot containing nodes1 and nodes2
+     */
+    public static String mayConnect(Snapshot snapshot, List<RemotePort> nodes1, List<ModelNode> nodes2, boolean allowDirectConnecting) {
         try {
-            // TODO: can be optimized
-            getConnectActionImplementation(nodes1, nodes2, allowDirectConnecting, false, false);
+            search(new SearchContext(snapshot, nodes1, nodes2), allowDirectConnecting, true);
         } catch (Exception e) {
             return e.getMessage();
         }
@@ -125,16 +175,453 @@ public class SmartConnecting {
     }
 
     /**
-     * Helper class/struct for getConnectActionImplementation
+     * Cache for results of mayConnect().
+     *
+     * Results are stored per (source ports, destination nodes, allowDirectConnecting, model structure version).
+     * The structure version is incremented - and the cache cleared - whenever the tree model that the cache is
+     * registered at reports a change. As changes of connections might not be reported by the model, the cache
+     * should additionally be cleared whenever a new drag operation starts or connections are changed.
+     * Threading: mayConnect() creates a snapshot of the remote model, which is modified by the AWT thread without further locking.
+     * Therefore, it must only be called on the AWT thread. Other threads may compute results on a snapshot (taken by the AWT thread)
+     * and publish them via put() - results are discarded if the structure version changed in the meantime.
+     * No results are computed while holding the cache's lock.
+     */
+    public static class MayConnectCache implements TreeModelListener {
+
+        /** Maximum number of cached results (cache is cleared when exceeded) */
+        public static final int MAX_ENTRIES = 20000;
+
+        /** Cached results */
+        private final HashMap<Key, String> results = new HashMap<Key, String>();
+
+        /** Current structure version */
+        private int structureVersion;
+
+        /** Tree model that cache is registered at */
+        private TreeModel model;
+
+        /** Number of cache hits and misses (for diagnostics) */
+        private long hits, misses;
+
+        /**
+         * Registers cache at tree model (removes registration at previous model)
+         *
+         * @param model Tree model whose changes invalidate cache
+         */
+        public synchronized void setModel(TreeModel model) {
+            if (model != this.model) {
+                if (this.model != null) {
+                    this.model.removeTreeModelListener(this);
+                }
+                this.model = model;
+                if (model != null) {
+                    model.addTreeModelListener(this);
+                }
+                clear();
+            }
+        }
+
+        /**
+         * Same as SmartConnecting.mayConnect() - with cached results
+         * (must be called by AWT thread)
+         */
+        public String mayConnect(List<RemotePort> nodes1, List<ModelNode> nodes2, boolean allowDirectConnecting) {
+            int version;
+            synchronized (this) {
+                String result = results.get(new Key(nodes1, nodes2, allowDirectConnecting, structureVersion));
+                if (result != null) {
+                    hits++;
+                    return result;
+                }
+                misses++;
+                version = structureVersion;
+            }
+            String result = SmartConnecting.mayConnect(nodes1, nodes2, allowDirectConnecting);
+            return put(nodes1, nodes2, allowDirectConnecting, version, result);
+        }
+
+        /**
+         * Stores result (computed by any thread)
+         *
+         * @param structureVersion Structure version of model when data for computing result was obtained (result is discarded if it is outdated)
+         * @param result Result of mayConnect() for the other parameters
+         * @return Result (with null replaced)
+         */
+        public synchronized String put(List<RemotePort> nodes1, List<ModelNode> nodes2, boolean allowDirectConnecting, int structureVersion, String result) {
+            if (result == null) {
+                result = "Cannot connect"; // exception without message
+            }
+            if (structureVersion != this.structureVersion) {
+                return result;
+            }
+            if (results.size() >= MAX_ENTRIES) {
+                results.clear();
+            }
+            results.put(new Key(nodes1, nodes2, allowDirectConnecting, structureVersion), result);
+            return result;
+        }
+
+        /**
+         * @return True if result for these parameters is cached
+         */
+        public synchronized boolean contains(List<RemotePort> nodes1, List<ModelNode> nodes2, boolean allowDirectConnecting) {
+            return results.containsKey(new Key(nodes1, nodes2, allowDirectConnecting, structureVersion));
+        }
+
+        /**
+         * Clears cache and increments structure version
+         */
+        public synchronized void clear() {
+            structureVersion++;
+            results.clear();
+        }
+
+        /**
+         * @return Current structure version
+         */
+        public synchronized int getStructureVersion() {
+            return structureVersion;
+        }
+
+        @Override
+        public String toString() {
+            synchronized (this) {
+                return "MayConnectCache (" + results.size() + " entries, " + hits + " hits, " + misses + " misses)";
+            }
+        }
+
+        @Override
+        public void treeNodesChanged(TreeModelEvent e) {
+            clear();
+        }
+
+        @Override
+        public void treeNodesInserted(TreeModelEvent e) {
+            clear();
+        }
+
+        @Override
+        public void treeNodesRemoved(TreeModelEvent e) {
+            clear();
+        }
+
+        @Override
+        public void treeStructureChanged(TreeModelEvent e) {
+            clear();
+        }
+
+        /**
+         * Key for cached results (nodes are compared by identity)
+         */
+        private static class Key {
+
+            /** Source ports followed by destination nodes */
+            private final Object[] nodes;
+
+            /** Number of source ports */
+            private final int sourceCount;
+
+            /** Other parameters */
+            private final boolean allowDirectConnecting;
+            private final int structureVersion;
+
+            /** Hash code */
+            private final int hash;
+
+            private Key(List<RemotePort> nodes1, List<ModelNode> nodes2, boolean allowDirectConnecting, int structureVersion) {
+                nodes = new Object[nodes1.size() + nodes2.size()];
+                int h = 0;
+                for (int i = 0; i < nodes.length; i++) {
+                    nodes[i] = i < nodes1.size() ? nodes1.get(i) : nodes2.get(i - nodes1.size());
+                    h = 31 * h + System.identityHashCode(nodes[i]);
+                }
+                sourceCount = nodes1.size();
+                this.allowDirectConnecting = allowDirectConnecting;
+                this.structureVersion = structureVersion;
+                hash = h * 31 + sourceCount + (allowDirectConnecting ? 1 : 0) + structureVersion * 17;
+            }
+
+            @Override
+            public int hashCode() {
+                return hash;
+            }
+
+            @Override
+            public boolean equals(Object other) {
+                if (!(other instanceof Key)) {
+                    return false;
+                }
+                Key key = (Key)other;
+                if (hash != key.hash || sourceCount != key.sourceCount || allowDirectConnecting != key.allowDirectConnecting || structureVersion != key.structureVersion || nodes.length != key.nodes.length) {
+                    return false;
+                }
+                for (int i = 0; i < nodes.length; i++) {
+                    if (nodes[i] != key.nodes[i]) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Snapshot of the parts of the remote model that are relevant for connecting elements.
+     *
+     * Created and filled by the AWT thread (add()). Afterwards, it may be passed to another thread
+     * that performs searches on it (it must not be modified anymore then).
+     * Elements are stored by model node identity - nodes are not accessed when searching.
+     */
+    public static class Snapshot {
+
+        /** Elements in snapshot */
+        private final IdentityHashMap<ModelNode, Element> elements = new IdentityHashMap<ModelNode, Element>();
+
+        /** Root node of remote model */
+        private final ModelNode root;
+
+        public Snapshot() {
+            root = Finstruct.getInstance().getIoInterface().getRoot();
+        }
+
+        /**
+         * Adds data on all nodes that are required for connecting the elements in both lists
+         * (ancestors up to common parent with their interfaces and interface ports)
+         *
+         * @param nodes1 First collection (only ports)
+         * @param nodes2 Second collection (possibly containing interface and components)
+         */
+        public void add(List<RemotePort> nodes1, List<ModelNode> nodes2) {
+            for (int i = 0; i < Math.min(nodes1.size(), nodes2.size()); i++) {
+                Element element1 = get(nodes1.get(i));
+                Element element2 = get(nodes2.get(i));
+                Element commonParent = null;
+                try {
+                    commonParent = findCommonParent(element1, element2);
+                } catch (RuntimeException e) {
+                    // expand all ancestors - search will report error
+                }
+                expandAncestors(element1, commonParent);
+                expandAncestors(element2, commonParent);
+            }
+        }
+
+        /**
+         * @param node Model node
+         * @return Element for model node (created - together with its ancestors - if it is not in snapshot yet)
+         */
+        Element get(ModelNode node) {
+            Element element = elements.get(node);
+            if (element == null) {
+                ModelNode parentNode = node.getParent();
+                element = new Element(node, parentNode != null ? get(parentNode) : null);
+                elements.put(node, element);
+            }
+            return element;
+        }
+
+        /**
+         * @param node Model node
+         * @return Element for model node (may be called by any thread)
+         * @throws IllegalStateException if node was not added to snapshot
+         */
+        Element find(ModelNode node) {
+            Element element = elements.get(node);
+            if (element == null) {
+                throw new IllegalStateException("Element is not contained in snapshot");
+            }
+            return element;
+        }
+
+        /**
+         * Expands element and its ancestors up to (and including) the specified ancestor
+         *
+         * @param element Element to start with
+         * @param ancestor Last ancestor to expand (null expands all ancestors)
+         */
+        private void expandAncestors(Element element, Element ancestor) {
+            for (Element current = element; current != null; current = current.parent) {
+                if (!current.port) {
+                    expand(current);
+                }
+                if (current == ancestor) {
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Adds children and editable interfaces of element to snapshot (interfaces are expanded as well)
+         *
+         * @param element Element to expand
+         */
+        private void expand(Element element) {
+            if (element.children != null) {
+                return;
+            }
+            element.children = new HashMap<String, Element>();
+            for (int i = 0; i < element.node.getChildCount(); i++) {
+                Element child = get(element.node.getChildAt(i));
+                if (!element.children.containsKey(child.name)) {
+                    element.children.put(child.name, child);
+                }
+                if (child.interface_) {
+                    expand(child);
+                }
+            }
+            if (element.frameworkElement) {
+                ArrayList<RemoteFrameworkElement> editableInterfaces = ((RemoteFrameworkElement)element.node).getEditableInterfaces();
+                if (editableInterfaces != null) {
+                    element.editableInterfaces = new ArrayList<Element>();
+                    for (RemoteFrameworkElement editableInterface : editableInterfaces) {
+                        Element interfaceElement = get(editableInterface);
+                        expand(interfaceElement);
+                        element.editableInterfaces.add(interfaceElement);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy of the data of a model node that is relevant for connecting elements (see Snapshot)
+     */
+    static class Element {
+
+        /** Model node that element was created from (only used as identity - not accessed outside AWT thread) */
+        final ModelNode node;
+
+        /** Parent element (null for root node) */
+        final Element parent;
+
+        /** Name of node */
+        final String name;
+
+        /** Qualified name of node (with '/' and FinstructAction.LINK_SEPARATOR as separators) */
+        final String qualifiedName, qualifiedLinkName;
+
+        /** Qualified link (framework elements only) */
+        final String qualifiedLink;
+
+        /** Type of node */
+        final boolean port, frameworkElement, interface_;
+
+        /** Framework element flags (framework elements only) */
+        final int flags;
+
+        /** Interface properties (framework elements only) */
+        final boolean editableInterface, inputOnlyInterface, outputOnlyInterface, sensorInterface, controllerInterface, rpcOnlyInterface;
+
+        /** Data type of port - and whether it is a method type (ports only) */
+        final DataTypeBase dataType;
+        final boolean methodType;
+
+        /** Runtime of port (only used as identity) - and whether it has an admin interface (ports only) */
+        final RemoteRuntime runtime;
+        final boolean runtimeHasAdminInterface;
+
+        /** Destinations of outgoing connections (ports only) */
+        final ArrayList<ModelNode> outgoingConnections = new ArrayList<ModelNode>();
+
+        /** Children by name (first child with each name) - null if element was not expanded */
+        HashMap<String, Element> children;
+
+        /** Editable interfaces - null if element has none or was not expanded */
+        ArrayList<Element> editableInterfaces;
+
+        private Element(ModelNode node, Element parent) {
+            this.node = node;
+            this.parent = parent;
+            name = node.getName();
+            qualifiedName = node.getQualifiedName('/');
+            qualifiedLinkName = node.getQualifiedName(FinstructAction.LINK_SEPARATOR);
+            interface_ = node.isInterface();
+            port = node instanceof RemotePort;
+            frameworkElement = node instanceof RemoteFrameworkElement;
+            if (frameworkElement) {
+                RemoteFrameworkElement element = (RemoteFrameworkElement)node;
+                qualifiedLink = element.getQualifiedLink();
+                flags = element.getFlags();
+                editableInterface = element.isEditableInterface();
+                inputOnlyInterface = element.isInputOnlyInterface();
+                outputOnlyInterface = element.isOutputOnlyInterface();
+                sensorInterface = element.isSensorInterface();
+                controllerInterface = element.isControllerInterface();
+                rpcOnlyInterface = element.isRpcOnlyInterface();
+            } else {
+                qualifiedLink = qualifiedLinkName;
+                flags = 0;
+                editableInterface = inputOnlyInterface = outputOnlyInterface = sensorInterface = controllerInterface = rpcOnlyInterface = false;
+            }
+            if (port) {
+                RemotePort remotePort = (RemotePort)node;
+                dataType = remotePort.getDataType();
+                methodType = FinrocTypeInfo.isMethodType(dataType, true);
+                runtime = RemoteRuntime.find(remotePort);
+                runtimeHasAdminInterface = runtime != null && runtime.getAdminInterface() != null;
+                for (RemotePort destination : remotePort.getOutgoingConnections()) {
+                    outgoingConnections.add(destination);
+                }
+            } else {
+                dataType = null;
+                methodType = false;
+                runtime = null;
+                runtimeHasAdminInterface = false;
+            }
+        }
+
+        /**
+         * @param flag Flag to check
+         * @return Is flag set?
+         */
+        boolean getFlag(int flag) {
+            return (flags & flag) != 0;
+        }
+
+        /**
+         * @param name Name of child
+         * @return First child with this name - null if there is no such child
+         */
+        Element getChildByName(String name) {
+            if (children == null) {
+                throw new IllegalStateException("Children of '" + qualifiedName + "' are not contained in snapshot");
+            }
+            return children.get(name);
+        }
+
+        /**
+         * @param other Other port
+         * @return True if there is a connection between this port and the other port (in any direction)
+         */
+        boolean isConnectedTo(Element other) {
+            return outgoingConnections.contains(other.node) || other.outgoingConnections.contains(node);
+        }
+
+        /**
+         * @param ancestor Possible ancestor
+         * @return True if ancestor is an ancestor of this element
+         */
+        boolean isNodeAncestor(Element ancestor) {
+            for (Element current = parent; current != null; current = current.parent) {
+                if (current == ancestor) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Helper class/struct for search
      */
     static class TraceElement {
-        RemotePort port;
+        Element port;
         String portName;
-        RemoteFrameworkElement interface_;
-        RemoteFrameworkElement component;
+        Element interface_;
+        Element component;
 
         public String getPortLink() {
-            return component.getQualifiedName(FinstructAction.LINK_SEPARATOR) + FinstructAction.LINK_SEPARATOR + interface_.getName() + FinstructAction.LINK_SEPARATOR + portName;
+            return component.qualifiedLinkName + FinstructAction.LINK_SEPARATOR + interface_.name + FinstructAction.LINK_SEPARATOR + portName;
         }
     }
 
@@ -192,8 +679,23 @@ public class SmartConnecting {
         return commonParent;
     }
 
+    /**
+     * Same as findCommonParent above - with elements from snapshot
+     */
+    static Element findCommonParent(Element node1, Element node2) {
+        Element commonParent = node1;
+        while (!(node2.isNodeAncestor(commonParent) || node2 == commonParent)) {
+            commonParent = commonParent.parent;
+            if (commonParent == null) {
+                throw new RuntimeException("Elements have no common parent (this is unusual - they should have at least root node in common)");
+            }
+        }
+        return commonParent;
+    }
+
     /**
      * Compute composite actions that connect the elements in both node lists cleanly via interfaces (possibly creating ports).
+     * (must be called by AWT thread)
      *
      * Connects first element in list with first element in other list, second with second etc.
      * => Lists need to have the same size.
@@ -201,304 +703,747 @@ public class SmartConnecting {
      * @param nodes1 First collection (only ports)
      * @param nodes2 Second collection (possibly containing interface and components)
      * @param allowDirectConnecting Allow direct connecting across component boundaries?
-     * @return Alternative Actions to connect elements
+     * @return Alternative Actions to connect elements - sorted by score (best first)
      * @throws Throws Exception if collections cannot be connected cleanly (with reason as message)
      */
     public static List<CompositeAction> getConnectAction(List<RemotePort> nodes1, List<ModelNode> nodes2, boolean allowDirectConnecting) throws Exception {
-        return getConnectActionImplementation(nodes1, nodes2, allowDirectConnecting, false, false);
+        Snapshot snapshot = new Snapshot();
+        snapshot.add(nodes1, nodes2);
+        ArrayList<CompositeAction> result = new ArrayList<CompositeAction>();
+        for (Plan plan : search(new SearchContext(snapshot, nodes1, nodes2), allowDirectConnecting, false)) {
+            result.add(plan.createAction());
+        }
+        return result;
     }
 
     /**
-     * Implementation of getConnectAction. May be called recursively.
+     * Port to create in an interface (see Plan)
      */
-    public static List<CompositeAction> getConnectActionImplementation(List<RemotePort> nodes1, List<ModelNode> nodes2, boolean allowDirectConnecting, boolean controllerRun, boolean directConnectingRun) throws Exception {
-        if (nodes1.size() != nodes2.size()) {
-            throw new Exception("Collections need to have the same size");
+    static class PortToCreate {
+
+        /** Component and name of interface to create port in */
+        final Element component;
+        final String interfaceName;
+
+        /** Name of port */
+        final String name;
+
+        /** Link to port (for error messages) */
+        final String link;
+
+        /** Data type of port */
+        final DataTypeBase type;
+
+        /** Create output port? */
+        final boolean output;
+
+        PortToCreate(Element component, String interfaceName, String name, String link, DataTypeBase type, boolean output) {
+            this.component = component;
+            this.interfaceName = interfaceName;
+            this.name = name;
+            this.link = link;
+            this.type = type;
+            this.output = output;
         }
-        if (nodes1.size() == 0) {
-            throw new Exception("No elements provided.");
+    }
+
+    /**
+     * Ports to create and connections to establish in order to connect elements - result of search.
+     * Only contains data from the snapshot. Can therefore be computed on any thread.
+     * createAction() creates the composite action to execute.
+     */
+    static class Plan {
+
+        /** Description of action */
+        final String description;
+
+        /** Alternative description (describes how elements are connected) */
+        String alternativeDescription;
+
+        /** Score of plan (higher is better - see createPlan()) */
+        long score;
+
+        /** Ports to create (key: component, then interface name) - components in order of first use */
+        final LinkedHashMap<Element, LinkedHashMap<String, ArrayList<PortToCreate>>> portsToCreate = new LinkedHashMap<Element, LinkedHashMap<String, ArrayList<PortToCreate>>>();
+
+        /** Connections to establish (links of source and destination port) */
+        final ArrayList<String[]> connections = new ArrayList<String[]>();
+
+        Plan(String description) {
+            this.description = description;
         }
-        boolean addControllerRun = false;
-        Set<RemoteFrameworkElement> crossedComponentInterfaces = new HashSet<RemoteFrameworkElement>();
-        CompositeAction action = new CompositeAction("Connect '" + FinstructAction.getReadableLinkForMenu(nodes1.get(0).getQualifiedName(FinstructAction.LINK_SEPARATOR)) + (nodes1.size() > 1 ? "' etc." : "'"));
-        Map<RemoteFrameworkElement, AddPortsToInterfaceAction> addPortActions = new HashMap<RemoteFrameworkElement, AddPortsToInterfaceAction>();
-        Exception caughtException = null;
 
-        try {
-            for (int i = 0; i < nodes1.size(); i++) {
-
-                // Initialize ports
-                TraceElement element1 = new TraceElement(), element2 = new TraceElement();
-                ArrayList<TraceElement> outwardTrace1 = new ArrayList<TraceElement>(), outwardTrace2 = new ArrayList<TraceElement>();
-                outwardTrace1.add(element1);
-                outwardTrace2.add(element2);
-
-                // Port 1
-                element1.port = nodes1.get(i);
-                element1.portName = element1.port.getName();
-                if ((!(element1.port.getParent() instanceof RemoteFrameworkElement)) || (!(element1.port.getParent().getParent() instanceof RemoteFrameworkElement))) {
-                    throw new Exception("Port must be below two framework elements");
+        /**
+         * @param component Component
+         * @param interfaceName Name of editable interface
+         * @return List with ports to create in this interface (created if it does not exist yet)
+         * @throws Exception if component has no editable interface with the specified name
+         */
+        List<PortToCreate> getPortsToCreate(Element component, String interfaceName) throws Exception {
+            LinkedHashMap<String, ArrayList<PortToCreate>> componentPorts = portsToCreate.get(component);
+            if (componentPorts == null) {
+                if (component.editableInterfaces == null) {
+                    throw new Exception("Component '" + component.qualifiedLinkName + "' has no editable interfaces");
+                }
+                componentPorts = new LinkedHashMap<String, ArrayList<PortToCreate>>();
+                portsToCreate.put(component, componentPorts);
+            }
+            ArrayList<PortToCreate> result = componentPorts.get(interfaceName);
+            if (result == null) {
+                boolean found = false;
+                for (Element editableInterface : component.editableInterfaces) {
+                    found |= editableInterface.name.equals(interfaceName);
+                }
+                if (!found) {
+                    throw new Exception("Element '" + component.qualifiedLinkName + "' has no interface with name '" + interfaceName + "'");
                 }
-                element1.interface_ = (RemoteFrameworkElement)element1.port.getParent();
-                element1.component = (RemoteFrameworkElement)element1.interface_.getParent();
+                result = new ArrayList<PortToCreate>();
+                componentPorts.put(interfaceName, result);
+            }
+            return result;
+        }
 
-                // Element 2
-                if (nodes2.get(i) instanceof RemotePort) {
-                    element2.port = (RemotePort)nodes2.get(i);
-                    element2.portName = element2.port.getName();
-                    if ((!(element2.port.getParent() instanceof RemoteFrameworkElement)) || (!(element2.port.getParent().getParent() instanceof RemoteFrameworkElement))) {
-                        throw new Exception("Port must be below two framework elements");
-                    }
-                    element2.interface_ = (RemoteFrameworkElement)element2.port.getParent();
-                    element2.component = (RemoteFrameworkElement)element2.interface_.getParent();
-                } else if ((nodes2.get(i) instanceof RemoteFrameworkElement) && nodes2.get(i).isInterface()) {
-                    element2.interface_ = (RemoteFrameworkElement)nodes2.get(i);
-                    if (!(element2.interface_.getParent() instanceof RemoteFrameworkElement)) {
-                        throw new Exception("Interface must be below framework element");
-                    }
-                    element2.component = (RemoteFrameworkElement)element2.interface_.getParent();
-                } else if (nodes2.get(i) instanceof RemoteFrameworkElement) {
-                    element2.component = (RemoteFrameworkElement)nodes2.get(i);
-                } else {
-                    throw new Exception("Can only connect to remote ports, interfaces, and components");
-                }
-
-                // Find common parent
-                ModelNode commonParent = findCommonParent(element1.component, element2.component);
-
-                // Check that ports fit
-                boolean outwardOnlyConnection = element1.component != element2.component && (element1.component == commonParent || element2.component == commonParent);
-                boolean port1IsOutput = element1.port.getFlag(FrameworkElementFlags.IS_OUTPUT_PORT);
-                boolean port2IsOutputDesired = outwardOnlyConnection ? port1IsOutput : (!port1IsOutput);
-                if (element2.port != null || (element2.interface_ != null && (element2.interface_.isInputOnlyInterface() || element2.interface_.isOutputOnlyInterface()))) {
-                    boolean port2IsOutput = (element2.port != null && element2.port.getFlag(FrameworkElementFlags.IS_OUTPUT_PORT)) || (element2.port == null && element2.interface_.isOutputOnlyInterface());
-                    if (port2IsOutput != port2IsOutputDesired) {
-                        throw new Exception("Unsuitable data flow directions");
+        /**
+         * @return True if plan contains nothing to do
+         */
+        boolean isEmpty() {
+            return portsToCreate.isEmpty() && connections.isEmpty();
+        }
+
+        /**
+         * Creates action that executes this plan (must be called by AWT thread)
+         *
+         * @return Created action
+         */
+        CompositeAction createAction() throws Exception {
+            CompositeAction action = new CompositeAction(description);
+            for (Map.Entry<Element, LinkedHashMap<String, ArrayList<PortToCreate>>> componentEntry : portsToCreate.entrySet()) {
+                AddPortsToInterfaceAction addPortAction = new AddPortsToInterfaceAction((RemoteFrameworkElement)componentEntry.getKey().node);
+                if (action.getActions().size() == 0) {
+                    action.getActions().add(0, CompositeAction.CHECK_SUCCESS_BEFORE_CONTINUE);
+                }
+                action.getActions().add(0, addPortAction);
+                for (Map.Entry<String, ArrayList<PortToCreate>> interfaceEntry : componentEntry.getValue().entrySet()) {
+                    List<PortCreationList.Entry> addList = addPortAction.getPortsToAdd(interfaceEntry.getKey());
+                    for (PortToCreate port : interfaceEntry.getValue()) {
+                        addList.add(new PortCreationList.Entry(port.name, new DataTypeReference(port.type), port.output ? PortCreationList.CREATE_OPTION_OUTPUT : 0));
                     }
                 }
+            }
+            for (String[] connection : connections) {
+                action.getActions().add(new ConnectAction(connection[0], connection[1]));
+            }
+            action.setAlternativeDescription(alternativeDescription);
+            return action;
+        }
+    }
 
-                // Trace components towards common parent
-                for (int j = 0; j < 2 && (!directConnectingRun); j++) {
-                    ArrayList<TraceElement> trace = j == 0 ? outwardTrace1 : outwardTrace2;
-                    TraceElement element = trace.get(0);
-                    while (element.component != commonParent && element.component.getParent() != commonParent && element.component.getParent() instanceof RemoteFrameworkElement && (!(element.component.getParent() instanceof RemoteRuntime))) {
-                        TraceElement newElement = new TraceElement();
-                        newElement.component = (RemoteFrameworkElement)element.component.getParent();
-                        trace.add(newElement);
-                        element = newElement;
-                    }
+    /**
+     * Data on a pair of elements to connect that does not depend on the variant (sensor/controller interfaces, direct connecting)
+     * that is searched for. Computed once per search - and shared by all variants.
+     */
+    static class PortPair {
+
+        /** Port 1 and its interface and component */
+        Element port1, interface1, component1;
+
+        /** Element 2 (port, interface, or component) - port and interface may be null */
+        Element port2, interface2, component2;
+
+        /** Components that traces of element 1 and element 2 pass towards common parent (excluding start component) */
+        final ArrayList<Element> outwardComponents1 = new ArrayList<Element>(), outwardComponents2 = new ArrayList<Element>();
+
+        /** Data flow directions */
+        boolean port1IsOutput, port2IsOutputDesired;
+
+        /** Does pair transport sensor/controller data? */
+        boolean sensorData, controllerData;
+
+        /** If element pair cannot be connected, reason (exception is thrown when pair is processed) */
+        Exception error;
+
+        /**
+         * @param directConnectingRun Create trace for direct connecting (without elements towards common parent)?
+         * @param second Create trace for element 2 (instead of element 1)?
+         * @return New outward trace for this pair
+         */
+        ArrayList<TraceElement> createTrace(boolean second, boolean directConnectingRun) {
+            ArrayList<TraceElement> trace = new ArrayList<TraceElement>();
+            TraceElement element = new TraceElement();
+            element.port = second ? port2 : port1;
+            element.portName = element.port != null ? element.port.name : null;
+            element.interface_ = second ? interface2 : interface1;
+            element.component = second ? component2 : component1;
+            trace.add(element);
+            if (!directConnectingRun) {
+                for (Element component : (second ? outwardComponents2 : outwardComponents1)) {
+                    TraceElement newElement = new TraceElement();
+                    newElement.component = component;
+                    trace.add(newElement);
                 }
+            }
+            return trace;
+        }
+    }
 
-                // Decide on whether to use sensor or controller interfaces
-                boolean sensorData = element1.interface_.isSensorInterface() || (element2.interface_ != null && element2.interface_.isSensorInterface());
-                boolean controllerData = element1.interface_.isControllerInterface() || (element2.interface_ != null && element2.interface_.isControllerInterface());
-//              int index = 1;
-//              ArrayList<RemotePort> portSet1 = new ArrayList<RemotePort>();
-//              portSet1.add(element1.port);
-//              ArrayList<RemotePort> portSet2 = new ArrayList<RemotePort>();
-//              if (element2.port != null) {
-//                  portSet2.add(element2.port);
-//              }
-//              // Trace any outward connections to classify port data
-//              while ((!sensorData) && (!controllerData) && (portSet1.size() > 0 || portSet2.size() > 0)) {
-//                  for (int j = 0; j < 2; j++) {
-//                      ArrayList<TraceElement> trace = j == 0 ? outwardTrace1 : outwardTrace2;
-//                      ArrayList<RemotePort> portSet = j == 0 ? portSet1 : portSet2;
-//                      if (portSet.size() > 0 && index < trace.size()) {
-//                          ArrayList<RemotePort> newSet = new ArrayList<RemotePort>();
-//                          for (RemotePort port : portSet) {
-//                              newSet.addAll(getConnectionsTo(port, trace.get(index).component));
-//                          }
-//                          for (RemotePort port : newSet) {
-//                              sensorData |= (port.getParent() instanceof RemoteFrameworkElement) && ((RemoteFrameworkElement)port.getParent()).getFlag(FrameworkElementFlags.SENSOR_DATA);
-//                              controllerData |= (port.getParent() instanceof RemoteFrameworkElement) && ((RemoteFrameworkElement)port.getParent()).getFlag(FrameworkElementFlags.CONTROLLER_DATA);
-//                          }
-//                          portSet.clear();
-//                          portSet.addAll(newSet);
-//                      } else {
-//                          portSet.clear();
-//                      }
-//                  }
-//                  index++;
-//              }
+    /**
+     * Result of processing an element pair in one search variant (see processPair())
+     */
+    static class PairResult {
 
-                // Process outward traces
-                ArrayList<RemoteFrameworkElement> interfaceCandidates = new ArrayList<RemoteFrameworkElement>();
+        /** If pair cannot be connected in this variant, reason */
+        Exception error;
 
-                for (int j = 0; j < 2; j++) {
-                    ArrayList<TraceElement> trace = j == 0 ? outwardTrace1 : outwardTrace2;
-                    for (int k = 0; k < trace.size(); k++) {
-                        TraceElement currentElement = trace.get(k);
-                        if (currentElement.port != null) {
-                            continue;
-                        }
-                        TraceElement lastElement = (k > 0) ? trace.get(k - 1) : outwardTrace1.get(0); // 0 is only possible with outwardTrace2
-                        boolean outputPorts = j == 0 ? port1IsOutput : port2IsOutputDesired;
-
-                        // Select an interface
-                        if (currentElement.interface_ == null) {
-                            ModelNode sameNameInterface = currentElement.component.getChildByName(lastElement.interface_.getName());
-                            if (k > 0 && sameNameInterface instanceof RemoteFrameworkElement && ((RemoteFrameworkElement)sameNameInterface).isInterface() &&
-                                    (((RemoteFrameworkElement)sameNameInterface).isEditableInterface() || sameNameInterface.getChildByName(lastElement.portName) instanceof RemotePort)) {
-                                currentElement.interface_ = (RemoteFrameworkElement)sameNameInterface;
-                            } else if (currentElement.component.getEditableInterfaces() != null) {
-                                interfaceCandidates.clear();
-                                int maxScore = -1;
-                                for (RemoteFrameworkElement candidate : currentElement.component.getEditableInterfaces()) {
-                                    int score = 0;
-                                    boolean rpcType = FinrocTypeInfo.isMethodType(element1.port.getDataType(), true);
-                                    boolean rpcPortInDataInterface = rpcType && (!element1.interface_.getFlag(FrameworkElementFlags.INTERFACE_FOR_RPC_PORTS));
-                                    boolean checkForRpcType = rpcType && (!rpcPortInDataInterface);
-
-                                    boolean directionOk = (outputPorts && candidate.getFlag(FrameworkElementFlags.INTERFACE_FOR_OUTPUTS)) || ((!outputPorts) && candidate.getFlag(FrameworkElementFlags.INTERFACE_FOR_INPUTS)) || rpcType;
-                                    if (!rpcType) {
-                                        score += (outputPorts && candidate.isOutputOnlyInterface()) || ((!outputPorts) && candidate.isInputOnlyInterface()) ? 1 : 0;
-                                    } else if (rpcPortInDataInterface) {
-                                        score += lastElement.interface_.getName().contains("Output") && candidate.getName().contains("Output") || lastElement.interface_.getName().contains("Input") && candidate.getName().contains("Input") ? 1 : 0;
-                                    }
-                                    boolean typeCheck1 = (sensorData == controllerData) || candidate.getFlag(FrameworkElementFlags.SENSOR_DATA) == candidate.getFlag(FrameworkElementFlags.CONTROLLER_DATA) || candidate.isControllerInterface() && controllerData || candidate.isSensorInterface() && sensorData;
-                                    score += (sensorData != controllerData) && ((sensorData && candidate.isSensorInterface()) || (controllerData && candidate.isControllerInterface())) ? 2 : 0;
-                                    boolean typeCheck2 = (checkForRpcType && candidate.getFlag(FrameworkElementFlags.INTERFACE_FOR_RPC_PORTS)) || ((!checkForRpcType) && candidate.getFlag(FrameworkElementFlags.INTERFACE_FOR_DATA_PORTS));
-                                    score += (checkForRpcType && candidate.isRpcOnlyInterface()) || ((!checkForRpcType) && (candidate.getFlags() & (FrameworkElementFlags.INTERFACE_FOR_DATA_PORTS | FrameworkElementFlags.INTERFACE_FOR_RPC_PORTS)) == FrameworkElementFlags.INTERFACE_FOR_DATA_PORTS) ? 1 : 0;
-                                    if (directionOk && typeCheck1 && typeCheck2 && score >= maxScore) {
-                                        if (score > maxScore) {
-                                            interfaceCandidates.clear();
-                                        }
-                                        interfaceCandidates.add(candidate);
-                                        maxScore = score;
-                                    }
-                                }
-
-                                // evaluate candidates
-                                if (interfaceCandidates.size() == 0) {
-                                    throw new Exception("No suitable interface in " + currentElement.component.getQualifiedName('/'));
-                                } else if (interfaceCandidates.size() == 1) {
-                                    currentElement.interface_ = interfaceCandidates.get(0);
-                                } else if (interfaceCandidates.size() == 2 && sensorData == controllerData && interfaceCandidates.get(0).isControllerInterface() != interfaceCandidates.get(0).isSensorInterface() &&
-                                           interfaceCandidates.get(1).isControllerInterface() != interfaceCandidates.get(1).isSensorInterface() && interfaceCandidates.get(0).isSensorInterface() != interfaceCandidates.get(1).isSensorInterface()) {
-                                    // sensor/controller-data ambiguity: two runs (select sensor in first)
-                                    currentElement.interface_ = interfaceCandidates.get(0).isControllerInterface() == controllerRun ? interfaceCandidates.get(0) : interfaceCandidates.get(1);
-                                    addControllerRun = !controllerRun;
-                                } else {
-                                    throw new Exception("Interface selection ambiguous for component " + currentElement.component.getQualifiedName('/'));
-                                }
-                            } else {
-                                throw new Exception("Component '" + currentElement.component.getQualifiedName('/') + "' has no editable interfaces");
-                            }
-                        }
+        /** Was selecting sensor or controller interface ambiguous? (only then, result differs in controller variant) */
+        boolean ambiguous;
 
-                        // Component interfaces crossed
-                        if (k > 0) {
-                            crossedComponentInterfaces.add(currentElement.interface_);
-                        }
+        /** Component interfaces crossed */
+        final ArrayList<Element> crossedInterfaces = new ArrayList<Element>();
 
-                        // Check or create port
-                        ModelNode childElement = currentElement.interface_.getChildByName(lastElement.portName);
-                        if (childElement != null) {
-                            // Check port
-                            if (!(childElement instanceof RemotePort)) {
-                                throw new Exception("Relevant interface has element with same name which is no port '" + lastElement.portName + "'");
-                            }
-                            RemotePort port = (RemotePort)childElement;
-                            if (port.getFlag(FrameworkElementFlags.IS_OUTPUT_PORT) != outputPorts) {
-                                throw new Exception("Relevant interface has port with same name and wrong direction '" + port.getQualifiedLink() + "'");
-                            }
-                            if (!(port.getFlag(FrameworkElementFlags.EMITS_DATA) && port.getFlag(FrameworkElementFlags.ACCEPTS_DATA)) && k > 0) {
-                                throw new Exception("Relevant interface has port with same name which is no proxy '" + port.getQualifiedLink() + "'");
-                            }
-                            if (port.getDataType() != outwardTrace1.get(0).port.getDataType()) {
-                                throw new Exception("Relevant interface has port with same name and wrong data type '" + port.getQualifiedLink() + "'");
-                            }
-                            currentElement.port = port;
-                            currentElement.portName = port.getName();
-                        } else {
-                            // Create port (?)
-                            currentElement.portName = lastElement.portName;
-                            AddPortsToInterfaceAction addPortAction = addPortActions.get(currentElement.component);
-                            if (addPortAction == null) {
-                                addPortAction = new AddPortsToInterfaceAction(currentElement.component);
-                                if (addPortActions.size() == 0) {
-                                    action.getActions().add(0, CompositeAction.CHECK_SUCCESS_BEFORE_CONTINUE);
-                                }
-                                action.getActions().add(0, addPortAction);
-                                addPortActions.put(currentElement.component, addPortAction);
-                            }
-                            List<PortCreationList.Entry> addList = addPortAction.getPortsToAdd(currentElement.interface_.getName());
-
-                            // Check whether entry is already in list
-                            boolean found = false;
-                            for (PortCreationList.Entry entry : addList) {
-                                if (entry.name.equals(currentElement.portName)) {
-                                    if (entry.type.get() != outwardTrace1.get(0).port.getDataType()) {
-                                        throw new Exception("Existing port '" + currentElement.getPortLink() + "' needs same data type");
-                                    } else {
-                                        found = true;
-                                    }
-                                    break;
-                                }
-                            }
+        /** Ports to create (in order) */
+        final ArrayList<PortToCreate> portsToCreate = new ArrayList<PortToCreate>();
 
-                            if (!found) {
-                                addList.add(new PortCreationList.Entry(currentElement.portName, new DataTypeReference(outwardTrace1.get(0).port.getDataType()), outputPorts ? PortCreationList.CREATE_OPTION_OUTPUT : 0));
-                            }
-                        }
+        /** Connections to establish (links of source and destination port) */
+        final ArrayList<String[]> connections = new ArrayList<String[]>();
+    }
 
-                        // Create connection?
-                        if (k > 0 && (lastElement.port == null || currentElement.port == null || (!lastElement.port.isConnectedTo(currentElement.port)))) {
-                            ConnectAction connectAction = new ConnectAction(lastElement.getPortLink(), currentElement.getPortLink());
-                            action.getActions().add(connectAction);
-                        }
-                    }
+    /**
+     * Results shared by all variants of a search (see search())
+     */
+    static class SearchContext {
+
+        /** Snapshot that search operates on */
+        final Snapshot snapshot;
+
+        /** Prepared element pairs */
+        final PortPair[] pairs;
+
+        /** Memoised interface candidates (key: component, then flags as computed in getInterfaceCandidates) - accessed by multiple threads */
+        private final HashMap<Element, HashMap<Integer, List<Element>>> interfaceCandidates = new HashMap<Element, HashMap<Integer, List<Element>>>();
+
+        /** Results of element pairs per search variant (index: variant) - computed on demand */
+        private final PairResult[][] pairResults = new PairResult[VARIANT_COUNT][];
+
+        /** Description of first element pair */
+        final String description;
+
+        SearchContext(final Snapshot snapshot, final List<RemotePort> nodes1, final List<ModelNode> nodes2) throws Exception {
+            if (nodes1.size() != nodes2.size()) {
+                throw new Exception("Collections need to have the same size");
+            }
+            if (nodes1.size() == 0) {
+                throw new Exception("No elements provided.");
+            }
+            this.snapshot = snapshot;
+            pairs = new PortPair[nodes1.size()];
+            description = "Connect '" + FinstructAction.getReadableLinkForMenu(snapshot.find(nodes1.get(0)).qualifiedLinkName) + (nodes1.size() > 1 ? "' etc." : "'");
+            processPairs(pairs.length, new PairTask() {
+                @Override
+                public void process(int index) {
+                    pairs[index] = preparePair(snapshot.find(nodes1.get(index)), snapshot.find(nodes2.get(index)));
+                }
+            });
+        }
+
+        /**
+         * @return True if traces of any element pair cross component boundaries (towards common parent)
+         */
+        boolean hasOutwardComponents() {
+            for (PortPair pair : pairs) {
+                if (pair.outwardComponents1.size() > 0 || pair.outwardComponents2.size() > 0) {
+                    return true;
                 }
+            }
+            return false;
+        }
 
-                // Create connection
-                TraceElement lastElement1 = outwardTrace1.get(outwardTrace1.size() - 1);
-                TraceElement lastElement2 = outwardTrace2.get(outwardTrace2.size() - 1);
-                if (lastElement1.port instanceof RemotePort && lastElement2.port instanceof RemotePort) {
-                    String result = mayConnectDirectly((RemotePort)lastElement1.port, (RemotePort)lastElement2.port, true);
-                    if (result.length() > 0) {
-                        throw new Exception(result);
+        /**
+         * Returns results of all element pairs in search variant (computed on first call).
+         * Results that do not depend on the variant are shared: A pair's result in a controller variant
+         * is the same as without controller variant - unless interface selection was ambiguous.
+         * A pair's result in a direct connecting variant is the same as without direct connecting -
+         * unless traces cross component boundaries.
+         *
+         * @param variant Search variant
+         * @return Results of all element pairs (must not be modified)
+         */
+        PairResult[] getPairResults(final int variant) throws Exception {
+            if (pairResults[variant] == null) {
+                final PairResult[] controllerIndependentResults = (variant & CONTROLLER_VARIANT) != 0 ? getPairResults(variant & ~CONTROLLER_VARIANT) : null;
+                final PairResult[] directIndependentResults = (variant & DIRECT_VARIANT) != 0 ? getPairResults(variant & ~DIRECT_VARIANT) : null;
+                final PairResult[] results = new PairResult[pairs.length];
+                processPairs(pairs.length, new PairTask() {
+                    @Override
+                    public void process(int index) {
+                        PortPair pair = pairs[index];
+                        if (controllerIndependentResults != null && (!controllerIndependentResults[index].ambiguous)) {
+                            results[index] = controllerIndependentResults[index];
+                        } else if (directIndependentResults != null && pair.outwardComponents1.size() == 0 && pair.outwardComponents2.size() == 0) {
+                            results[index] = directIndependentResults[index];
+                        } else {
+                            results[index] = processPair(SearchContext.this, pair, (variant & CONTROLLER_VARIANT) != 0, (variant & DIRECT_VARIANT) != 0);
+                        }
                     }
+                });
+                pairResults[variant] = results;
+            }
+            return pairResults[variant];
+        }
+
+        /**
+         * Returns interface candidates with maximum score (memoised - may be called by multiple threads concurrently)
+         *
+         * @param component Component to select interface of
+         * @param outputPorts Connect output ports?
+         * @param pair Element pair to connect
+         * @param lastElement Previous element in trace
+         * @return Interface candidates with maximum score (must not be modified)
+         */
+        List<Element> getInterfaceCandidates(Element component, boolean outputPorts, PortPair pair, TraceElement lastElement) {
+            boolean rpcType = pair.port1.methodType;
+            boolean rpcPortInDataInterface = rpcType && (!pair.interface1.getFlag(FrameworkElementFlags.INTERFACE_FOR_RPC_PORTS));
+            boolean lastOutput = rpcPortInDataInterface && lastElement.interface_.name.contains("Output");
+            boolean lastInput = rpcPortInDataInterface && lastElement.interface_.name.contains("Input");
+            int flags = (outputPorts ? 1 : 0) | (rpcType ? 2 : 0) | (rpcPortInDataInterface ? 4 : 0) | (lastOutput ? 8 : 0) | (lastInput ? 16 : 0) | (pair.sensorData ? 32 : 0) | (pair.controllerData ? 64 : 0);
+            HashMap<Integer, List<Element>> componentCandidates;
+            List<Element> result;
+            synchronized (interfaceCandidates) {
+                componentCandidates = interfaceCandidates.get(component);
+                if (componentCandidates == null) {
+                    componentCandidates = new HashMap<Integer, List<Element>>();
+                    interfaceCandidates.put(component, componentCandidates);
                 }
-                if (lastElement1.port == null || lastElement2.port == null || (!lastElement1.port.isConnectedTo(lastElement2.port))) {
-                    ConnectAction connectAction = new ConnectAction(lastElement1.getPortLink(), lastElement2.getPortLink());
-                    action.getActions().add(connectAction);
+                result = componentCandidates.get(flags);
+            }
+            if (result == null) {
+                result = scoreInterfaceCandidates(component, outputPorts, rpcType, rpcPortInDataInterface, lastOutput, lastInput, pair.sensorData, pair.controllerData);
+                synchronized (interfaceCandidates) {
+                    List<Element> existing = componentCandidates.get(flags);
+                    if (existing != null) {
+                        result = existing;
+                    } else {
+                        componentCandidates.put(flags, result);
+                    }
                 }
             }
-        } catch (NullPointerException e) {
-            e.printStackTrace();
-            caughtException = new Exception("Internal Error (see console)");
-        } catch (Exception e) {
-            caughtException = e;
+            return result;
         }
+    }
+
+    /**
+     * Task that processes an element pair (see processPairs())
+     */
+    private interface PairTask {
+
+        /**
+         * @param index Index of element pair
+         */
+        void process(int index);
+    }
 
-        if (caughtException == null && action.getActions().size() == 0) {
-            caughtException = new Exception("Nothing to do");
+    /**
+     * Processes element pairs - in parallel on the search threads if there are at least PARALLEL_PAIR_THRESHOLD pairs.
+     * (tasks only read data from the snapshot, which is not modified during the search)
+     *
+     * @param pairCount Number of element pairs
+     * @param task Task to execute for every pair
+     */
+    private static void processPairs(int pairCount, final PairTask task) throws Exception {
+        if (pairCount < PARALLEL_PAIR_THRESHOLD) {
+            for (int i = 0; i < pairCount; i++) {
+                task.process(i);
+            }
+            return;
         }
 
-        // Prepare result
-        ArrayList<CompositeAction> result = new ArrayList<CompositeAction>();
-        if (caughtException == null) {
-            // Set description
-            String appendix = addControllerRun || controllerRun ? (" (" + (controllerRun ? "Controller" : "Sensor") + " interface" + (crossedComponentInterfaces.size() > 1 ? "s" : "") + ")") : "";
-            action.setAlternativeDescription((crossedComponentInterfaces.size() == 0 ? "Connect directly" : ("Connect via " + crossedComponentInterfaces.size() + " interface" + (crossedComponentInterfaces.size() > 1 ? "s" : ""))) + appendix);
-            result.add(action);
+        int chunkSize = (pairCount + Runtime.getRuntime().availableProcessors() - 1) / Runtime.getRuntime().availableProcessors();
+        ArrayList<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int start = 0; start < pairCount; start += chunkSize) {
+            final int chunkStart = start;
+            final int chunkEnd = Math.min(pairCount, start + chunkSize);
+            futures.add(getSearchThreads().submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int i = chunkStart; i < chunkEnd; i++) {
+                        task.process(i);
+                    }
+                    return null;
+                }
+            }));
         }
-        if (addControllerRun && (!controllerRun)) {
+        for (Future<Void> future : futures) {
             try {
-                result.addAll(getConnectActionImplementation(nodes1, nodes2, allowDirectConnecting, true, directConnectingRun));
-            } catch (Exception e) {}
+                future.get();
+            } catch (ExecutionException e) {
+                throw (e.getCause() instanceof Exception) ? (Exception)e.getCause() : e;
+            }
+        }
+    }
+
+    /**
+     * @return Threads that process element pairs in parallel
+     */
+    private static synchronized ExecutorService getSearchThreads() {
+        if (searchThreads == null) {
+            searchThreads = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "Connection search");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return searchThreads;
+    }
+
+    /**
+     * Prepares element pair (checks everything that does not depend on the search variant)
+     *
+     * @param node1 First element (port)
+     * @param node2 Second element (port, interface, or component)
+     * @return Prepared pair (with error set if elements cannot be connected)
+     */
+    private static PortPair preparePair(Element node1, Element node2) {
+        PortPair pair = new PortPair();
+        try {
+            // Port 1
+            pair.port1 = node1;
+            if (pair.port1.parent == null || (!pair.port1.parent.frameworkElement) || pair.port1.parent.parent == null || (!pair.port1.parent.parent.frameworkElement)) {
+                throw new Exception("Port must be below two framework elements");
+            }
+            pair.interface1 = pair.port1.parent;
+            pair.component1 = pair.interface1.parent;
+
+            // Element 2
+            if (node2.port) {
+                pair.port2 = node2;
+                if (pair.port2.parent == null || (!pair.port2.parent.frameworkElement) || pair.port2.parent.parent == null || (!pair.port2.parent.parent.frameworkElement)) {
+                    throw new Exception("Port must be below two framework elements");
+                }
+                pair.interface2 = pair.port2.parent;
+                pair.component2 = pair.interface2.parent;
+            } else if (node2.frameworkElement && node2.interface_) {
+                pair.interface2 = node2;
+                if (pair.interface2.parent == null || (!pair.interface2.parent.frameworkElement)) {
+                    throw new Exception("Interface must be below framework element");
+                }
+                pair.component2 = pair.interface2.parent;
+            } else if (node2.frameworkElement) {
+                pair.component2 = node2;
+            } else {
+                throw new Exception("Can only connect to remote ports, interfaces, and components");
+            }
+
+            // Find common parent
+            Element commonParent = findCommonParent(pair.component1, pair.component2);
+
+            // Check that ports fit
+            boolean outwardOnlyConnection = pair.component1 != pair.component2 && (pair.component1 == commonParent || pair.component2 == commonParent);
+            pair.port1IsOutput = pair.port1.getFlag(FrameworkElementFlags.IS_OUTPUT_PORT);
+            pair.port2IsOutputDesired = outwardOnlyConnection ? pair.port1IsOutput : (!pair.port1IsOutput);
+            if (pair.port2 != null || (pair.interface2 != null && (pair.interface2.inputOnlyInterface || pair.interface2.outputOnlyInterface))) {
+                boolean port2IsOutput = (pair.port2 != null && pair.port2.getFlag(FrameworkElementFlags.IS_OUTPUT_PORT)) || (pair.port2 == null && pair.interface2.outputOnlyInterface);
+                if (port2IsOutput != pair.port2IsOutputDesired) {
+                    throw new Exception("Unsuitable data flow directions");
+                }
+            }
+
+            // Trace components towards common parent
+            for (int j = 0; j < 2; j++) {
+                ArrayList<Element> trace = j == 0 ? pair.outwardComponents1 : pair.outwardComponents2;
+                Element component = j == 0 ? pair.component1 : pair.component2;
+                while (component != commonParent && component.parent != commonParent && component.parent != null && component.parent.frameworkElement && (!(component.parent.node instanceof RemoteRuntime))) {
+                    component = component.parent;
+                    trace.add(component);
+                }
+            }
+
+            // Decide on whether to use sensor or controller interfaces
+            pair.sensorData = pair.interface1.sensorInterface || (pair.interface2 != null && pair.interface2.sensorInterface);
+            pair.controllerData = pair.interface1.controllerInterface || (pair.interface2 != null && pair.interface2.controllerInterface);
+        } catch (Exception e) {
+            pair.error = e;
+        }
+        return pair;
+    }
+
+    /**
+     * Scores editable interfaces of component as targets for a connection
+     *
+     * @return Interface candidates with maximum score
+     */
+    private static List<Element> scoreInterfaceCandidates(Element component, boolean outputPorts, boolean rpcType, boolean rpcPortInDataInterface, boolean lastOutput, boolean lastInput, boolean sensorData, boolean controllerData) {
+        ArrayList<Element> interfaceCandidates = new ArrayList<Element>();
+        boolean checkForRpcType = rpcType && (!rpcPortInDataInterface);
+        int maxScore = -1;
+        for (Element candidate : component.editableInterfaces) {
+            int score = 0;
+            boolean directionOk = (outputPorts && candidate.getFlag(FrameworkElementFlags.INTERFACE_FOR_OUTPUTS)) || ((!outputPorts) && candidate.getFlag(FrameworkElementFlags.INTERFACE_FOR_INPUTS)) || rpcType;
+            if (!rpcType) {
+                score += (outputPorts && candidate.outputOnlyInterface) || ((!outputPorts) && candidate.inputOnlyInterface) ? 1 : 0;
+            } else if (rpcPortInDataInterface) {
+                score += lastOutput && candidate.name.contains("Output") || lastInput && candidate.name.contains("Input") ? 1 : 0;
+            }
+            boolean typeCheck1 = (sensorData == controllerData) || candidate.getFlag(FrameworkElementFlags.SENSOR_DATA) == candidate.getFlag(FrameworkElementFlags.CONTROLLER_DATA) || candidate.controllerInterface && controllerData || candidate.sensorInterface && sensorData;
+            score += (sensorData != controllerData) && ((sensorData && candidate.sensorInterface) || (controllerData && candidate.controllerInterface)) ? 2 : 0;
+            boolean typeCheck2 = (checkForRpcType && candidate.getFlag(FrameworkElementFlags.INTERFACE_FOR_RPC_PORTS)) || ((!checkForRpcType) && candidate.getFlag(FrameworkElementFlags.INTERFACE_FOR_DATA_PORTS));
+            score += (checkForRpcType && candidate.rpcOnlyInterface) || ((!checkForRpcType) && (candidate.flags & (FrameworkElementFlags.INTERFACE_FOR_DATA_PORTS | FrameworkElementFlags.INTERFACE_FOR_RPC_PORTS)) == FrameworkElementFlags.INTERFACE_FOR_DATA_PORTS) ? 1 : 0;
+            if (directionOk && typeCheck1 && typeCheck2 && score >= maxScore) {
+                if (score > maxScore) {
+                    interfaceCandidates.clear();
+                }
+                interfaceCandidates.add(candidate);
+                maxScore = score;
+            }
         }
-        if (crossedComponentInterfaces.size() > 0 && allowDirectConnecting && (!directConnectingRun) && (!controllerRun)) {
+        return interfaceCandidates;
+    }
+
+    /**
+     * Enumerates viable plans to connect the elements (may be called by any thread - see mayConnect(Snapshot, ...))
+     *
+     * Connecting via interfaces is always searched. If selecting sensor or controller interfaces is ambiguous,
+     * the controller variant is searched as well. If direct connecting is allowed and the traces cross component boundaries,
+     * the direct connecting variants are searched. All variants share the prepared element pairs, the memoised interface candidates,
+     * and the results of element pairs that do not depend on the variant.
+     *
+     * @param context Search context
+     * @param allowDirectConnecting Allow direct connecting across component boundaries?
+     * @param firstViablePlanOnly Stop after the first viable plan has been found? (sufficient to check whether connecting is possible)
+     * @return Viable plans sorted by score (best first - plans with equal score in enumeration order)
+     * @throws Throws Exception if there is no viable plan (with reason as message)
+     */
+    private static List<Plan> search(SearchContext context, boolean allowDirectConnecting, boolean firstViablePlanOnly) throws Exception {
+        ArrayList<Plan> plans = new ArrayList<Plan>();
+        Exception error = null;
+        for (int variant = 0; variant < VARIANT_COUNT && (plans.isEmpty() || (!firstViablePlanOnly)); variant++) {
+            if (!isVariantRelevant(context, variant, allowDirectConnecting)) {
+                continue;
+            }
             try {
-                result.addAll(getConnectActionImplementation(nodes1, nodes2, allowDirectConnecting, false, true));
+                plans.add(createPlan(context, variant));
             } catch (Exception e) {
-                caughtException = e;
+                if ((variant & CONTROLLER_VARIANT) == 0) {
+                    error = e; // error of direct connecting variant is reported if it was searched
+                }
+            }
+        }
+        if (plans.isEmpty()) {
+            throw error;
+        }
+        Collections.sort(plans, new Comparator<Plan>() {
+            @Override
+            public int compare(Plan plan1, Plan plan2) {
+                return Long.compare(plan2.score, plan1.score);
+            }
+        });
+        return plans;
+    }
+
+    /**
+     * @param context Search context
+     * @param variant Search variant
+     * @param allowDirectConnecting Allow direct connecting across component boundaries?
+     * @return True if variant needs to be searched
+     */
+    private static boolean isVariantRelevant(SearchContext context, int variant, boolean allowDirectConnecting) throws Exception {
+        if ((variant & DIRECT_VARIANT) != 0 && ((!allowDirectConnecting) || (!context.hasOutwardComponents()))) {
+            return false;
+        }
+        if ((variant & CONTROLLER_VARIANT) != 0) {
+            for (PairResult pairResult : context.getPairResults(variant & ~CONTROLLER_VARIANT)) {
+                if (pairResult.ambiguous) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Merges the results of all element pairs in a search variant to a plan
+     *
+     * Score of plan: Each port to create costs 2 points and each connection 1 point.
+     * Connecting directly across component boundaries costs DIRECT_CONNECTING_PENALTY points (so that connecting via interfaces is always preferred).
+     *
+     * @param context Search context
+     * @param variant Search variant
+     * @return Plan
+     * @throws Throws Exception if elements cannot be connected in this variant (with reason as message)
+     */
+    private static Plan createPlan(SearchContext context, int variant) throws Exception {
+        boolean controllerRun = (variant & CONTROLLER_VARIANT) != 0;
+        boolean directConnectingRun = (variant & DIRECT_VARIANT) != 0;
+        Plan plan = new Plan(context.description);
+        Set<Element> crossedComponentInterfaces = new HashSet<Element>();
+        boolean ambiguous = false;
+        int portCount = 0;
+        for (PairResult pairResult : context.getPairResults(variant)) {
+            if (pairResult.error != null) {
+                throw pairResult.error;
+            }
+            ambiguous |= pairResult.ambiguous;
+            crossedComponentInterfaces.addAll(pairResult.crossedInterfaces);
+            for (PortToCreate port : pairResult.portsToCreate) {
+                List<PortToCreate> addList = plan.getPortsToCreate(port.component, port.interfaceName);
+
+                // Check whether entry is already in list
+                boolean found = false;
+                for (PortToCreate entry : addList) {
+                    if (entry.name.equals(port.name)) {
+                        if (entry.type != port.type) {
+                            throw new Exception("Existing port '" + port.link + "' needs same data type");
+                        }
+                        found = true;
+                        break;
+                    }
+                }
+
+                if (!found) {
+                    addList.add(port);
+                    portCount++;
+                }
             }
+            plan.connections.addAll(pairResult.connections);
         }
-        if (result.isEmpty()) {
-            throw caughtException;
+
+        if (plan.isEmpty()) {
+            throw new Exception("Nothing to do");
+        }
+
+        // Set description and score
+        String appendix = ambiguous || controllerRun ? (" (" + (controllerRun ? "Controller" : "Sensor") + " interface" + (crossedComponentInterfaces.size() > 1 ? "s" : "") + ")") : "";
+        plan.alternativeDescription = (crossedComponentInterfaces.size() == 0 ? "Connect directly" : ("Connect via " + crossedComponentInterfaces.size() + " interface" + (crossedComponentInterfaces.size() > 1 ? "s" : ""))) + appendix;
+        plan.score = -(directConnectingRun ? DIRECT_CONNECTING_PENALTY : 0) - 2 * portCount - plan.connections.size();
+        return plan;
+    }
+
+    /**
+     * Processes element pair in one search variant
+     *
+     * @param context Search context
+     * @param pair Element pair
+     * @param controllerRun Select controller interfaces on sensor/controller ambiguity? (otherwise sensor interfaces)
+     * @param directConnectingRun Connect directly across component boundaries?
+     * @return Result (with error set if pair cannot be connected in this variant)
+     */
+    private static PairResult processPair(SearchContext context, PortPair pair, boolean controllerRun, boolean directConnectingRun) {
+        PairResult result = new PairResult();
+        try {
+            if (pair.error != null) {
+                throw pair.error;
+            }
+
+            // Initialize traces
+            ArrayList<TraceElement> outwardTrace1 = pair.createTrace(false, directConnectingRun), outwardTrace2 = pair.createTrace(true, directConnectingRun);
+            boolean port1IsOutput = pair.port1IsOutput;
+            boolean port2IsOutputDesired = pair.port2IsOutputDesired;
+            boolean sensorData = pair.sensorData;
+            boolean controllerData = pair.controllerData;
+
+            // Process outward traces
+            for (int j = 0; j < 2; j++) {
+                ArrayList<TraceElement> trace = j == 0 ? outwardTrace1 : outwardTrace2;
+                for (int k = 0; k < trace.size(); k++) {
+                    TraceElement currentElement = trace.get(k);
+                    if (currentElement.port != null) {
+                        continue;
+                    }
+                    TraceElement lastElement = (k > 0) ? trace.get(k - 1) : outwardTrace1.get(0); // 0 is only possible with outwardTrace2
+                    boolean outputPorts = j == 0 ? port1IsOutput : port2IsOutputDesired;
+
+                    // Select an interface
+                    if (currentElement.interface_ == null) {
+                        Element sameNameInterface = currentElement.component.getChildByName(lastElement.interface_.name);
+                        if (k > 0 && sameNameInterface != null && sameNameInterface.frameworkElement && sameNameInterface.interface_ &&
+                                (sameNameInterface.editableInterface || isPort(sameNameInterface.getChildByName(lastElement.portName)))) {
+                            currentElement.interface_ = sameNameInterface;
+                        } else if (currentElement.component.editableInterfaces != null) {
+                            List<Element> interfaceCandidates = context.getInterfaceCandidates(currentElement.component, outputPorts, pair, lastElement);
+
+                            // evaluate candidates
+                            if (interfaceCandidates.size() == 0) {
+                                throw new Exception("No suitable interface in " + currentElement.component.qualifiedName);
+                            } else if (interfaceCandidates.size() == 1) {
+                                currentElement.interface_ = interfaceCandidates.get(0);
+                            } else if (interfaceCandidates.size() == 2 && sensorData == controllerData && interfaceCandidates.get(0).controllerInterface != interfaceCandidates.get(0).sensorInterface &&
+                                       interfaceCandidates.get(1).controllerInterface != interfaceCandidates.get(1).sensorInterface && interfaceCandidates.get(0).sensorInterface != interfaceCandidates.get(1).sensorInterface) {
+                                // sensor/controller-data ambiguity: select sensor interface (controller interface in controller variant)
+                                currentElement.interface_ = interfaceCandidates.get(0).controllerInterface == controllerRun ? interfaceCandidates.get(0) : interfaceCandidates.get(1);
+                                result.ambiguous = true;
+                            } else {
+                                throw new Exception("Interface selection ambiguous for component " + currentElement.component.qualifiedName);
+                            }
+                        } else {
+                            throw new Exception("Component '" + currentElement.component.qualifiedName + "' has no editable interfaces");
+                        }
+                    }
+
+                    // Component interfaces crossed
+                    if (k > 0) {
+                        result.crossedInterfaces.add(currentElement.interface_);
+                    }
+
+                    // Check or create port
+                    Element childElement = currentElement.interface_.getChildByName(lastElement.portName);
+                    if (childElement != null) {
+                        // Check port
+                        if (!childElement.port) {
+                            throw new Exception("Relevant interface has element with same name which is no port '" + lastElement.portName + "'");
+                        }
+                        Element port = childElement;
+                        if (port.getFlag(FrameworkElementFlags.IS_OUTPUT_PORT) != outputPorts) {
+                            throw new Exception("Relevant interface has port with same name and wrong direction '" + port.qualifiedLink + "'");
+                        }
+                        if (!(port.getFlag(FrameworkElementFlags.EMITS_DATA) && port.getFlag(FrameworkElementFlags.ACCEPTS_DATA)) && k > 0) {
+                            throw new Exception("Relevant interface has port with same name which is no proxy '" + port.qualifiedLink + "'");
+                        }
+                        if (port.dataType != outwardTrace1.get(0).port.dataType) {
+                            throw new Exception("Relevant interface has port with same name and wrong data type '" + port.qualifiedLink + "'");
+                        }
+                        currentElement.port = port;
+                        currentElement.portName = port.name;
+                    } else {
+                        // Create port (?)
+                        currentElement.portName = lastElement.portName;
+                        result.portsToCreate.add(new PortToCreate(currentElement.component, currentElement.interface_.name, currentElement.portName, currentElement.getPortLink(), outwardTrace1.get(0).port.dataType, outputPorts));
+                    }
+
+                    // Create connection?
+                    if (k > 0 && (lastElement.port == null || currentElement.port == null || (!lastElement.port.isConnectedTo(currentElement.port)))) {
+                        result.connections.add(new String[] { lastElement.getPortLink(), currentElement.getPortLink() });
+                    }
+                }
+            }
+
+            // Create connection
+            TraceElement lastElement1 = outwardTrace1.get(outwardTrace1.size() - 1);
+            TraceElement lastElement2 = outwardTrace2.get(outwardTrace2.size() - 1);
+            if (lastElement1.port != null && lastElement2.port != null) {
+                String reason = mayConnectDirectly(context.snapshot, lastElement1.port, lastElement2.port, true);
+                if (reason.length() > 0) {
+                    throw new Exception(reason);
+                }
+            }
+            if (lastElement1.port == null || lastElement2.port == null || (!lastElement1.port.isConnectedTo(lastElement2.port))) {
+                result.connections.add(new String[] { lastElement1.getPortLink(), lastElement2.getPortLink() });
+            }
+        } catch (NullPointerException e) {
+            e.printStackTrace();
+            result.error = new Exception("Internal Error (see console)");
+        } catch (Exception e) {
+            result.error = e;
         }
         return result;
     }
+
+    /**
+     * @param element Element (may be null)
+     * @return True if element is a port
+     */
+    private static boolean isPort(Element element) {
+        return element != null && element.port;
+    }
 }
@@ -0,0 +1,252 @@
+//
+// You received this file as part of Finroc
+// A framework for intelligent robot control
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.finroc.tools.finstruct;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+import org.finroc.core.remote.ModelNode;
+import org.finroc.core.remote.RemoteFrameworkElement;
+
+/**
+ * @author Max Reichardt
+ *
+ * Index of framework element tags in interface tree.
+ * It is maintained from tree model events (see FinstructInterfaceTreeModel).
+ * Views can therefore look up tagged elements without scanning whole subtrees.
+ *
+ * Tagged elements are indexed by each of their ancestors - so lookups below a node only
+ * consider elements in the node's subtree. Elements that have not been indexed (yet)
+ * are handled by scanning their tags directly.
+ */
+public class TagIndex {
+
+    /** Tagged elements below each node by tag (key: ancestor; tags sorted, so that elements with tag prefix can be looked up efficiently) */
+    private final HashMap<ModelNode, TreeMap<String, LinkedHashSet<RemoteFrameworkElement>>> elementsBelow = new HashMap<ModelNode, TreeMap<String, LinkedHashSet<RemoteFrameworkElement>>>();
+
+    /** All indexed elements (weak, as untagged elements that are removed from tree are not necessarily reported) */
+    private final WeakHashMap<RemoteFrameworkElement, Entry> indexed = new WeakHashMap<RemoteFrameworkElement, Entry>();
+
+    /**
+     * Adds node (without its children) to index - or updates its entries
+     *
+     * @param node Node to add
+     */
+    public synchronized void add(ModelNode node) {
+        if (!(node instanceof RemoteFrameworkElement)) {
+            return;
+        }
+        RemoteFrameworkElement element = (RemoteFrameworkElement)node;
+        remove(element);
+        Entry entry = new Entry();
+        for (String tag : element.getTags()) {
+            entry.tags.add(tag);
+        }
+        if (entry.tags.size() > 0) {
+            Object parent = element.getParent();
+            while (parent instanceof ModelNode) {
+                ModelNode ancestor = (ModelNode)parent;
+                entry.ancestors.add(ancestor);
+                TreeMap<String, LinkedHashSet<RemoteFrameworkElement>> tagMap = elementsBelow.get(ancestor);
+                if (tagMap == null) {
+                    tagMap = new TreeMap<String, LinkedHashSet<RemoteFrameworkElement>>();
+                    elementsBelow.put(ancestor, tagMap);
+                }
+                for (String tag : entry.tags) {
+                    LinkedHashSet<RemoteFrameworkElement> elements = tagMap.get(tag);
+                    if (elements == null) {
+                        elements = new LinkedHashSet<RemoteFrameworkElement>();
+                        tagMap.put(tag, elements);
+                    }
+                    elements.add(element);
+                }
+                parent = ancestor.getParent();
+            }
+        }
+        indexed.put(element, entry);
+    }
+
+    /**
+     * Removes node and all nodes in its subtree from index
+     *
+     * @param node Root of subtree to remove
+     */
+    public synchronized void removeSubtree(ModelNode node) {
+        if (node instanceof RemoteFrameworkElement) {
+            remove((RemoteFrameworkElement)node);
+        }
+        for (int i = 0; i < node.getChildCount(); i++) {
+            removeSubtree(node.getChildAt(i));
+        }
+    }
+
+    /**
+     * Removes node and all tagged elements that were below it when they were indexed - including elements that
+     * are no longer part of the tree.
+     * (called when structure of a subtree changed and the removed nodes are not known)
+     *
+     * @param node Node whose subtree is removed (node itself is removed too)
+     */
+    public synchronized void removeBelow(ModelNode node) {
+        TreeMap<String, LinkedHashSet<RemoteFrameworkElement>> tagMap = elementsBelow.get(node);
+        if (tagMap != null) {
+            LinkedHashSet<RemoteFrameworkElement> toRemove = new LinkedHashSet<RemoteFrameworkElement>();
+            for (LinkedHashSet<RemoteFrameworkElement> elements : tagMap.values()) {
+                toRemove.addAll(elements);
+            }
+            for (RemoteFrameworkElement element : toRemove) {
+                remove(element);
+            }
+        }
+        if (node instanceof RemoteFrameworkElement) {
+            remove((RemoteFrameworkElement)node);
+        }
+    }
+
+    /**
+     * @param element Element
+     * @param tag Tag
+     * @return True if element has the specified tag
+     */
+    public synchronized boolean isTagged(ModelNode element, String tag) {
+        if (!(element instanceof RemoteFrameworkElement)) {
+            return false;
+        }
+        Entry entry = indexed.get(element);
+        if (entry == null) {
+            return ((RemoteFrameworkElement)element).isTagged(tag);
+        }
+        return entry.tags.contains(tag);
+    }
+
+    /**
+     * @param node Node
+     * @param tagPrefix Tag prefix
+     * @return True if there is any element below node that has a tag starting with the specified prefix
+     */
+    public synchronized boolean hasTagPrefixBelow(ModelNode node, String tagPrefix) {
+        if (!indexed.containsKey(node)) {
+            for (RemoteFrameworkElement subElement : node.getFrameworkElementsBelow(null)) {
+                for (String tag : subElement.getTags()) {
+                    if (tag.startsWith(tagPrefix)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        TreeMap<String, LinkedHashSet<RemoteFrameworkElement>> tagMap = elementsBelow.get(node);
+        if (tagMap == null) {
+            return false;
+        }
+        String tag = tagMap.ceilingKey(tagPrefix);
+        return tag != null && tag.startsWith(tagPrefix);
+    }
+
+    /**
+     * @param node Node
+     * @param tags Element must have (at least) one of these tags. The first tag has rank 1. The second rank 2 etc.
+     * @param elementType Type of element to look for (e.g. RemotePort.class)
+     * @return Element below node with one of these tags. If multiple elements have an appropriate tag, one with the lowest rank tag is returned. Null if there is no such element.
+     */
+    public synchronized RemoteFrameworkElement findElementBelow(ModelNode node, String[] tags, Class<?> elementType) {
+        if (!indexed.containsKey(node)) {
+            RemoteFrameworkElement result = null;
+            int bestResultRank = Integer.MAX_VALUE;
+            for (RemoteFrameworkElement subElement : node.getFrameworkElementsBelow(null)) {
+                if (elementType.isInstance(subElement)) {
+                    for (String tag : subElement.getTags()) {
+                        for (int i = 0; i < tags.length; i++) {
+                            if (i < bestResultRank && tags[i].equals(tag)) {
+                                result = subElement;
+                                bestResultRank = i;
+                            }
+                        }
+                    }
+                }
+            }
+            return result;
+        }
+
+        TreeMap<String, LinkedHashSet<RemoteFrameworkElement>> tagMap = elementsBelow.get(node);
+        if (tagMap == null) {
+            return null;
+        }
+        for (String tag : tags) {
+            LinkedHashSet<RemoteFrameworkElement> elements = tagMap.get(tag);
+            if (elements != null) {
+                for (RemoteFrameworkElement element : elements) {
+                    if (elementType.isInstance(element)) {
+                        return element;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes single element from index
+     *
+     * @param element Element to remove
+     */
+    private void remove(RemoteFrameworkElement element) {
+        Entry entry = indexed.remove(element);
+        if (entry == null) {
+            return;
+        }
+        for (ModelNode ancestor : entry.ancestors) {
+            TreeMap<String, LinkedHashSet<RemoteFrameworkElement>> tagMap = elementsBelow.get(ancestor);
+            if (tagMap == null) {
+                continue;
+            }
+            for (String tag : entry.tags) {
+                LinkedHashSet<RemoteFrameworkElement> elements = tagMap.get(tag);
+                if (elements != null) {
+                    elements.remove(element);
+                    if (elements.isEmpty()) {
+                        tagMap.remove(tag);
+                    }
+                }
+            }
+            if (tagMap.isEmpty()) {
+                elementsBelow.remove(ancestor);
+            }
+        }
+    }
+
+    /**
+     * Index entry of an element
+     */
+    private static class Entry {
+
+        /** Tags of element (as they were when element was indexed) */
+        private final ArrayList<String> tags = new ArrayList<String>();
+
+        /** Ancestors of element when it was indexed (only stored for tagged elements) */
+        private final ArrayList<ModelNode> ancestors = new ArrayList<ModelNode>();
+    }
+}
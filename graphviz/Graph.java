@@ -23,6 +23,8 @@
 package org.finroc.tools.finstruct.graphviz;
 
 import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
 import java.awt.geom.Point2D;
 import java.awt.geom.Point2D.Double;
 import java.io.BufferedOutputStream;
@@ -275,6 +277,47 @@ public class Graph extends GraphVizElement {
         // do nothing, currently
     }
 
+    /**
+     * Scales result of last layout run in place - without running layout tool again.
+     * Vertex positions, edge paths, and the bounds of this graph and all subgraphs are scaled.
+     *
+     * @param factorX Factor to scale x coordinates with
+     * @param factorY Factor to scale y coordinates with
+     */
+    public void scaleLayout(double factorX, double factorY) {
+        if (parent != null) {
+            parent.scaleLayout(factorX, factorY);
+            return;
+        }
+        AffineTransform transform = AffineTransform.getScaleInstance(factorX, factorY);
+        scaleBounds(layoutBounds, factorX, factorY);
+        for (GraphVizElement element : elements) {
+            if (element instanceof Vertex) {
+                Point2D.Double position = ((Vertex)element).getLayoutPosition();
+                if (position != null) {
+                    position.x *= factorX;
+                    position.y *= factorY;
+                }
+            } else if (element instanceof Edge) {
+                Path2D.Double path = ((Edge)element).getPath();
+                if (path != null) {
+                    path.transform(transform);
+                }
+            } else if (element instanceof Graph) {
+                scaleBounds(((Graph)element).layoutBounds, factorX, factorY);
+            }
+        }
+    }
+
+    /**
+     * @param bounds Bounds to scale
+     * @param factorX Factor to scale x coordinates with
+     * @param factorY Factor to scale y coordinates with
+     */
+    private static void scaleBounds(Rectangle bounds, double factorX, double factorY) {
+        bounds.setBounds((int)Math.round(bounds.x * factorX), (int)Math.round(bounds.y * factorY), (int)Math.round(bounds.width * factorX), (int)Math.round(bounds.height * factorY));
+    }
+
     /**
      * Remove all edges, vertices and subgraphs from graph
      */
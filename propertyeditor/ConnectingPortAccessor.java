@@ -29,6 +29,7 @@ import org.finroc.core.port.cc.CCPortBase;
 import org.finroc.core.port.std.PortBase;
 import org.finroc.core.port.std.PortDataManager;
 import org.finroc.core.remote.RemotePort;
+import org.finroc.core.remote.RemoteRuntime;
 import org.rrlib.serialization.BinarySerializable;
 import org.rrlib.serialization.Serialization;
 
@@ -43,10 +44,23 @@ public class ConnectingPortAccessor<T extends BinarySerializable> extends PortAc
     /** Wrapped partner (network) port */
     protected final AbstractPort partner;
 
+    /** Value that is returned by get() during playback of recorded values (null if live values are displayed) */
+    private volatile T playbackValue;
+
+    /** Remote runtime that partner port belongs to (null if not known) */
+    private final RemoteRuntime runtime;
+
+    /** End-to-end latency of port's values (null if latency monitoring is disabled) */
+    private volatile LatencyMonitor latencyMonitor;
+
+    /** Buffer for timestamp of received values (only used by thread that receives port data) */
+    private final Timestamp receivedTimestamp = new Timestamp();
+
     public ConnectingPortAccessor(RemotePort partner, String rootName) {
         //super((partner.getPort() instanceof PortBase) ? new PortBase(createPci(partner.getPort())) : new CCPortBase(createPci(partner.getPort())), "");
         super(new PortBase(createPci(partner.getPort()))); // we only have standard ports in finstruct
         this.partner = partner.getPort();
+        runtime = RemoteRuntime.find(partner);
         name = partner.getQualifiedName('/').substring(rootName.length() + 1);
     }
 
@@ -56,6 +70,7 @@ public class ConnectingPortAccessor<T extends BinarySerializable> extends PortAc
     protected ConnectingPortAccessor(String portLink, String rootName) {
         super(null);
         partner = null;
+        runtime = null;
         name = portLink.substring(rootName.length() + 1);
     }
 
@@ -110,6 +125,47 @@ public class ConnectingPortAccessor<T extends BinarySerializable> extends PortAc
         return wrapped;
     }
 
+    @Override
+    public T get() throws Exception {
+        T value = playbackValue;
+        if (value != null) {
+            return Serialization.deepCopy(value);
+        }
+        return super.get();
+    }
+
+    @Override
+    public void set(T newValue) throws Exception {
+        if (playbackValue != null) {
+            throw new Exception("Port '" + name + "' currently displays recorded values");
+        }
+        super.set(newValue);
+    }
+
+    /**
+     * Displays recorded value instead of port's current value (get() returns this value, set() is rejected)
+     *
+     * @param value Recorded value - null to display live values again
+     */
+    public void setPlaybackValue(T value) {
+        playbackValue = value;
+    }
+
+    /**
+     * @return Are recorded values currently displayed instead of live values?
+     */
+    public boolean isInPlayback() {
+        return playbackValue != null;
+    }
+
+    /**
+     * @return New buffer for recorded values of this port
+     */
+    @SuppressWarnings("unchecked")
+    public T createPlaybackBuffer() {
+        return (T)wrapped.getDataType().createInstance();
+    }
+
     /**
      * Gets Port's current value
      *
@@ -131,4 +187,36 @@ public class ConnectingPortAccessor<T extends BinarySerializable> extends PortAc
         portDataManager.releaseLock();
     }
 
+    /**
+     * @return End-to-end latency of port's values (null if latency monitoring is disabled)
+     */
+    public LatencyMonitor getLatencyMonitor() {
+        return latencyMonitor;
+    }
+
+    /**
+     * Enables or disables monitoring end-to-end latency of port's values
+     * (re-enabling discards previously recorded latencies)
+     *
+     * @param enabled Monitor latency?
+     */
+    public void setLatencyMonitoringEnabled(boolean enabled) {
+        if (enabled && latencyMonitor == null && wrapped != null) {
+            latencyMonitor = new LatencyMonitor(runtime);
+            startListening();
+        } else if (!enabled) {
+            latencyMonitor = null;
+        }
+    }
+
+    @Override
+    public void portChanged(AbstractPort origin, Object value) {
+        LatencyMonitor currentMonitor = latencyMonitor;
+        if (currentMonitor != null) {
+            long receiveTime = System.currentTimeMillis();
+            getTimestamp(receivedTimestamp);
+            currentMonitor.valueReceived(receivedTimestamp, receiveTime);
+        }
+        super.portChanged(origin, value);
+    }
 }
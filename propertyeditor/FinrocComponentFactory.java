@@ -173,6 +173,10 @@ public class FinrocComponentFactory implements ComponentFactory {
         /** Finroc DataType of property - if available */
         private final DataTypeBase dataType;
 
+        /** Last serialized value and its serialization (see CoreSerializableXMLAdapter) */
+        private BinarySerializable lastValue;
+        private String lastResult;
+
         public CoreSerializableAdapter(PropertyAccessor<BinarySerializable> wrapped, Class<?> finrocClass, DataTypeBase dataType) {
             super(wrapped, String.class);
             this.finrocClass = finrocClass;
@@ -197,11 +201,20 @@ public class FinrocComponentFactory implements ComponentFactory {
             if (cs == null) {
                 return "";
             }
+            if (cs == lastValue) {
+                return lastResult;
+            }
+            String result;
             if (dataType != null && BinarySerializable.class.isAssignableFrom(finrocClass)) {
-                return SerializationHelper.typedStringSerialize(dataType, cs, dataType);
+                result = SerializationHelper.typedStringSerialize(dataType, cs, dataType);
             } else {
-                return Serialization.serialize(cs);
+                result = Serialization.serialize(cs);
             }
+            if (wrapped instanceof PortAccessor) {
+                lastValue = cs;
+                lastResult = result;
+            }
+            return result;
         }
     }
 
@@ -216,6 +229,14 @@ public class FinrocComponentFactory implements ComponentFactory {
         /** Finroc DataType of property - if available */
         private final DataTypeBase dataType;
 
+        /**
+         * Last serialized value and its serialization.
+         * PortAccessor hands out the same (read-only) snapshot until the port changes - so large values
+         * are only serialized again if they actually changed.
+         */
+        private BinarySerializable lastValue;
+        private XML lastResult;
+
         public CoreSerializableXMLAdapter(PropertyAccessor<BinarySerializable> wrapped, Class<?> finrocClass, DataTypeBase dataType) {
             super(wrapped, XML.class);
             //this.finrocClass = finrocClass;
@@ -233,6 +254,9 @@ public class FinrocComponentFactory implements ComponentFactory {
         @Override
         public XML get() throws Exception {
             BinarySerializable cs = wrapped.get();
+            if (cs != null && cs == lastValue) {
+                return lastResult;
+            }
             XMLDocument doc = new XMLDocument();
             doc.addRootNode("value");
             XML result = new XML();
@@ -241,6 +265,10 @@ public class FinrocComponentFactory implements ComponentFactory {
                 ((XMLSerializable)cs).serialize(doc.getRootNode());
             }
             result.set(doc.getRootNode().getXMLDump(true));
+            if (cs != null && wrapped instanceof PortAccessor) {
+                lastValue = cs;
+                lastResult = result;
+            }
             return result;
         }
     }
@@ -395,7 +423,8 @@ public class FinrocComponentFactory implements ComponentFactory {
 
         @Override
         public PortCreationListAccessor get() throws Exception {
-            return new PortCreationListAccessor(wrapped.get());
+            PortCreationList list = wrapped.get();
+            return new PortCreationListAccessor(list != null ? Serialization.deepCopy(list) : null); // list is modified in place by editor
         }
 
         @Override
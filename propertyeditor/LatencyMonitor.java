@@ -0,0 +1,163 @@
+//
+// You received this file as part of Finroc
+// A framework for intelligent robot control
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.finroc.tools.finstruct.propertyeditor;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.finroc.core.datatype.Timestamp;
+import org.finroc.core.remote.RemoteRuntime;
+import org.finroc.tools.finstruct.util.LatencyHistogram;
+
+/**
+ * @author Max Reichardt
+ *
+ * End-to-end latency of a port's values (collected by ConnectingPortAccessor).
+ *
+ * Compares the timestamps that values were published with to the local time they are received at.
+ * As clocks of remote runtimes are usually not synchronized with the local clock, a clock offset is estimated
+ * per runtime: it is the smallest difference between receive time and timestamp observed recently
+ * (on all ports of the runtime). Latencies are therefore relative to the fastest observed transfer - which
+ * shows additional delay under load (queueing, congestion), but not the constant base latency of the connection.
+ * Timestamps have millisecond resolution - so do latencies.
+ */
+public class LatencyMonitor {
+
+    /** Length of window that clock offsets are estimated over (in ms) - so that clock drift is tolerated */
+    public static final long CLOCK_OFFSET_WINDOW = 30000;
+
+    /** Estimated clock offsets of remote runtimes */
+    private static final Map<RemoteRuntime, ClockOffset> clockOffsets = new WeakHashMap<RemoteRuntime, ClockOffset>();
+
+    /** Clock offset of runtime that port belongs to */
+    private final ClockOffset clockOffset;
+
+    /** Latency histogram (in ms) */
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    /** Number of values without timestamp */
+    private long valuesWithoutTimestamp;
+
+    /**
+     * @param runtime Remote runtime that port belongs to (null if not known)
+     */
+    public LatencyMonitor(RemoteRuntime runtime) {
+        clockOffset = getClockOffset(runtime);
+    }
+
+    /**
+     * Called whenever port receives a new value (by thread that receives port data)
+     *
+     * @param timestamp Timestamp of value
+     * @param receiveTime Time value was received (in ms)
+     */
+    void valueReceived(Timestamp timestamp, long receiveTime) {
+        long publishTime = timestamp.getInMs();
+        if (publishTime == 0) {
+            synchronized (this) {
+                valuesWithoutTimestamp++;
+            }
+            return;
+        }
+        long delta = receiveTime - publishTime;
+        histogram.record(delta - clockOffset.update(delta, receiveTime));
+    }
+
+    /**
+     * @return Latency histogram (in ms)
+     */
+    public LatencyHistogram getHistogram() {
+        return histogram;
+    }
+
+    /**
+     * @return Number of values received without timestamp (not included in histogram)
+     */
+    public synchronized long getValuesWithoutTimestamp() {
+        return valuesWithoutTimestamp;
+    }
+
+    /**
+     * Removes all recorded latencies
+     */
+    public void reset() {
+        histogram.reset();
+    }
+
+    /**
+     * @return Short summary of latencies (e.g. for labels): min/median/p99
+     */
+    @Override
+    public String toString() {
+        if (histogram.getCount() == 0) {
+            return getValuesWithoutTimestamp() > 0 ? "no timestamps" : "";
+        }
+        return String.format("%d/%d/%d ms", histogram.getMin(), histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(99));
+    }
+
+    /**
+     * @param runtime Remote runtime (null if not known)
+     * @return Clock offset estimation for runtime
+     */
+    private static ClockOffset getClockOffset(RemoteRuntime runtime) {
+        if (runtime == null) {
+            return new ClockOffset();
+        }
+        synchronized (clockOffsets) {
+            ClockOffset result = clockOffsets.get(runtime);
+            if (result == null) {
+                result = new ClockOffset();
+                clockOffsets.put(runtime, result);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Estimated clock offset of a remote runtime
+     */
+    private static class ClockOffset {
+
+        /** Smallest differences between receive time and timestamp in current and previous window */
+        private long currentMin = Long.MAX_VALUE, previousMin = Long.MAX_VALUE;
+
+        /** Start of current window (in ms) */
+        private long windowStart;
+
+        /**
+         * Updates estimation
+         *
+         * @param delta Difference between receive time and timestamp of a value
+         * @param now Current time (in ms)
+         * @return Current estimation of clock offset
+         */
+        private synchronized long update(long delta, long now) {
+            if (now - windowStart >= CLOCK_OFFSET_WINDOW) {
+                previousMin = currentMin;
+                currentMin = Long.MAX_VALUE;
+                windowStart = now;
+            }
+            currentMin = Math.min(currentMin, delta);
+            return Math.min(currentMin, previousMin);
+        }
+    }
+}
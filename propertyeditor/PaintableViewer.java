@@ -29,16 +29,29 @@ import java.awt.event.ActionEvent;
 import java.awt.geom.Rectangle2D;
 
 import javax.naming.OperationNotSupportedException;
+import javax.swing.JLabel;
 
 import org.finroc.tools.gui.WidgetUI;
+import org.finroc.tools.gui.commons.fastdraw.BufferedImageRGB;
 import org.finroc.tools.gui.util.gui.MAction;
 import org.finroc.tools.gui.util.gui.MActionEvent;
 import org.finroc.tools.gui.util.propertyeditor.PropertyEditComponent;
 import org.finroc.tools.gui.widgets.GeometryRenderer;
 import org.finroc.plugins.data_types.Blittable;
 import org.finroc.plugins.data_types.HasBlittable;
+import org.finroc.plugins.data_types.Paintable;
 import org.finroc.plugins.data_types.PaintablePortData;
 
+/**
+ * @author Max Reichardt
+ *
+ * Viewer for Paintable port data (e.g. images and geometry).
+ *
+ * Images (Blittable data) are rendered to a buffer that is reused for all frames of the same size -
+ * instead of allocating new AWT images for every frame. Rendering happens when the viewer is painted:
+ * if a new frame arrives before the previous one has been painted, the previous one is dropped without being rendered.
+ * Numbers of frames received, painted and dropped are displayed below the viewer.
+ */
 public class PaintableViewer extends PropertyEditComponent<PaintablePortData> {
 
     /** UID */
@@ -46,6 +59,18 @@ public class PaintableViewer extends PropertyEditComponent<PaintablePortData> {
 
     private enum ExtraAction { ZoomToFit }
 
+    /** Minimum interval between updates of frame counter label (in ms) */
+    private static final int FRAME_LABEL_INTERVAL = 500;
+
+    /** Numbers of frames received, painted and dropped (only accessed by AWT thread) */
+    private long framesReceived, framesPainted, framesDropped;
+
+    /** Label with frame counters (null in minimal mode) */
+    private JLabel frameLabel;
+
+    /** Time when frame counter label was last updated */
+    private long lastFrameLabelUpdate;
+
     class Viewer extends GeometryRenderer {
 
         /** UID */
@@ -65,9 +90,32 @@ public class PaintableViewer extends PropertyEditComponent<PaintablePortData> {
             /** Object currently viewed */
             private PaintablePortData currentlyViewed;
 
+            /** Has object currently viewed been painted yet? */
+            private boolean currentlyViewedPainted = true;
+
+            /** Reusable buffer that images are rendered to */
+            private BufferedImageRGB imageBuffer;
+
+            /** Object whose image is currently in image buffer */
+            private PaintablePortData bufferedObject;
+
             public void show(PaintablePortData p) {
+                framesReceived++;
+                if (!currentlyViewedPainted) {
+                    framesDropped++; // replaced before it was painted
+                }
                 currentlyViewed = p;
+                currentlyViewedPainted = (p == null);
+                fit(p);
+                updateFrameLabel();
+            }
 
+            /**
+             * Sets scaling factor so that object fits (if zoom to fit is enabled) and repaints
+             *
+             * @param p Object currently viewed
+             */
+            private void fit(PaintablePortData p) {
                 // set scaling factor so that things fit
                 if (p != null) {
                     Viewer.this.invertYAxis = (p instanceof Blittable) || (p instanceof HasBlittable);
@@ -96,15 +144,64 @@ public class PaintableViewer extends PropertyEditComponent<PaintablePortData> {
             @Override
             public void drawGeometries(Graphics2D g2d) {
                 if (currentlyViewed != null) {
-                    currentlyViewed.paint(g2d, null);
+                    if (!((currentlyViewed instanceof Blittable || currentlyViewed instanceof HasBlittable) && drawBufferedImage(g2d, currentlyViewed))) {
+                        currentlyViewed.paint(g2d, null);
+                    }
+                    if (!currentlyViewedPainted) {
+                        currentlyViewedPainted = true;
+                        framesPainted++;
+                        updateFrameLabel();
+                    }
                 }
             }
 
+            /**
+             * Draws image via reusable image buffer
+             *
+             * @param g2d Graphics object (viewer coordinates)
+             * @param p Image data
+             * @return True if image was drawn
+             */
+            private boolean drawBufferedImage(Graphics2D g2d, PaintablePortData p) {
+                Rectangle2D b = p.getBounds();
+                if (b == null || b.getWidth() < 1 || b.getHeight() < 1) {
+                    return false;
+                }
+                int width = (int)Math.ceil(b.getWidth()), height = (int)Math.ceil(b.getHeight());
+                if (bufferedObject != p || imageBuffer == null || imageBuffer.getWidth() != width || imageBuffer.getHeight() != height) {
+                    if (imageBuffer == null || imageBuffer.getWidth() != width || imageBuffer.getHeight() != height) {
+                        imageBuffer = new BufferedImageRGB();
+                        imageBuffer.resize(width, height);
+                    }
+                    boolean yDown = (p instanceof Paintable) && ((Paintable)p).isYAxisPointingDownwards();
+                    Graphics2D bufferGraphics = imageBuffer.getBufferedImage().createGraphics();
+                    try {
+                        bufferGraphics.translate(0, yDown ? 0 : height);
+                        bufferGraphics.scale(1, yDown ? 1 : -1);
+                        bufferGraphics.translate(-b.getMinX(), -b.getMinY());
+                        p.paint(bufferGraphics, imageBuffer); // blits directly to buffer
+                    } finally {
+                        bufferGraphics.dispose();
+                    }
+                    bufferedObject = p;
+                }
+
+                // image buffer's first row is top of image on screen
+                int x1 = (int)Math.floor(b.getMinX()), x2 = x1 + width;
+                int y1 = (int)Math.floor(b.getMinY()), y2 = y1 + height;
+                if (g2d.getTransform().getScaleY() < 0) {
+                    g2d.drawImage(imageBuffer.getBufferedImage(), x1, y2, x2, y1, 0, 0, width, height, null);
+                } else {
+                    g2d.drawImage(imageBuffer.getBufferedImage(), x1, y1, x2, y2, 0, 0, width, height, null);
+                }
+                return true;
+            }
+
             @Override
             public void actionPerformed(ActionEvent ae) {
                 Enum<?> e = ((MActionEvent)ae).getEnumID();
                 if (e instanceof ExtraAction) {
-                    show(currentlyViewed);
+                    fit(currentlyViewed);
                     return;
                 }
                 super.actionPerformed(ae);
@@ -123,8 +220,22 @@ public class PaintableViewer extends PropertyEditComponent<PaintablePortData> {
         viewer.setBounds(new Rectangle(0, 0, 640, 400));
         viewerUI = (Viewer.ViewerUI)viewer.createUI();
         viewerUI.setPreferredSize(new Dimension(640, 400));
+        frameLabel = new JLabel();
+        frameLabel.setToolTipText("Frames received, painted and dropped (replaced by newer frames before they were painted)");
         valueUpdated(getCurWidgetValue());
         add(viewerUI, BorderLayout.WEST);
+        add(frameLabel, BorderLayout.SOUTH);
+    }
+
+    /**
+     * Updates frame counter label (at most every FRAME_LABEL_INTERVAL ms)
+     */
+    private void updateFrameLabel() {
+        long now = System.currentTimeMillis();
+        if (frameLabel != null && now - lastFrameLabelUpdate >= FRAME_LABEL_INTERVAL) {
+            lastFrameLabelUpdate = now;
+            frameLabel.setText("Frames: " + framesReceived + " received, " + framesPainted + " painted, " + framesDropped + " dropped");
+        }
     }
 
     @Override
@@ -22,6 +22,7 @@
 package org.finroc.tools.finstruct.propertyeditor;
 
 import java.lang.annotation.Annotation;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.finroc.core.FrameworkElementFlags;
 import org.finroc.core.port.AbstractPort;
@@ -50,6 +51,11 @@ import org.rrlib.serialization.rtti.GenericObject;
  *
  * Provides PropertyAccessor adapter for ports.
  * It creates an extra port that is connected to port to wrap.
+ *
+ * While registered as listener at the port, get() hands out a cached snapshot per received value:
+ * a version counter is incremented whenever the port changes, and the value is only deep-copied
+ * on the first get() call after a change. Returned values must therefore be treated as read-only
+ * (editors that modify values in place need to copy them first).
  */
 @SuppressWarnings("rawtypes")
 public class PortAccessor<T> implements PropertyAccessor<T>, PortListener {
@@ -61,11 +67,26 @@ public class PortAccessor<T> implements PropertyAccessor<T>, PortListener {
     protected String name;
 
     /** Are we registered as listener at port? */
-    private boolean listening = false;
+    private volatile boolean listening = false;
 
     /** Port accessor listener */
     protected Listener listener;
 
+    /** Update rate and bandwidth statistics of port (null if statistics are disabled) */
+    private volatile PortStatistics statistics;
+
+    /** Throttle for port updates (null if all updates are forwarded to listener) */
+    private volatile UpdateThrottle throttle;
+
+    /** Version of port value (incremented whenever port value changes) */
+    private final AtomicLong valueVersion = new AtomicLong();
+
+    /** Cached snapshot of port value (null if there is none) */
+    private volatile Snapshot snapshot;
+
+    /** Number of deep copies and cache hits in get() of all port accessors */
+    private static final AtomicLong copyCount = new AtomicLong(), cacheHitCount = new AtomicLong();
+
     protected final ErrorPrinter errorPrinter = new ErrorPrinter();
 
 
@@ -102,23 +123,59 @@ public class PortAccessor<T> implements PropertyAccessor<T>, PortListener {
         if (!wrapped.isReady()) {
             return null;
         }
+
+        // Changes are only noticed while listening - otherwise, value needs to be copied on every call
+        long version = valueVersion.get();
+        boolean cacheable = listening;
+        Snapshot cached = snapshot;
+        if (cacheable && cached != null && cached.version == version) {
+            cacheHitCount.incrementAndGet();
+            return (T)cached.value;
+        }
+
+        T result;
         if (wrapped instanceof PortBase) {
             PortBase pb = (PortBase)wrapped;
             PortDataManager pd = pb.getLockedUnsafeRaw();
-            T result = Serialization.deepCopy((T)pd.getObject().getData());
+            result = Serialization.deepCopy((T)pd.getObject().getData());
             pd.releaseLock();
-            return result;
         } else {
             CCPortBase cpb = (CCPortBase)wrapped;
             GenericObject pd = cpb.getAutoLockedRaw();
-            T result = Serialization.deepCopy((T)pd.getData());
+            result = Serialization.deepCopy((T)pd.getData());
             ThreadLocalCache.get().releaseAllLocks();
-            return result;
         }
+        copyCount.incrementAndGet();
+        if (cacheable && result != null) {
+            snapshot = new Snapshot(version, result); // if port changed during copy, version is outdated and snapshot is not used
+        }
+        return result;
+    }
+
+    /**
+     * @return Number of deep copies of port values made in get() by all port accessors
+     */
+    public static long getCopyCount() {
+        return copyCount.get();
+    }
+
+    /**
+     * @return Number of get() calls of all port accessors that returned a cached snapshot
+     */
+    public static long getCacheHitCount() {
+        return cacheHitCount.get();
+    }
+
+    /**
+     * Invalidates cached snapshot of port value (e.g. after it was modified)
+     */
+    protected void invalidateCachedValue() {
+        valueVersion.incrementAndGet();
     }
 
     @Override
     public void set(T newValue) throws Exception {
+        invalidateCachedValue();
         AbstractPort ap = portForSetting();
         if (!ap.isReady()) {
             throw new Exception("Port not ready");
@@ -127,7 +184,7 @@ public class PortAccessor<T> implements PropertyAccessor<T>, PortListener {
             if (ap.getFlag(FrameworkElementFlags.NETWORK_ELEMENT)) {
                 CCPortDataManager c = ThreadLocalCache.get().getUnusedInterThreadBuffer(DataTypeBase.findType(newValue.getClass(), ap.getDataType()));
                 Serialization.deepCopy(newValue, c.getObject().getData());
-                RemoteRuntime.find(RemotePort.get(ap)[0]).getAdminInterface().setRemotePortValue(ap.asNetPort(), c.getObject(), errorPrinter);
+                setRemotePortValue(ap, c.getObject());
             } else {
                 CCPortDataManagerTL c = ThreadLocalCache.get().getUnusedBuffer(DataTypeBase.findType(newValue.getClass(), ap.getDataType()));
                 Serialization.deepCopy(newValue, c.getObject().getData());
@@ -138,13 +195,30 @@ public class PortAccessor<T> implements PropertyAccessor<T>, PortListener {
                                      ((newValue instanceof PortDataListImpl) ? ((PortDataListImpl)newValue).getElementType().getListType() : DataTypeBase.findType(newValue.getClass(), ap.getDataType())));
             Serialization.deepCopy(newValue, result.getObject().getData(), null);
             if (ap.getFlag(FrameworkElementFlags.NETWORK_ELEMENT)) {
-                RemoteRuntime.find(RemotePort.get(ap)[0]).getAdminInterface().setRemotePortValue(ap.asNetPort(), result.getObject(), errorPrinter);
+                setRemotePortValue(ap, result.getObject());
             } else {
                 ((PortBase)wrapped).publish(result);
             }
         }
     }
 
+    /**
+     * Sets value of remote port via admin interface
+     * (or adds it to batch if a PortValueBatch is active on current thread)
+     *
+     * @param ap Network port
+     * @param value Value to set
+     */
+    private void setRemotePortValue(AbstractPort ap, GenericObject value) {
+        RemoteRuntime runtime = RemoteRuntime.find(RemotePort.get(ap)[0]);
+        PortValueBatch batch = PortValueBatch.getActive();
+        if (batch != null) {
+            batch.add(runtime, ap, value);
+        } else {
+            runtime.getAdminInterface().setRemotePortValue(ap.asNetPort(), value, errorPrinter);
+        }
+    }
+
     /**
      * @return Is wrapped port remote (so that we should use admin interface to set it?)
      */
@@ -182,7 +256,67 @@ public class PortAccessor<T> implements PropertyAccessor<T>, PortListener {
      * @param listener Port accessor listener
      */
     public void setListener(Listener listener) {
-        if ((!listening) && listener != null) {
+        if (listener != null) {
+            startListening();
+        }
+        this.listener = listener;
+    }
+
+    /**
+     * @return Update rate and bandwidth statistics of port (null if statistics are disabled)
+     */
+    public PortStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Enables or disables collecting update rate and bandwidth statistics
+     *
+     * @param enabled Collect statistics?
+     */
+    public void setStatisticsEnabled(boolean enabled) {
+        if (enabled && statistics == null) {
+            statistics = new PortStatistics();
+            startListening();
+        } else if (!enabled) {
+            statistics = null;
+        }
+    }
+
+    /**
+     * @return Throttle for port updates (null if all updates are forwarded to listener)
+     */
+    public UpdateThrottle getUpdateThrottle() {
+        return throttle;
+    }
+
+    /**
+     * Sets throttle for port updates.
+     * Skipped updates are not forwarded to listener (statistics include them, however).
+     *
+     * @param throttle Throttle for port updates (null to forward all updates to listener). Must not be shared with other ports.
+     */
+    public void setUpdateThrottle(UpdateThrottle throttle) {
+        if (throttle != null) {
+            throttle.setTrailingUpdate(new Runnable() {
+                @Override
+                public void run() {
+                    Listener currentListener = listener;
+                    if (currentListener != null) {
+                        ThreadLocalCache.get();
+                        currentListener.portChanged();
+                    }
+                }
+            });
+        }
+        this.throttle = throttle;
+    }
+
+    /**
+     * Registers as listener at wrapped port (if not already registered)
+     */
+    protected synchronized void startListening() {
+        if (!listening) {
             listening = true;
             if (wrapped instanceof PortBase) {
                 PortBase port = (PortBase)wrapped;
@@ -192,11 +326,19 @@ public class PortAccessor<T> implements PropertyAccessor<T>, PortListener {
                 port.addPortListenerRaw(this);
             }
         }
-        this.listener = listener;
     }
 
     @Override
     public void portChanged(AbstractPort origin, Object value) {
+        valueVersion.incrementAndGet();
+        PortStatistics currentStatistics = statistics;
+        if (currentStatistics != null) {
+            currentStatistics.valueReceived(wrapped);
+        }
+        UpdateThrottle currentThrottle = throttle;
+        if (currentThrottle != null && (!currentThrottle.accept(value))) {
+            return;
+        }
         if (listener != null) {
             listener.portChanged();
         }
@@ -207,6 +349,23 @@ public class PortAccessor<T> implements PropertyAccessor<T>, PortListener {
         return true;
     }
 
+    /**
+     * Snapshot of port value with the version it was copied at
+     */
+    private static class Snapshot {
+
+        /** Version of port value */
+        private final long version;
+
+        /** Copy of port value */
+        private final Object value;
+
+        private Snapshot(long version, Object value) {
+            this.version = version;
+            this.value = value;
+        }
+    }
+
     class ErrorPrinter implements ResponseHandler {
 
         @Override
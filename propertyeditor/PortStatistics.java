@@ -0,0 +1,238 @@
+//
+// You received this file as part of Finroc
+// A framework for intelligent robot control
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.finroc.tools.finstruct.propertyeditor;
+
+import org.finroc.core.port.AbstractPort;
+import org.finroc.core.port.ThreadLocalCache;
+import org.finroc.core.port.cc.CCPortBase;
+import org.finroc.core.port.std.PortBase;
+import org.finroc.core.port.std.PortDataManager;
+import org.rrlib.serialization.BinaryOutputStream;
+import org.rrlib.serialization.BinarySerializable;
+import org.rrlib.serialization.MemoryBuffer;
+
+/**
+ * @author Max Reichardt
+ *
+ * Update rate and bandwidth statistics of a port (collected by PortAccessor).
+ *
+ * Statistics are calculated over windows of one second.
+ * To keep overhead low, the serialized size of values is only measured a few times
+ * per second - bandwidth is estimated from these samples and the update rate.
+ */
+public class PortStatistics {
+
+    /** Length of window that statistics are calculated over (in ns) */
+    public static final long WINDOW_LENGTH = 1000000000L;
+
+    /** Minimum interval between two measurements of serialized value size (in ns) */
+    private static final long SIZE_SAMPLE_INTERVAL = 100000000L;
+
+    /** Statistics of current window */
+    private long windowStart, windowUpdates, windowIntervals, windowIntervalSum, windowIntervalMax, windowBytes;
+
+    /** Statistics of last complete window */
+    private double updateRate, byteRate;
+    private long meanInterArrivalTime, maxInterArrivalTime;
+
+    /** Time when last value was received (in ns) */
+    private long lastUpdate;
+
+    /** Time when serialized value size was last measured (in ns) */
+    private long lastSizeSample;
+
+    /** Serialized size of last sampled value (in bytes) - -1 if size is not known */
+    private int sampledSize = -1;
+
+    /** Total number of values received */
+    private long totalUpdates;
+
+    /** Reused buffers for measuring serialized size (only used by thread that receives port data) */
+    private final MemoryBuffer serializationBuffer = new MemoryBuffer();
+    private final BinaryOutputStream outputStream = new BinaryOutputStream(serializationBuffer);
+
+    public PortStatistics() {
+        windowStart = System.nanoTime();
+    }
+
+    /**
+     * Called whenever port receives a new value (by thread that receives port data)
+     *
+     * @param port Port that received value
+     */
+    void valueReceived(AbstractPort port) {
+        long now = System.nanoTime();
+        int size = -2;
+        if (now - lastSizeSample >= SIZE_SAMPLE_INTERVAL || totalUpdates == 0) {
+            size = measureSize(port);
+        }
+        synchronized (this) {
+            if (size != -2) {
+                sampledSize = size;
+                lastSizeSample = now;
+            }
+            roll(now);
+            if (totalUpdates > 0) {
+                long interval = now - lastUpdate;
+                windowIntervals++;
+                windowIntervalSum += interval;
+                windowIntervalMax = Math.max(windowIntervalMax, interval);
+            }
+            lastUpdate = now;
+            totalUpdates++;
+            windowUpdates++;
+            windowBytes += Math.max(0, sampledSize);
+        }
+    }
+
+    /**
+     * @return Updates per second
+     */
+    public synchronized double getUpdateRate() {
+        roll(System.nanoTime());
+        return updateRate;
+    }
+
+    /**
+     * @return Estimated serialized bytes per second - -1 if size of port values cannot be determined
+     */
+    public synchronized double getByteRate() {
+        roll(System.nanoTime());
+        return sampledSize < 0 && totalUpdates > 0 ? -1 : byteRate;
+    }
+
+    /**
+     * @return Mean time between two values (in ns) - 0 if no values were received in last window
+     */
+    public synchronized long getMeanInterArrivalTime() {
+        roll(System.nanoTime());
+        return meanInterArrivalTime;
+    }
+
+    /**
+     * @return Maximum time between two values (in ns) - 0 if no values were received in last window
+     */
+    public synchronized long getMaxInterArrivalTime() {
+        roll(System.nanoTime());
+        return maxInterArrivalTime;
+    }
+
+    /**
+     * @return Total number of values received
+     */
+    public synchronized long getTotalUpdates() {
+        return totalUpdates;
+    }
+
+    /**
+     * @return Short summary of statistics (e.g. for labels)
+     */
+    @Override
+    public String toString() {
+        synchronized (this) {
+            roll(System.nanoTime());
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("%.1f Hz", updateRate));
+            if (sampledSize >= 0 || totalUpdates == 0) {
+                sb.append(", ").append(formatByteRate(byteRate));
+            }
+            if (maxInterArrivalTime > 0) {
+                sb.append(String.format(", dt %.1f/%.1f ms", meanInterArrivalTime / 1000000.0, maxInterArrivalTime / 1000000.0));
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * @param bytesPerSecond Bytes per second
+     * @return Formatted byte rate (e.g. "12.3 kB/s")
+     */
+    public static String formatByteRate(double bytesPerSecond) {
+        if (bytesPerSecond < 1000) {
+            return String.format("%.0f B/s", bytesPerSecond);
+        } else if (bytesPerSecond < 1000000) {
+            return String.format("%.1f kB/s", bytesPerSecond / 1000);
+        }
+        return String.format("%.1f MB/s", bytesPerSecond / 1000000);
+    }
+
+    /**
+     * Completes current window if it is over
+     *
+     * @param now Current time (in ns)
+     */
+    private void roll(long now) {
+        long elapsed = now - windowStart;
+        if (elapsed < WINDOW_LENGTH) {
+            return;
+        }
+        updateRate = windowUpdates * 1000000000.0 / elapsed; // elapsed covers periods without any values as well
+        byteRate = windowBytes * 1000000000.0 / elapsed;
+        meanInterArrivalTime = windowIntervals > 0 ? windowIntervalSum / windowIntervals : 0;
+        maxInterArrivalTime = windowIntervalMax;
+        windowStart = now;
+        windowUpdates = 0;
+        windowIntervals = 0;
+        windowIntervalSum = 0;
+        windowIntervalMax = 0;
+        windowBytes = 0;
+    }
+
+    /**
+     * @param port Port
+     * @return Serialized size of port's current value - -1 if it cannot be determined
+     */
+    private int measureSize(AbstractPort port) {
+        try {
+            Object data;
+            if (port instanceof PortBase) {
+                PortDataManager portDataManager = ((PortBase)port).getLockedUnsafeRaw();
+                try {
+                    data = portDataManager.getObject().getData();
+                    return serializedSize(data);
+                } finally {
+                    portDataManager.releaseLock();
+                }
+            } else if (port instanceof CCPortBase) {
+                data = ((CCPortBase)port).getAutoLockedRaw().getData();
+                int size = serializedSize(data);
+                ThreadLocalCache.get().releaseAllLocks();
+                return size;
+            }
+        } catch (Exception e) {}
+        return -1;
+    }
+
+    /**
+     * @param data Port data
+     * @return Serialized size of data - -1 if data is not serializable
+     */
+    private int serializedSize(Object data) {
+        if (!(data instanceof BinarySerializable)) {
+            return -1;
+        }
+        outputStream.reset();
+        ((BinarySerializable)data).serialize(outputStream);
+        outputStream.close();
+        return serializationBuffer.getSize();
+    }
+}
@@ -0,0 +1,230 @@
+//
+// You received this file as part of Finroc
+// A framework for intelligent robot control
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.finroc.tools.finstruct.propertyeditor;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.finroc.core.port.AbstractPort;
+import org.finroc.core.port.rpc.FutureStatus;
+import org.finroc.core.port.rpc.Method;
+import org.finroc.core.port.rpc.ResponseHandler;
+import org.finroc.core.remote.RemoteRuntime;
+import org.finroc.tools.finstruct.Finstruct;
+import org.rrlib.logging.Log;
+import org.rrlib.logging.LogLevel;
+import org.rrlib.serialization.rtti.GenericObject;
+
+/**
+ * @author Max Reichardt
+ *
+ * Collects values that are set via PortAccessor (e.g. when applying many changes at once)
+ * and sends them to the remote runtimes together.
+ *
+ * While a batch is active on a thread, PortAccessor.set() adds network port values to the batch
+ * instead of sending them. On commit, the values are grouped by remote runtime. The set requests of
+ * each runtime are sent back-to-back by a separate thread - without waiting for responses in between.
+ * When all responses have arrived, errors of all ports are reported in a single message.
+ *
+ * Usage:
+ *   PortValueBatch batch = PortValueBatch.begin();
+ *   try {
+ *     ...set values...
+ *   } finally {
+ *     batch.commit();
+ *   }
+ */
+public class PortValueBatch {
+
+    /** Maximum time to wait for responses of a runtime (in ms) */
+    public static final int RESPONSE_TIMEOUT = 10000;
+
+    /** Batch that is active on current thread */
+    private static final ThreadLocal<PortValueBatch> activeBatch = new ThreadLocal<PortValueBatch>();
+
+    /** Pending values per runtime (in order of addition) */
+    private final LinkedHashMap<RemoteRuntime, ArrayList<Entry>> entries = new LinkedHashMap<RemoteRuntime, ArrayList<Entry>>();
+
+    /** Batch that was active when this batch was started (batches may be nested) */
+    private final PortValueBatch outerBatch;
+
+    private PortValueBatch(PortValueBatch outerBatch) {
+        this.outerBatch = outerBatch;
+    }
+
+    /**
+     * Starts batch on current thread
+     *
+     * @return Started batch. commit() must be called on same thread.
+     */
+    public static PortValueBatch begin() {
+        PortValueBatch batch = new PortValueBatch(activeBatch.get());
+        activeBatch.set(batch);
+        return batch;
+    }
+
+    /**
+     * @return Batch that is active on current thread - null if there is none
+     */
+    static PortValueBatch getActive() {
+        return activeBatch.get();
+    }
+
+    /**
+     * Adds value to batch
+     *
+     * @param runtime Remote runtime that port belongs to
+     * @param port Network port to set value of
+     * @param value Value to set
+     */
+    void add(RemoteRuntime runtime, AbstractPort port, GenericObject value) {
+        ArrayList<Entry> runtimeEntries = entries.get(runtime);
+        if (runtimeEntries == null) {
+            runtimeEntries = new ArrayList<Entry>();
+            entries.put(runtime, runtimeEntries);
+        }
+        runtimeEntries.add(new Entry(port, value));
+    }
+
+    /**
+     * @return Number of values in batch
+     */
+    public int size() {
+        int result = 0;
+        for (ArrayList<Entry> runtimeEntries : entries.values()) {
+            result += runtimeEntries.size();
+        }
+        return result;
+    }
+
+    /**
+     * Ends batch on current thread and sends all values.
+     * Returns immediately - errors are reported when responses arrive.
+     */
+    public void commit() {
+        if (activeBatch.get() == this) {
+            if (outerBatch != null) {
+                activeBatch.set(outerBatch);
+            } else {
+                activeBatch.remove();
+            }
+        }
+        for (Map.Entry<RemoteRuntime, ArrayList<Entry>> runtimeEntries : entries.entrySet()) {
+            new SendThread(runtimeEntries.getKey(), runtimeEntries.getValue()).start();
+        }
+        entries.clear();
+    }
+
+    /**
+     * Value to set
+     */
+    private static class Entry implements ResponseHandler {
+
+        /** Network port to set value of */
+        private final AbstractPort port;
+
+        /** Value to set */
+        private final GenericObject value;
+
+        /** Error message - null if value was set successfully (or there has been no response yet) */
+        private volatile String error;
+
+        /** Counted down when response arrives */
+        private CountDownLatch responses;
+
+        private Entry(AbstractPort port, GenericObject value) {
+            this.port = port;
+            this.value = value;
+        }
+
+        @Override
+        public void handleResponse(Method method, Object r) {
+            if (r != null && r.toString().length() > 0) {
+                error = r.toString();
+            }
+            responses.countDown();
+        }
+
+        @Override
+        public void handleException(Method method, FutureStatus mce) {
+            error = mce.toString();
+            responses.countDown();
+        }
+    }
+
+    /**
+     * Sends values to a single runtime and reports errors
+     */
+    private static class SendThread extends Thread {
+
+        /** Runtime to send values to */
+        private final RemoteRuntime runtime;
+
+        /** Values to send */
+        private final ArrayList<Entry> entries;
+
+        private SendThread(RemoteRuntime runtime, ArrayList<Entry> entries) {
+            super("Port value batch");
+            setDaemon(true);
+            this.runtime = runtime;
+            this.entries = entries;
+        }
+
+        @Override
+        public void run() {
+            CountDownLatch responses = new CountDownLatch(entries.size());
+            for (Entry entry : entries) {
+                entry.responses = responses;
+                try {
+                    runtime.getAdminInterface().setRemotePortValue(entry.port.asNetPort(), entry.value, entry);
+                } catch (Exception e) {
+                    entry.error = e.toString();
+                    responses.countDown();
+                }
+            }
+            boolean complete = false;
+            try {
+                complete = responses.await(RESPONSE_TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {}
+
+            StringBuilder errors = new StringBuilder();
+            int errorCount = 0;
+            for (Entry entry : entries) {
+                String error = entry.error;
+                if (error != null) {
+                    errors.append("\n").append(entry.port.getQualifiedLink()).append(": ").append(error);
+                    errorCount++;
+                }
+            }
+            if (!complete) {
+                errors.append("\n(").append(responses.getCount()).append(" responses are missing)");
+            }
+            if (errorCount > 0 || (!complete)) {
+                Log.log(LogLevel.ERROR, this, "Setting port values failed:" + errors);
+                Finstruct.showErrorMessage("Setting " + errorCount + " of " + entries.size() + " port values failed:" + errors, false, false);
+            }
+        }
+    }
+}
@@ -24,9 +24,12 @@ package org.finroc.tools.finstruct.propertyeditor;
 import java.awt.Component;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.swing.DefaultCellEditor;
 import javax.swing.JComboBox;
+import javax.swing.SwingUtilities;
+import javax.swing.event.TableModelEvent;
 import javax.swing.event.TableModelListener;
 import javax.swing.table.DefaultTableCellRenderer;
 import javax.swing.table.TableModel;
@@ -44,6 +47,11 @@ import org.rrlib.serialization.rtti.DataTypeBase;
  *
  * JTable model for property lists
  * Also provides a default table cell renderer for Finroc types
+ *
+ * Values of port properties (PortAccessor) are cached per row: the model registers as listener at
+ * these accessors (chaining to any previously registered listener), and the objects returned by get()
+ * are only retrieved again after the port has changed.
+ * Changes are signalled to the table with cell-level events - so only changed cells are repainted.
  */
 @SuppressWarnings("rawtypes")
 public class PropertyEditorTableModel /*extends DefaultCellEditor*/ implements TableModel { /*, TableCellRenderer*/
@@ -69,6 +77,9 @@ public class PropertyEditorTableModel /*extends DefaultCellEditor*/ implements T
     /** Property set listener list */
     private ArrayList<PropertySetListener> propertySetListeners = new ArrayList<PropertySetListener>();
 
+    /** Value caches of rows (null entries for properties that do not report changes) */
+    private ArrayList<RowCache> rowCaches = new ArrayList<RowCache>();
+
     /** Default table cell renderer */
     private DefaultTableCellRenderer defaultRenderer = new DefaultTableCellRenderer();
 
@@ -81,6 +92,7 @@ public class PropertyEditorTableModel /*extends DefaultCellEditor*/ implements T
         //super(defaultEditorComponent);
         this.firstColumnName = firstColumnName;
         for (PropertyAccessor acc : rawProperties) {
+            int rowCount = properties.size();
             try {
                 Component renderer = null;
                 DefaultCellEditor editor = null;
@@ -108,6 +120,9 @@ public class PropertyEditorTableModel /*extends DefaultCellEditor*/ implements T
             } catch (Exception e) {
                 e.printStackTrace();
             }
+            if (properties.size() > rowCount) {
+                rowCaches.add(acc instanceof PortAccessor ? new RowCache(rowCount, (PortAccessor)acc) : null);
+            }
         }
     }
 
@@ -150,11 +165,21 @@ public class PropertyEditorTableModel /*extends DefaultCellEditor*/ implements T
         if (columnIndex == 0) {
             return properties.get(rowIndex).getName();
         } else {
+            RowCache cache = rowCaches.get(rowIndex);
+            if (cache != null && cache.valid) {
+                return cache.value;
+            }
+            Object value;
             try {
-                return properties.get(rowIndex).get();
+                value = properties.get(rowIndex).get();
             } catch (Exception e) {
-                return "Error: " + e.getMessage();
+                value = "Error: " + e.getMessage();
             }
+            if (cache != null) {
+                cache.value = value;
+                cache.valid = true;
+            }
+            return value;
         }
     }
 
@@ -163,6 +188,9 @@ public class PropertyEditorTableModel /*extends DefaultCellEditor*/ implements T
     public void setValueAt(Object aValue, int rowIndex, int columnIndex) {
         try {
             properties.get(rowIndex).set(aValue);
+            if (rowCaches.get(rowIndex) != null) {
+                rowCaches.get(rowIndex).run();
+            }
             for (PropertySetListener listener : propertySetListeners) {
                 listener.propertySet(properties.get(rowIndex));
             }
@@ -183,6 +211,65 @@ public class PropertyEditorTableModel /*extends DefaultCellEditor*/ implements T
         listeners.remove(l);
     }
 
+    /**
+     * Notifies listeners (the table) that value of cell has changed
+     *
+     * @param rowIndex Row index
+     * @param columnIndex Column index
+     */
+    private void fireCellUpdated(int rowIndex, int columnIndex) {
+        TableModelEvent event = new TableModelEvent(this, rowIndex, rowIndex, columnIndex);
+        for (TableModelListener listener : new ArrayList<TableModelListener>(listeners)) {
+            listener.tableChanged(event);
+        }
+    }
+
+    /**
+     * Cached value of a row whose property is a port.
+     * Invalidated (in AWT thread) when port changes.
+     */
+    private class RowCache implements PortAccessor.Listener, Runnable {
+
+        /** Row index */
+        private final int row;
+
+        /** Cached value (only accessed by AWT thread) */
+        private Object value;
+
+        /** Is cached value valid? (only accessed by AWT thread) */
+        private boolean valid;
+
+        /** Is invalidation already scheduled in AWT thread? (changes are coalesced until then) */
+        private final AtomicBoolean invalidationPending = new AtomicBoolean();
+
+        /** Listener that was registered at port accessor before (is still notified) - null if there was none */
+        private final PortAccessor.Listener previousListener;
+
+        private RowCache(int row, PortAccessor port) {
+            this.row = row;
+            previousListener = port.getListener();
+            port.setListener(this);
+        }
+
+        @Override
+        public void portChanged() {
+            if (previousListener != null) {
+                previousListener.portChanged();
+            }
+            if (invalidationPending.compareAndSet(false, true)) {
+                SwingUtilities.invokeLater(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            invalidationPending.set(false);
+            valid = false;
+            value = null;
+            fireCellUpdated(row, 1);
+        }
+    }
+
     public interface PropertySetListener {
 
         /**
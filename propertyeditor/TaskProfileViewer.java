@@ -23,16 +23,31 @@ package org.finroc.tools.finstruct.propertyeditor;
 
 import java.awt.BorderLayout;
 import java.awt.Color;
+import java.awt.FlowLayout;
+import java.awt.Window;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 
 import javax.naming.OperationNotSupportedException;
+import javax.swing.JDialog;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
 import javax.swing.JScrollPane;
+import javax.swing.JSpinner;
+import javax.swing.SpinnerNumberModel;
 import javax.swing.JTable;
+import javax.swing.table.AbstractTableModel;
 import javax.swing.table.DefaultTableCellRenderer;
 import javax.swing.table.DefaultTableModel;
 
-import org.finroc.core.remote.RemoteFrameworkElement;
+import org.finroc.core.datatype.Duration;
 import org.finroc.core.remote.RemoteRuntime;
 import org.finroc.plugins.data_types.TaskProfile;
+import org.finroc.tools.finstruct.util.DurationHistory;
+import org.finroc.tools.finstruct.util.ProfileRecorder;
+import org.finroc.tools.finstruct.util.ProfileRecording;
 import org.finroc.tools.gui.ConnectionPanel;
 import org.finroc.tools.gui.util.propertyeditor.PropertyEditComponent;
 import org.rrlib.logging.Log;
@@ -50,7 +65,28 @@ public class TaskProfileViewer extends PropertyEditComponent<TaskProfile.List> {
 
     private JTable jtable;
     private TaskProfile.List currentProfile;
-    private static final String[] columnNames = new String[] { "Name", "Last", "Average", "Max", "Total" };
+
+    /** Table model (updated incrementally) */
+    private final TaskProfileTableModel tableModel = new TaskProfileTableModel();
+    private static final String[] columnNames = new String[] { "Name", "Last", "Average", "Max", "Total", "p50", "p95", "p99", "Max (window)" };
+
+    /** Percentiles displayed in last columns */
+    private static final double[] PERCENTILES = new double[] { 0.5, 0.95, 0.99, 1.0 };
+
+    /** Index of first percentile column */
+    private static final int FIRST_PERCENTILE_COLUMN = 5;
+
+    /** Percentiles are recalculated at most once in this interval (in ms) */
+    private static final long PERCENTILE_UPDATE_INTERVAL = 500;
+
+    /** Buffer for percentile results */
+    private final long[] percentileBuffer = new long[PERCENTILES.length];
+
+    /** Time when percentiles were last calculated */
+    private long lastPercentileUpdate;
+
+    /** Number of samples that percentiles are calculated from */
+    private final JSpinner window = new JSpinner(new SpinnerNumberModel(1000, 10, DurationHistory.DEFAULT_CAPACITY, 10));
     private RemoteRuntime runtime;
     private static final Color colorTotal = Color.LIGHT_GRAY;
     private static final Color[] classificationColors = new Color[] { ConnectionPanel.sensorInterfaceColor, ConnectionPanel.controllerInterfaceColor, ConnectionPanel.rightBackgroundColor };
@@ -64,7 +100,7 @@ public class TaskProfileViewer extends PropertyEditComponent<TaskProfile.List> {
     }
     private static final Renderer renderer = new Renderer();
 
-    private class ColoredString {
+    private static class ColoredString {
 
         String string;
         Color color;
@@ -80,6 +116,205 @@ public class TaskProfileViewer extends PropertyEditComponent<TaskProfile.List> {
         }
     }
 
+    /** Table row of a single task */
+    private static class Row {
+
+        /** Key of task (handle and task classification) */
+        final long key;
+
+        /** Handle of task */
+        final int handle;
+
+        /** Cells - updated in place */
+        final ColoredString[] cells = new ColoredString[columnNames.length];
+
+        /** Execution durations currently displayed in columns 1 to 4 (in nanoseconds) */
+        final long[] durations = new long[4];
+
+        /** Execution duration history for percentiles */
+        final DurationHistory history = new DurationHistory();
+
+        /** Index of row in table model */
+        int index;
+
+        /** Was task contained in last update? */
+        boolean updated;
+
+        Row(long key, int handle, Color color) {
+            this.key = key;
+            this.handle = handle;
+            for (int i = 0; i < cells.length; i++) {
+                cells[i] = new ColoredString("", color);
+            }
+            Arrays.fill(durations, -1);
+        }
+    }
+
+    /**
+     * Table model with one row per task.
+     * Rows are keyed by handle and task classification - cells are updated in place
+     * (only changed cells are reported to the table, so sorting and selection are preserved).
+     */
+    private class TaskProfileTableModel extends AbstractTableModel {
+
+        /** UID */
+        private static final long serialVersionUID = 2926385513785920741L;
+
+        /** Rows in table */
+        private final ArrayList<Row> rows = new ArrayList<Row>();
+
+        /** Rows by key */
+        private final HashMap<Long, Row> rowLookup = new HashMap<Long, Row>();
+
+        /**
+         * Row of each list index in last update.
+         * As order of profiles usually does not change, this avoids any lookups (and allocation) in rowLookup.
+         */
+        private Row[] rowsByListIndex = new Row[0];
+
+        @Override
+        public int getRowCount() {
+            return rows.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return columnNames.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return columnNames[column];
+        }
+
+        @Override
+        public Object getValueAt(int rowIndex, int columnIndex) {
+            return rows.get(rowIndex).cells[columnIndex];
+        }
+
+        /**
+         * Updates table with new profiles
+         *
+         * @param profiles Current profiles
+         */
+        void update(TaskProfile.List profiles) {
+            long now = System.currentTimeMillis();
+            boolean updatePercentiles = now - lastPercentileUpdate > PERCENTILE_UPDATE_INTERVAL;
+            if (updatePercentiles) {
+                lastPercentileUpdate = now;
+            }
+            if (rowsByListIndex.length < profiles.size()) {
+                rowsByListIndex = Arrays.copyOf(rowsByListIndex, profiles.size());
+            }
+
+            int oldRowCount = rows.size();
+            for (int i = 0; i < profiles.size(); i++) {
+                TaskProfile taskProfile = profiles.get(i);
+                long key = ProfileRecorder.getTaskKey(taskProfile.handle, taskProfile.taskClassification);
+                Row row = rowsByListIndex[i];
+                if (row == null || row.key != key) {
+                    row = rowLookup.get(key);
+                    if (row == null) {
+                        row = new Row(key, taskProfile.handle, i == 0 ? colorTotal : classificationColors[taskProfile.taskClassification.ordinal()]);
+                        row.cells[0].string = i == 0 ? "Total" : ProfileRecorder.getTaskName(runtime, taskProfile.handle);
+                        row.index = rows.size();
+                        rowLookup.put(key, row);
+                        rows.add(row);
+                    }
+                    rowsByListIndex[i] = row;
+                }
+                row.updated = true;
+                int rowIndex = row.index < oldRowCount ? row.index : -1;
+                if (i > 0 && updatePercentiles && row.cells[0].string.equals("Unknown")) {
+                    row.cells[0].string = ProfileRecorder.getTaskName(runtime, taskProfile.handle);
+                    fireCellUpdated(rowIndex, 0);
+                }
+                updateDuration(row, rowIndex, 1, taskProfile.lastExecutionDuration);
+                updateDuration(row, rowIndex, 2, taskProfile.averageExecutionDuration);
+                updateDuration(row, rowIndex, 3, taskProfile.maxExecutionDuration);
+                updateDuration(row, rowIndex, 4, taskProfile.totalExecutionDuration);
+
+                // Record execution duration and calculate percentiles
+                row.history.add(taskProfile);
+                if (updatePercentiles && row.history.getPercentiles((Integer)window.getValue(), PERCENTILES, percentileBuffer) > 0) {
+                    for (int j = 0; j < PERCENTILES.length; j++) {
+                        String percentile = DurationHistory.toString(percentileBuffer[j]);
+                        if (!percentile.equals(row.cells[FIRST_PERCENTILE_COLUMN + j].string)) {
+                            row.cells[FIRST_PERCENTILE_COLUMN + j].string = percentile;
+                            fireCellUpdated(rowIndex, FIRST_PERCENTILE_COLUMN + j);
+                        }
+                    }
+                }
+            }
+            if (rows.size() > oldRowCount) {
+                fireTableRowsInserted(oldRowCount, rows.size() - 1);
+            }
+
+            // Remove tasks that no longer exist
+            boolean removed = false;
+            for (int i = rows.size() - 1; i >= 0; i--) {
+                Row row = rows.get(i);
+                if (!row.updated) {
+                    rows.remove(i);
+                    rowLookup.remove(row.key);
+                    fireTableRowsDeleted(i, i);
+                    removed = true;
+                }
+                row.updated = false;
+            }
+            if (removed) {
+                for (int i = 0; i < rows.size(); i++) {
+                    rows.get(i).index = i;
+                }
+            }
+            if (profiles.size() < rowsByListIndex.length) {
+                Arrays.fill(rowsByListIndex, profiles.size(), rowsByListIndex.length, null);
+            }
+        }
+
+        /**
+         * Updates duration cell if value changed
+         *
+         * @param row Row
+         * @param rowIndex Index of row (-1 if row has just been added)
+         * @param column Column of cell
+         * @param duration Current duration
+         */
+        private void updateDuration(Row row, int rowIndex, int column, Duration duration) {
+            long nanoseconds = duration.getNanoseconds();
+            if (row.durations[column - 1] != nanoseconds) {
+                row.durations[column - 1] = nanoseconds;
+                row.cells[column].string = duration.toString();
+                fireCellUpdated(rowIndex, column);
+            }
+        }
+
+        /**
+         * Notifies table of changed cell (if row is already in table)
+         *
+         * @param rowIndex Index of row (-1 if row has just been added)
+         * @param column Column of cell
+         */
+        private void fireCellUpdated(int rowIndex, int column) {
+            if (rowIndex >= 0) {
+                fireTableCellUpdated(rowIndex, column);
+            }
+        }
+
+        /**
+         * Removes all rows
+         */
+        void clear() {
+            if (rows.size() > 0) {
+                int oldRowCount = rows.size();
+                rows.clear();
+                rowLookup.clear();
+                Arrays.fill(rowsByListIndex, null);
+                fireTableRowsDeleted(0, oldRowCount - 1);
+            }
+        }
+    }
+
     public TaskProfileViewer(RemoteRuntime runtime) {
         this.runtime = runtime;
     }
@@ -87,23 +322,24 @@ public class TaskProfileViewer extends PropertyEditComponent<TaskProfile.List> {
     @Override
     protected void createAndShow() {
         try {
-            jtable = new JTable();
-            jtable.setAutoCreateRowSorter(true);
-            jtable.setDefaultRenderer(Object.class, renderer);
+            createTable();
             valueUpdated(getCurWidgetValue());
         } catch (Exception e) {
             Log.log(LogLevel.ERROR, this, e);
         }
         //jtable.setMinimumSize(new Dimension(300, 200));
         add(new JScrollPane(jtable), BorderLayout.CENTER);
+        JPanel windowPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        windowPanel.add(new JLabel("Percentiles of last"));
+        windowPanel.add(window);
+        windowPanel.add(new JLabel("samples"));
+        add(windowPanel, BorderLayout.NORTH);
     }
 
     @Override
     public void createAndShowMinimal(TaskProfile.List object) throws OperationNotSupportedException {
         try {
-            jtable = new JTable();
-            jtable.setAutoCreateRowSorter(true);
-            jtable.setDefaultRenderer(Object.class, renderer);
+            createTable();
             valueUpdated(object);
         } catch (Exception e) {
             Log.log(LogLevel.ERROR, this, e);
@@ -111,6 +347,58 @@ public class TaskProfileViewer extends PropertyEditComponent<TaskProfile.List> {
         add(jtable);
     }
 
+    /**
+     * Creates table with incrementally updated table model
+     */
+    private void createTable() {
+        jtable = new JTable(tableModel);
+        jtable.setAutoCreateRowSorter(true);
+        jtable.setDefaultRenderer(Object.class, renderer);
+        jtable.setShowHorizontalLines(true);
+        jtable.setCellSelectionEnabled(false);
+    }
+
+    /**
+     * Shows statistics of all tasks in a task profile recording in a dialog
+     * (for offline analysis - percentiles are calculated from histograms of all samples of each task)
+     *
+     * @param parent Parent window of dialog
+     * @param recording Recording to show
+     * @param summaries Summaries of recording (see ProfileRecording.summarize())
+     */
+    public static void showRecording(Window parent, ProfileRecording recording, LinkedHashMap<Long, ProfileRecording.TaskSummary> summaries) {
+
+        // Create table
+        Object[][] data = new Object[summaries.size()][];
+        int row = 0;
+        for (ProfileRecording.TaskSummary summary : summaries.values()) {
+            ProfileRecording.Record last = summary.lastRecord;
+            Color color = row == 0 ? colorTotal : classificationColors[last.taskClassification.ordinal()];
+            data[row] = new Object[columnNames.length];
+            data[row][0] = new ColoredString(row == 0 ? "Total" : recording.getName(last.handle), color);
+            data[row][1] = new ColoredString(DurationHistory.toString(last.lastExecutionDuration), color);
+            data[row][2] = new ColoredString(DurationHistory.toString(last.averageExecutionDuration), color);
+            data[row][3] = new ColoredString(DurationHistory.toString(last.maxExecutionDuration), color);
+            data[row][4] = new ColoredString(DurationHistory.toString(last.totalExecutionDuration), color);
+            for (int j = 0; j < PERCENTILES.length; j++) {
+                long value = PERCENTILES[j] >= 1 ? summary.durations.getMax() : summary.durations.getValueAtPercentile(PERCENTILES[j] * 100);
+                data[row][FIRST_PERCENTILE_COLUMN + j] = new ColoredString(DurationHistory.toString(value), color);
+            }
+            row++;
+        }
+        JTable table = new JTable(new DefaultTableModel(data, columnNames));
+        table.setAutoCreateRowSorter(true);
+        table.setDefaultRenderer(Object.class, renderer);
+        table.setShowHorizontalLines(true);
+        table.setCellSelectionEnabled(false);
+
+        JDialog dialog = new JDialog(parent, "Task Profile Recording (" + recording.getRecordCount() + " records)");
+        dialog.getContentPane().add(new JScrollPane(table), BorderLayout.CENTER);
+        dialog.pack();
+        dialog.setLocationRelativeTo(parent);
+        dialog.setVisible(true);
+    }
+
     @Override
     public TaskProfile.List getCurEditorValue() {
         return currentProfile;
@@ -119,30 +407,9 @@ public class TaskProfileViewer extends PropertyEditComponent<TaskProfile.List> {
     @Override
     protected void valueUpdated(TaskProfile.List t) {
         if (t == null) {
-            jtable.setModel(new DefaultTableModel(columnNames, 0));
+            tableModel.clear();
             return;
         }
-        Object[][] data = new Object[t.size()][];
-        for (int i = 0; i < t.size(); i++) {
-            TaskProfile taskProfile = t.get(i);
-            data[i] = new Object[columnNames.length];
-            Color color = i == 0 ? colorTotal : classificationColors[taskProfile.taskClassification.ordinal()];
-            ColoredString name = new ColoredString("Total", color);
-            data[i][0] = name;
-            if (i > 0) {
-                RemoteFrameworkElement element = runtime.elementLookup.get(taskProfile.handle);
-                if (element.isInterface()) {
-                    element = (RemoteFrameworkElement)element.getParent();
-                }
-                name.string = element == null ? "Unknown" : element.getQualifiedLink();
-            }
-            data[i][1] = new ColoredString(taskProfile.lastExecutionDuration.toString(), color);
-            data[i][2] = new ColoredString(taskProfile.averageExecutionDuration.toString(), color);
-            data[i][3] = new ColoredString(taskProfile.maxExecutionDuration.toString(), color);
-            data[i][4] = new ColoredString(taskProfile.totalExecutionDuration.toString(), color);
-        }
-        jtable.setModel(new DefaultTableModel(data, columnNames));
-        jtable.setShowHorizontalLines(true);
-        jtable.setCellSelectionEnabled(false);
+        tableModel.update(t);
     }
 }
@@ -0,0 +1,252 @@
+//
+// You received this file as part of Finroc
+// A framework for intelligent robot control
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.finroc.tools.finstruct.propertyeditor;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.rrlib.logging.Log;
+import org.rrlib.logging.LogLevel;
+import org.rrlib.serialization.Serialization;
+
+/**
+ * @author Max Reichardt
+ *
+ * Client-side throttling of port updates.
+ *
+ * Decides (on the thread that receives port data) whether a new value should be processed.
+ * Skipped values are dropped before any listener is called - so they cause neither deep copies nor repaints.
+ *
+ * Policies:
+ *  - maximum rate: at most n updates per second. If values were skipped, the last one is delivered
+ *    when the interval is over (via trailing update) - so displays never remain outdated.
+ *  - on change: values that equal the previous value are skipped (only for types that implement equals())
+ *  - decimation: only every n-th value is processed
+ *
+ * Each port (accessor) needs its own instance.
+ */
+public class UpdateThrottle {
+
+    /** Default maximum update rate for ports displayed in property editors (in Hz) */
+    public static final double PROPERTY_EDITOR_RATE = 10;
+
+    /** Default maximum update rate for visualizations (in Hz) */
+    public static final double VISUALIZATION_RATE = 60;
+
+    /** Throttling policy */
+    public enum Mode { MaxRate, OnChange, Decimation }
+
+    /** Throttling policy of this throttle */
+    private final Mode mode;
+
+    /** Minimum interval between two updates (in ns) - MaxRate mode */
+    private final long minInterval;
+
+    /** Only every n-th value is processed - Decimation mode */
+    private final int decimation;
+
+    /** Time when last value was accepted (in ns) */
+    private long lastAccepted;
+
+    /** Number of values received (Decimation mode) */
+    private int valueCounter;
+
+    /** Copy of last accepted value (OnChange mode) */
+    private Object lastValue;
+
+    /** Class of values and whether it implements equals() (OnChange mode) */
+    private Class<?> valueClass;
+    private boolean valueClassComparable;
+
+    /** Called when skipped value should be delivered after interval */
+    private Runnable trailingUpdate;
+
+    /** Was a value skipped that has not been delivered yet? Is delivery already scheduled? */
+    private boolean pending, scheduled;
+
+    /** Number of skipped values */
+    private long skippedValues;
+
+    /** Thread that delivers trailing updates (created on first use) */
+    private static ScheduledExecutorService trailingUpdateThread;
+
+    private UpdateThrottle(Mode mode, long minInterval, int decimation) {
+        this.mode = mode;
+        this.minInterval = minInterval;
+        this.decimation = decimation;
+    }
+
+    /**
+     * @param hz Maximum number of updates per second
+     * @return Throttle that limits update rate
+     */
+    public static UpdateThrottle maxRate(double hz) {
+        return new UpdateThrottle(Mode.MaxRate, (long)(1000000000.0 / hz), 1);
+    }
+
+    /**
+     * @return Throttle that skips values equal to the previous value
+     */
+    public static UpdateThrottle onChange() {
+        return new UpdateThrottle(Mode.OnChange, 0, 1);
+    }
+
+    /**
+     * @param n Only every n-th value is processed
+     * @return Throttle that decimates values
+     */
+    public static UpdateThrottle decimation(int n) {
+        return new UpdateThrottle(Mode.Decimation, 0, Math.max(1, n));
+    }
+
+    /**
+     * @param trailingUpdate Called (by another thread) when a skipped value should be delivered after the interval is over (MaxRate mode)
+     */
+    public synchronized void setTrailingUpdate(Runnable trailingUpdate) {
+        this.trailingUpdate = trailingUpdate;
+    }
+
+    /**
+     * Called whenever a new value is received (by thread that receives port data)
+     *
+     * @param value New value (only needed in OnChange mode)
+     * @return True if value should be processed - false if it should be skipped
+     */
+    public synchronized boolean accept(Object value) {
+        switch (mode) {
+        case MaxRate:
+            long now = System.nanoTime();
+            long remaining = lastAccepted + minInterval - now;
+            if (remaining <= 0) {
+                lastAccepted = now;
+                pending = false;
+                return true;
+            }
+            skippedValues++;
+            pending = true;
+            if (!scheduled && trailingUpdate != null) {
+                scheduled = true;
+                getTrailingUpdateThread().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        deliverTrailingUpdate();
+                    }
+                }, remaining, TimeUnit.NANOSECONDS);
+            }
+            return false;
+        case OnChange:
+            if (value == null) {
+                return true;
+            }
+            if (value.getClass() != valueClass) {
+                valueClass = value.getClass();
+                valueClassComparable = implementsEquals(valueClass);
+                lastValue = null;
+            }
+            if (!valueClassComparable) {
+                return true;
+            }
+            if (lastValue != null && lastValue.equals(value)) {
+                skippedValues++;
+                return false;
+            }
+            try {
+                lastValue = Serialization.deepCopy(value);
+            } catch (Exception e) {
+                valueClassComparable = false;
+            }
+            return true;
+        default:
+            if (valueCounter++ % decimation == 0) {
+                return true;
+            }
+            skippedValues++;
+            return false;
+        }
+    }
+
+    /**
+     * @return Throttling policy of this throttle
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return Number of skipped values
+     */
+    public synchronized long getSkippedValueCount() {
+        return skippedValues;
+    }
+
+    /**
+     * Delivers skipped value (called by trailing update thread)
+     */
+    private void deliverTrailingUpdate() {
+        Runnable update;
+        synchronized (this) {
+            scheduled = false;
+            if (!pending) {
+                return;
+            }
+            pending = false;
+            lastAccepted = System.nanoTime();
+            update = trailingUpdate;
+        }
+        try {
+            update.run();
+        } catch (Exception e) {
+            Log.log(LogLevel.ERROR, this, e);
+        }
+    }
+
+    /**
+     * @param c Class
+     * @return True if class (or a superclass other than Object) overrides equals()
+     */
+    private static boolean implementsEquals(Class<?> c) {
+        try {
+            return c.getMethod("equals", Object.class).getDeclaringClass() != Object.class;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return Thread that delivers trailing updates
+     */
+    private static synchronized ScheduledExecutorService getTrailingUpdateThread() {
+        if (trailingUpdateThread == null) {
+            trailingUpdateThread = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "Throttled port updates");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return trailingUpdateThread;
+    }
+}
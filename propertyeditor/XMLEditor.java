@@ -23,15 +23,20 @@ package org.finroc.tools.finstruct.propertyeditor;
 
 import java.awt.BorderLayout;
 import java.awt.Dimension;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.io.StringReader;
 
 import javax.naming.OperationNotSupportedException;
 import javax.swing.BorderFactory;
+import javax.swing.JButton;
+import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTextArea;
 
 import org.finroc.core.datatype.XML;
+import org.finroc.tools.finstruct.util.PagedText;
 import org.finroc.tools.gui.util.propertyeditor.PropertyEditComponent;
 import org.rrlib.xml.XMLDocument;
 import org.xml.sax.InputSource;
@@ -39,29 +44,72 @@ import org.xml.sax.InputSource;
 /**
  * @author Max Reichardt
  *
+ * Values longer than PAGING_THRESHOLD characters are displayed in pages - so that only the visible
+ * page needs to be laid out by the text area and the UI remains responsive with multi-megabyte values.
+ * The complete value is only displayed when the user requests it ("Show all").
+ *
  * TODO add syntax highlighting
  */
-public class XMLEditor extends PropertyEditComponent<XML> {
+public class XMLEditor extends PropertyEditComponent<XML> implements ActionListener {
 
     /** UID */
     private static final long serialVersionUID = 2486687318726499512L;
 
+    /** Values with more characters are displayed in pages */
+    public static final int PAGING_THRESHOLD = 256 * 1024;
+
     private JTextArea jta;
 
+    /** Pager controls (only visible if value is displayed in pages) */
+    private JPanel pager;
+    private JButton previousPage, nextPage, lastPage, showAll;
+    private JLabel pageLabel;
+
+    /** Value split into pages - null if complete value is displayed */
+    private PagedText pagedText;
+
+    /** Index of displayed page */
+    private int currentPage;
+
+    /** Has user requested to display complete value? (reset when value drops below threshold) */
+    private boolean showAllRequested;
+
     protected void createAndShow() throws Exception {
         jta = new JTextArea();
         jta.setMinimumSize(new Dimension(TEXTFIELDWIDTH, 100));
         //jta.setPreferredSize(new Dimension(TEXTFIELDWIDTH, 100));
+        pager = new JPanel();
+        previousPage = createPagerButton("<");
+        nextPage = createPagerButton(">");
+        lastPage = createPagerButton(">|");
+        lastPage.setToolTipText("Go to last page (determines number of pages)");
+        pageLabel = new JLabel();
+        pager.add(pageLabel);
+        showAll = createPagerButton("Show all");
+        showAll.setToolTipText("Display complete value (may take some time)");
+        pager.setVisible(false);
         valueUpdated(getCurWidgetValue());
         JPanel jp = new JPanel();
         jp.setBorder(BorderFactory.createTitledBorder(""/*getPropertyName()*/));
         jp.setLayout(new BorderLayout());
         jp.setPreferredSize(new Dimension(TEXTFIELDWIDTH, 100));
         jp.add(new JScrollPane(jta), BorderLayout.CENTER);
+        jp.add(pager, BorderLayout.SOUTH);
         add(jp, BorderLayout.CENTER);
         jta.setEnabled(isModifiable());
     }
 
+    /**
+     * @param text Button text
+     * @return New button that was added to pager
+     */
+    private JButton createPagerButton(String text) {
+        JButton button = new JButton(text);
+        button.addActionListener(this);
+        pager.add(button);
+        return button;
+    }
+
     @Override
     public void createAndShowMinimal(XML s) throws OperationNotSupportedException {
         throw new OperationNotSupportedException();
@@ -69,15 +117,84 @@ public class XMLEditor extends PropertyEditComponent<XML> {
 
     @Override
     public XML getCurEditorValue() throws Exception {
-        new XMLDocument(new InputSource(new StringReader(jta.getText())), false); // throws exception if invalid XML
+        String text = getEditorText();
+        new XMLDocument(new InputSource(new StringReader(text)), false); // throws exception if invalid XML
         XML xml = new XML();
-        xml.set(jta.getText());
+        xml.set(text);
         return xml;
     }
 
     @Override
     protected void valueUpdated(XML t) {
-        jta.setText(t == null ? "" : t.toString());
+        String text = t == null ? "" : t.toString();
+        if (text.length() > PAGING_THRESHOLD && (!showAllRequested)) {
+            if (pagedText != null && pagedText.getText().equals(text)) {
+                return; // unchanged - avoid layouting page again
+            }
+            pagedText = new PagedText(text, PagedText.DEFAULT_PAGE_SIZE);
+            showPage(currentPage);
+        } else {
+            if (text.length() <= PAGING_THRESHOLD) {
+                showAllRequested = false;
+            }
+            pagedText = null;
+            currentPage = 0;
+            pager.setVisible(false);
+            jta.setText(text);
+        }
+    }
+
+    /**
+     * @return Complete text in editor (including pages that are not displayed)
+     */
+    private String getEditorText() {
+        return pagedText != null ? pagedText.replacePage(currentPage, jta.getText()) : jta.getText();
+    }
+
+    /**
+     * Displays page of paged value
+     * (page boundaries are only determined up to the page after the displayed one -
+     * the total number of pages is only shown once it is known)
+     *
+     * @param index Index of page
+     */
+    private void showPage(int index) {
+        index = Math.max(0, index);
+        currentPage = pagedText.hasPage(index) ? index : pagedText.getKnownPageCount() - 1;
+        jta.setText(pagedText.getPage(currentPage));
+        jta.setCaretPosition(0);
+        boolean hasNextPage = pagedText.hasPage(currentPage + 1);
+        previousPage.setEnabled(currentPage > 0);
+        nextPage.setEnabled(hasNextPage);
+        lastPage.setEnabled(hasNextPage);
+        String pageCount = (pagedText.isComplete() ? "" : "\u2265") + pagedText.getKnownPageCount();
+        pageLabel.setText("Page " + (currentPage + 1) + " of " + pageCount + " (" + (pagedText.getText().length() / 1024) + " K characters)");
+        pager.setVisible(true);
+    }
+
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        if (pagedText == null) {
+            return;
+        }
+        String pageText = jta.getText();
+        if (!pageText.equals(pagedText.getPage(currentPage))) { // keep changes on current page
+            pagedText = new PagedText(pagedText.replacePage(currentPage, pageText), PagedText.DEFAULT_PAGE_SIZE);
+        }
+        if (e.getSource() == previousPage) {
+            showPage(currentPage - 1);
+        } else if (e.getSource() == nextPage) {
+            showPage(currentPage + 1);
+        } else if (e.getSource() == lastPage) {
+            showPage(pagedText.getPageCount() - 1);
+        } else if (e.getSource() == showAll) {
+            showAllRequested = true;
+            String text = pagedText.getText();
+            pagedText = null;
+            currentPage = 0;
+            pager.setVisible(false);
+            jta.setText(text);
+        }
     }
 
     @Override
@@ -0,0 +1,156 @@
+//
+// You received this file as part of Finroc
+// A framework for intelligent robot control
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.finroc.tools.finstruct.util;
+
+import java.util.Arrays;
+
+import org.finroc.plugins.data_types.TaskProfile;
+
+/**
+ * @author Max Reichardt
+ *
+ * Fixed-size ring buffer with the most recent execution durations of a task (in nanoseconds).
+ *
+ * Stores primitive values only - so adding samples does not allocate any objects.
+ * Memory per task is bounded by the capacity specified in the constructor.
+ */
+public class DurationHistory {
+
+    /** Default number of samples stored */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    /** Ring buffer with samples */
+    private final long[] samples;
+
+    /** Buffer for sorting samples when calculating percentiles */
+    private final long[] sortBuffer;
+
+    /** Index in ring buffer that next sample is written to */
+    private int nextIndex;
+
+    /** Number of valid samples in ring buffer */
+    private int size;
+
+    public DurationHistory() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity Maximum number of samples stored
+     */
+    public DurationHistory(int capacity) {
+        samples = new long[capacity];
+        sortBuffer = new long[capacity];
+    }
+
+    /**
+     * @param profile Task profile
+     * @return Last execution duration in profile (in nanoseconds)
+     */
+    public static long getLastExecutionDuration(TaskProfile profile) {
+        return profile.lastExecutionDuration.getNanoseconds();
+    }
+
+    /**
+     * Adds sample to history (overwrites oldest sample if history is full)
+     *
+     * @param duration Duration in nanoseconds
+     */
+    public synchronized void add(long duration) {
+        samples[nextIndex] = duration;
+        nextIndex = (nextIndex + 1) % samples.length;
+        size = Math.min(size + 1, samples.length);
+    }
+
+    /**
+     * Adds last execution duration of task profile to history
+     *
+     * @param profile Task profile
+     */
+    public void add(TaskProfile profile) {
+        add(getLastExecutionDuration(profile));
+    }
+
+    /**
+     * @return Number of samples currently stored
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return Maximum number of samples stored
+     */
+    public int capacity() {
+        return samples.length;
+    }
+
+    /**
+     * Copies most recent samples to array
+     *
+     * @param destination Array to copy samples to (oldest sample first)
+     * @return Number of samples copied (at most destination.length)
+     */
+    public synchronized int getLatest(long[] destination) {
+        int count = Math.min(size, destination.length);
+        int index = (nextIndex - count + samples.length) % samples.length;
+        for (int i = 0; i < count; i++) {
+            destination[i] = samples[index];
+            index = (index + 1) % samples.length;
+        }
+        return count;
+    }
+
+    /**
+     * Calculates percentiles of the most recent samples
+     *
+     * @param window Number of most recent samples to consider
+     * @param percentiles Percentiles to calculate (in range 0 to 1 - e.g. 0.95 for 95th percentile; 1 yields maximum)
+     * @param result Array to store results in (in nanoseconds, same order as percentiles)
+     * @return Number of samples that results are based on (0 if there are no samples - result is not changed then)
+     */
+    public synchronized int getPercentiles(int window, double[] percentiles, long[] result) {
+        int count = Math.min(window, size);
+        if (count <= 0) {
+            return 0;
+        }
+        int index = (nextIndex - count + samples.length) % samples.length;
+        for (int i = 0; i < count; i++) {
+            sortBuffer[i] = samples[index];
+            index = (index + 1) % samples.length;
+        }
+        Arrays.sort(sortBuffer, 0, count);
+        for (int i = 0; i < percentiles.length; i++) {
+            int rank = (int)Math.ceil(percentiles[i] * count) - 1; // nearest-rank method
+            result[i] = sortBuffer[Math.max(0, Math.min(count - 1, rank))];
+        }
+        return count;
+    }
+
+    /**
+     * @param duration Duration in nanoseconds
+     * @return Duration as string (in milliseconds)
+     */
+    public static String toString(long duration) {
+        return String.format("%.3f ms", duration / 1000000.0);
+    }
+}
@@ -0,0 +1,143 @@
+//
+// You received this file as part of Finroc
+// A framework for intelligent robot control
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.finroc.tools.finstruct.util;
+
+import java.util.Arrays;
+
+/**
+ * @author Max Reichardt
+ *
+ * Fixed-memory histogram of latencies and durations (similar to HdrHistogram).
+ *
+ * Values are non-negative integers in a unit chosen by the caller (e.g. milliseconds for port
+ * latencies, nanoseconds for task execution durations). Values below 128 are counted exactly.
+ * Larger values are counted in log-linear buckets: each power of two is split into 64 sub-buckets -
+ * so percentiles are accurate to about 1.6%. Recording a value is constant time and does not allocate memory.
+ * Values larger than MAX_VALUE are counted as MAX_VALUE.
+ */
+public class LatencyHistogram {
+
+    /** Number of sub-buckets per power of two (values below 2 * SUB_BUCKETS are counted exactly) */
+    private static final int SUB_BUCKETS = 64;
+
+    /** Largest value that can be distinguished (2^36 - 1: about 2.2 years in milliseconds, about 68 seconds in nanoseconds) */
+    public static final long MAX_VALUE = (1L << 36) - 1;
+
+    /** Counts per bucket */
+    private final long[] counts = new long[getIndex(MAX_VALUE) + 1];
+
+    /** Number of recorded values */
+    private long totalCount;
+
+    /** Smallest and largest recorded value */
+    private long min = Long.MAX_VALUE, max;
+
+    /**
+     * Records value
+     *
+     * @param value Value (negative values are counted as zero)
+     */
+    public synchronized void record(long value) {
+        value = Math.min(Math.max(value, 0), MAX_VALUE);
+        counts[getIndex(value)]++;
+        totalCount++;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Removes all recorded values
+     */
+    public synchronized void reset() {
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    /**
+     * @return Number of recorded values
+     */
+    public synchronized long getCount() {
+        return totalCount;
+    }
+
+    /**
+     * @return Smallest recorded value - 0 if no values were recorded
+     */
+    public synchronized long getMin() {
+        return totalCount > 0 ? min : 0;
+    }
+
+    /**
+     * @return Largest recorded value - 0 if no values were recorded
+     */
+    public synchronized long getMax() {
+        return max;
+    }
+
+    /**
+     * @param percentile Percentile (0 to 100 - e.g. 50 for median)
+     * @return Value at percentile - 0 if no values were recorded
+     */
+    public synchronized long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        long targetCount = Math.max(1, (long)Math.ceil(Math.min(Math.max(percentile, 0), 100) / 100 * totalCount));
+        long count = 0;
+        for (int i = 0; i < counts.length; i++) {
+            count += counts[i];
+            if (count >= targetCount) {
+                return Math.min(Math.max(getValue(i), min), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @param value Value (0 to MAX_VALUE)
+     * @return Index of bucket that value is counted in
+     */
+    private static int getIndex(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int)value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value); // >= 7
+        int subBucket = (int)(value >> (exponent - 6)); // 64 to 127
+        return 2 * SUB_BUCKETS + (exponent - 7) * SUB_BUCKETS + (subBucket - SUB_BUCKETS);
+    }
+
+    /**
+     * @param index Index of bucket
+     * @return Value in the middle of bucket
+     */
+    private static long getValue(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = 7 + (index - 2 * SUB_BUCKETS) / SUB_BUCKETS;
+        long subBucket = SUB_BUCKETS + (index - 2 * SUB_BUCKETS) % SUB_BUCKETS;
+        long width = 1L << (exponent - 6);
+        return subBucket * width + width / 2;
+    }
+}
@@ -0,0 +1,180 @@
+//
+// You received this file as part of Finroc
+// A framework for intelligent robot control
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.finroc.tools.finstruct.util;
+
+import java.util.Arrays;
+
+/**
+ * @author Max Reichardt
+ *
+ * Splits a (large) text into pages for display.
+ *
+ * Pages end at line breaks if possible and are at most pageSize characters long.
+ * Page boundaries are determined lazily - only up to the page that is requested - so
+ * displaying the first page of a multi-megabyte text does not require scanning the whole text.
+ */
+public class PagedText {
+
+    /** Default maximum number of characters per page */
+    public static final int DEFAULT_PAGE_SIZE = 64 * 1024;
+
+    /** Complete text */
+    private final String text;
+
+    /** Maximum number of characters per page */
+    private final int pageSize;
+
+    /** Start positions of pages determined so far */
+    private int[] pageStarts = new int[16];
+
+    /** Number of page start positions determined so far */
+    private int knownPages = 1;
+
+    /** Have all page boundaries been determined? */
+    private boolean complete;
+
+    /**
+     * @param text Complete text
+     * @param pageSize Maximum number of characters per page
+     */
+    public PagedText(String text, int pageSize) {
+        this.text = text;
+        this.pageSize = Math.max(1, pageSize);
+        complete = text.length() <= this.pageSize;
+    }
+
+    /**
+     * @return Complete text
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return Have all page boundaries been determined (so that getKnownPageCount() is the number of pages)?
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return Number of pages whose start has been determined so far (lower bound for number of pages)
+     */
+    public int getKnownPageCount() {
+        return knownPages;
+    }
+
+    /**
+     * @param index Index of page
+     * @return Does page with this index exist? (determines boundaries only up to page)
+     */
+    public boolean hasPage(int index) {
+        return index >= 0 && clampIndex(index) == index;
+    }
+
+    /**
+     * @return Number of pages (determines all page boundaries)
+     */
+    public int getPageCount() {
+        while (!complete) {
+            determineNextPage();
+        }
+        return knownPages;
+    }
+
+    /**
+     * @param index Index of page (is clamped to valid range)
+     * @return Text of page
+     */
+    public String getPage(int index) {
+        index = clampIndex(index);
+        return text.substring(pageStarts[index], getPageEnd(index));
+    }
+
+    /**
+     * @param index Index of page (is clamped to valid range)
+     * @return Position of page's first character in complete text
+     */
+    public int getPageStart(int index) {
+        return pageStarts[clampIndex(index)];
+    }
+
+    /**
+     * @param index Index of page (is clamped to valid range)
+     * @param pageText New text of page
+     * @return Complete text with page replaced
+     */
+    public String replacePage(int index, String pageText) {
+        index = clampIndex(index);
+        int start = pageStarts[index];
+        int end = getPageEnd(index);
+        StringBuilder sb = new StringBuilder(text.length() - (end - start) + pageText.length());
+        sb.append(text, 0, start).append(pageText).append(text, end, text.length());
+        return sb.toString();
+    }
+
+    /**
+     * @param index Index of page
+     * @return Index clamped to range of existing pages (determines boundaries up to page)
+     */
+    private int clampIndex(int index) {
+        index = Math.max(0, index);
+        while (index >= knownPages && !complete) {
+            determineNextPage();
+        }
+        return Math.min(index, knownPages - 1);
+    }
+
+    /**
+     * @param index Index of page (boundaries must have been determined)
+     * @return Position after page's last character
+     */
+    private int getPageEnd(int index) {
+        if (index + 1 < knownPages) {
+            return pageStarts[index + 1];
+        }
+        if (complete) {
+            return text.length();
+        }
+        determineNextPage();
+        return index + 1 < knownPages ? pageStarts[index + 1] : text.length();
+    }
+
+    /**
+     * Determines start of next page
+     */
+    private void determineNextPage() {
+        int start = pageStarts[knownPages - 1];
+        int maxEnd = start + pageSize;
+        if (maxEnd >= text.length()) {
+            complete = true;
+            return;
+        }
+        int lineBreak = text.lastIndexOf('\n', maxEnd - 1);
+        int end = lineBreak >= start ? lineBreak + 1 : maxEnd; // cut long lines
+        if (knownPages == pageStarts.length) {
+            pageStarts = Arrays.copyOf(pageStarts, pageStarts.length * 2);
+        }
+        pageStarts[knownPages++] = end;
+        complete = end >= text.length();
+    }
+}
@@ -0,0 +1,370 @@
+//
+// You received this file as part of Finroc
+// A framework for intelligent robot control
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.finroc.tools.finstruct.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.finroc.core.datatype.Timestamp;
+import org.rrlib.logging.Log;
+import org.rrlib.logging.LogLevel;
+import org.rrlib.serialization.BinaryInputStream;
+import org.rrlib.serialization.BinaryOutputStream;
+import org.rrlib.serialization.BinarySerializable;
+import org.rrlib.serialization.MemoryBuffer;
+
+/**
+ * @author Max Reichardt
+ *
+ * Records serialized port values (with their timestamps) for later playback.
+ *
+ * Each port has its own channel: a memory-mapped ring file of fixed size in the temp directory.
+ * When a ring file is full, the oldest values are overwritten - so memory and disk usage are bounded.
+ * Recording a value does not allocate any objects (values are serialized to a reused buffer and
+ * an index of all records is kept in preallocated primitive arrays).
+ * Files are deleted when the recorder is closed.
+ */
+public class PortValueRecorder {
+
+    /** Default size of each ring file (in bytes) */
+    public static final int DEFAULT_RING_SIZE = 4 * 1024 * 1024;
+
+    /** Size of record header: receive time (long), payload size (int) */
+    private static final int RECORD_HEADER_SIZE = 12;
+
+    /** Maximum number of records indexed per channel */
+    private static final int MAX_INDEX_SIZE = 65536;
+
+    /** Size of each ring file (in bytes) */
+    private final int ringSize;
+
+    /** Channels by key (e.g. qualified port link) */
+    private final HashMap<String, Channel> channels = new HashMap<String, Channel>();
+
+    /** Is recorder closed? */
+    private boolean closed;
+
+    /**
+     * @param ringSize Size of each ring file (in bytes)
+     */
+    public PortValueRecorder(int ringSize) {
+        this.ringSize = ringSize;
+    }
+
+    /**
+     * Obtains channel for port (creates it if it does not exist yet)
+     *
+     * @param key Key that identifies port (e.g. qualified link)
+     * @return Channel - null if recorder is closed or ring file could not be created
+     */
+    public synchronized Channel getChannel(String key) {
+        if (closed) {
+            return null;
+        }
+        Channel channel = channels.get(key);
+        if (channel == null) {
+            try {
+                channel = new Channel(ringSize);
+                channels.put(key, channel);
+            } catch (IOException e) {
+                Log.log(LogLevel.ERROR, this, "Cannot create ring file for recording '" + key + "': " + e.getMessage());
+            }
+        }
+        return channel;
+    }
+
+    /**
+     * @param key Key that identifies port (e.g. qualified link)
+     * @return Channel for port - null if no values have been recorded for this port
+     */
+    public synchronized Channel findChannel(String key) {
+        return channels.get(key);
+    }
+
+    /**
+     * @return Receive time (in ms) of oldest value in all channels - Long.MAX_VALUE if no values were recorded
+     */
+    public synchronized long getStartTime() {
+        long result = Long.MAX_VALUE;
+        for (Channel channel : channels.values()) {
+            result = Math.min(result, channel.getStartTime());
+        }
+        return result;
+    }
+
+    /**
+     * @return Receive time (in ms) of newest value in all channels - Long.MIN_VALUE if no values were recorded
+     */
+    public synchronized long getEndTime() {
+        long result = Long.MIN_VALUE;
+        for (Channel channel : channels.values()) {
+            result = Math.max(result, channel.getEndTime());
+        }
+        return result;
+    }
+
+    /**
+     * Stops recording and deletes all ring files
+     */
+    public void close() {
+        ArrayList<Channel> channelsToClose;
+        synchronized (this) {
+            closed = true;
+            channelsToClose = new ArrayList<Channel>(channels.values());
+            channels.clear();
+        }
+        for (Channel channel : channelsToClose) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Recorded values of a single port
+     */
+    public static class Channel {
+
+        /** Ring file */
+        private final File file;
+
+        /** Mapped ring file (null when channel is closed) */
+        private MappedByteBuffer ring;
+
+        /** Position in ring that next record is written to */
+        private int writePosition;
+
+        /** Index of records (ring buffer: receive time, offset and payload size of each record) */
+        private final long[] indexTimes;
+        private final int[] indexOffsets, indexSizes;
+
+        /** Position of oldest record in index and number of indexed records */
+        private int indexStart, indexCount;
+
+        /** Reused buffers for serialization */
+        private final MemoryBuffer serializationBuffer = new MemoryBuffer();
+        private final BinaryOutputStream outputStream = new BinaryOutputStream(serializationBuffer);
+        private byte[] transferBuffer = new byte[4096];
+
+        /** Buffer for timestamp of recorded value */
+        private final Timestamp timestampBuffer = new Timestamp();
+
+        /** Number of values that were too large to be recorded */
+        private int skippedValues;
+
+        private Channel(int ringSize) throws IOException {
+            file = File.createTempFile("finstruct-port-recording", ".ring");
+            file.deleteOnExit();
+            RandomAccessFile ringFile = new RandomAccessFile(file, "rw");
+            try {
+                ring = ringFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, ringSize);
+            } finally {
+                ringFile.close(); // mapping remains valid
+            }
+            int indexSize = Math.min(MAX_INDEX_SIZE, ringSize / RECORD_HEADER_SIZE);
+            indexTimes = new long[indexSize];
+            indexOffsets = new int[indexSize];
+            indexSizes = new int[indexSize];
+        }
+
+        /**
+         * Records value (called by thread that receives port data)
+         *
+         * @param receiveTime Time when value was received (in ms)
+         * @param timestamp Timestamp of value
+         * @param value Value to record
+         */
+        public synchronized void record(long receiveTime, Timestamp timestamp, BinarySerializable value) {
+            if (ring == null) {
+                return;
+            }
+            int size = serialize(timestamp, value);
+            int recordSize = RECORD_HEADER_SIZE + size;
+            if (recordSize > ring.capacity() / 4) {
+                skippedValues++;
+                return;
+            }
+
+            // Wrap around and remove records that are overwritten
+            if (writePosition + recordSize > ring.capacity()) {
+                while (indexCount > 0 && indexOffsets[indexStart] >= writePosition) {
+                    removeOldestRecord();
+                }
+                writePosition = 0;
+            }
+            while (indexCount > 0 && indexOffsets[indexStart] >= writePosition && indexOffsets[indexStart] < writePosition + recordSize) {
+                removeOldestRecord();
+            }
+            if (indexCount == indexTimes.length) {
+                removeOldestRecord();
+            }
+
+            ring.putLong(writePosition, receiveTime);
+            ring.putInt(writePosition + 8, size);
+            for (int i = 0; i < size; i++) {
+                ring.put(writePosition + RECORD_HEADER_SIZE + i, transferBuffer[i]);
+            }
+            int indexPosition = (indexStart + indexCount) % indexTimes.length;
+            indexTimes[indexPosition] = receiveTime;
+            indexOffsets[indexPosition] = writePosition;
+            indexSizes[indexPosition] = size;
+            indexCount++;
+            writePosition += recordSize;
+        }
+
+        /**
+         * Reads recorded value
+         *
+         * @param time Time (in ms)
+         * @param timestamp Object to store timestamp of value in
+         * @param value Object to deserialize value into
+         * @return True if a value was recorded at or before the specified time (otherwise, timestamp and value are not changed)
+         */
+        public synchronized boolean read(long time, Timestamp timestamp, BinarySerializable value) {
+            int record = findRecord(time);
+            if (record < 0 || ring == null) {
+                return false;
+            }
+            int offset = indexOffsets[record];
+            int size = indexSizes[record];
+            ensureTransferBufferSize(size);
+            for (int i = 0; i < size; i++) {
+                transferBuffer[i] = ring.get(offset + RECORD_HEADER_SIZE + i);
+            }
+            try {
+                MemoryBuffer buffer = new MemoryBuffer(size);
+                BinaryOutputStream bufferWriter = new BinaryOutputStream(buffer);
+                bufferWriter.write(transferBuffer, 0, size);
+                bufferWriter.close();
+                BinaryInputStream inputStream = new BinaryInputStream(buffer);
+                timestamp.deserialize(inputStream);
+                value.deserialize(inputStream);
+                inputStream.close();
+                return true;
+            } catch (Exception e) {
+                Log.log(LogLevel.ERROR, this, e);
+                return false;
+            }
+        }
+
+        /**
+         * @return Receive time (in ms) of oldest recorded value - Long.MAX_VALUE if channel is empty
+         */
+        public synchronized long getStartTime() {
+            return indexCount > 0 ? indexTimes[indexStart] : Long.MAX_VALUE;
+        }
+
+        /**
+         * @return Receive time (in ms) of newest recorded value - Long.MIN_VALUE if channel is empty
+         */
+        public synchronized long getEndTime() {
+            return indexCount > 0 ? indexTimes[(indexStart + indexCount - 1) % indexTimes.length] : Long.MIN_VALUE;
+        }
+
+        /**
+         * @return Number of recorded values currently stored
+         */
+        public synchronized int getRecordCount() {
+            return indexCount;
+        }
+
+        /**
+         * @return Number of values that were too large to be recorded
+         */
+        public synchronized int getSkippedValueCount() {
+            return skippedValues;
+        }
+
+        /**
+         * @return Buffer for timestamp of value to record (may only be used by thread that records values)
+         */
+        public Timestamp getTimestampBuffer() {
+            return timestampBuffer;
+        }
+
+        /**
+         * Closes channel and deletes ring file
+         */
+        private synchronized void close() {
+            ring = null;
+            indexCount = 0;
+            if (!file.delete()) {
+                Log.log(LogLevel.DEBUG, this, "Could not delete " + file + " (will be deleted on exit)");
+            }
+        }
+
+        /**
+         * Serializes timestamp and value to transfer buffer
+         *
+         * @return Number of bytes written to transfer buffer
+         */
+        private int serialize(Timestamp timestamp, BinarySerializable value) {
+            outputStream.reset();
+            timestamp.serialize(outputStream);
+            value.serialize(outputStream);
+            outputStream.close();
+            int size = serializationBuffer.getSize();
+            ensureTransferBufferSize(size);
+            serializationBuffer.getBuffer().get(0, transferBuffer, 0, size);
+            return size;
+        }
+
+        /**
+         * @param size Required size of transfer buffer (buffer is only reallocated if values grow)
+         */
+        private void ensureTransferBufferSize(int size) {
+            if (transferBuffer.length < size) {
+                transferBuffer = new byte[Math.max(size, transferBuffer.length * 2)];
+            }
+        }
+
+        /**
+         * Removes oldest record from index
+         */
+        private void removeOldestRecord() {
+            indexStart = (indexStart + 1) % indexTimes.length;
+            indexCount--;
+        }
+
+        /**
+         * @param time Time (in ms)
+         * @return Index position of newest record received at or before specified time - -1 if there is none
+         */
+        private int findRecord(long time) {
+            int low = 0, high = indexCount - 1, result = -1;
+            while (low <= high) { // binary search on ring buffer (times are ascending)
+                int middle = (low + high) >>> 1;
+                int position = (indexStart + middle) % indexTimes.length;
+                if (indexTimes[position] <= time) {
+                    result = position;
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return result;
+        }
+    }
+}
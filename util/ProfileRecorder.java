@@ -0,0 +1,192 @@
+//
+// You received this file as part of Finroc
+// A framework for intelligent robot control
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.finroc.tools.finstruct.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashSet;
+
+import org.finroc.core.remote.RemoteFrameworkElement;
+import org.finroc.core.remote.RemoteRuntime;
+import org.finroc.plugins.data_types.TaskProfile;
+
+/**
+ * @author Max Reichardt
+ *
+ * Records task profiles to disk - e.g. for soak tests lasting several hours.
+ *
+ * Each task profile is stored as a fixed-width binary record (see ProfileRecording for the format).
+ * Records are appended to memory-mapped segment files of constant size - so appending takes constant time.
+ * Task names are written to a separate text file whenever a new handle occurs.
+ * Recordings can be read with ProfileRecording.
+ */
+public class ProfileRecorder {
+
+    /** Base file of recording */
+    private final File file;
+
+    /** Currently mapped segment */
+    private MappedByteBuffer segment;
+
+    /** Index of current segment */
+    private int segmentIndex = -1;
+
+    /** Number of records in current segment */
+    private long segmentRecordCount;
+
+    /** Total number of recorded task profiles */
+    private long recordCount;
+
+    /** Writer for task names */
+    private final PrintWriter nameWriter;
+
+    /** Handles of tasks whose names have been written */
+    private final HashSet<Integer> knownHandles = new HashSet<Integer>();
+
+    /** Reference time stamps for time stamps in records */
+    private final long startTimeMillis = System.currentTimeMillis(), startTimeNanos = System.nanoTime();
+
+    /**
+     * @param file Base file of recording (segment files and name file are created next to it)
+     */
+    public ProfileRecorder(File file) throws IOException {
+        this.file = file;
+        for (int i = 0; ProfileRecording.getSegmentFile(file, i).exists(); i++) { // delete segments of previous recording (ProfileRecording would replay them)
+            if (!ProfileRecording.getSegmentFile(file, i).delete()) {
+                throw new IOException("Could not delete old segment file " + ProfileRecording.getSegmentFile(file, i));
+            }
+        }
+        nameWriter = new PrintWriter(new OutputStreamWriter(new FileOutputStream(ProfileRecording.getNameFile(file)), "UTF-8"));
+        nextSegment();
+    }
+
+    /**
+     * Appends all task profiles in list to recording (all with the same time stamp)
+     *
+     * @param profiles Task profiles
+     * @param runtime Runtime that profiles originate from (used to look up task names)
+     */
+    public synchronized void record(TaskProfile.List profiles, RemoteRuntime runtime) throws IOException {
+        if (segment == null) {
+            return; // closed
+        }
+        long timestamp = startTimeMillis * 1000 + (System.nanoTime() - startTimeNanos) / 1000;
+        for (int i = 0; i < profiles.size(); i++) {
+            TaskProfile profile = profiles.get(i);
+            if (segment.remaining() < ProfileRecording.RECORD_SIZE) {
+                nextSegment();
+            }
+            segment.putLong(timestamp);
+            segment.putInt(profile.handle);
+            segment.put((byte)profile.taskClassification.ordinal());
+            segment.put((byte)0);
+            segment.putShort((short)0);
+            segment.putInt(profile.schedulePosition);
+            segment.putLong(profile.lastExecutionDuration.getNanoseconds());
+            segment.putLong(profile.averageExecutionDuration.getNanoseconds());
+            segment.putLong(profile.maxExecutionDuration.getNanoseconds());
+            segment.putLong(profile.totalExecutionDuration.getNanoseconds());
+            segment.putInt(0);
+            segmentRecordCount++;
+            recordCount++;
+            segment.putLong(ProfileRecording.RECORD_COUNT_OFFSET, segmentRecordCount);
+
+            if (knownHandles.add(profile.handle)) {
+                nameWriter.println(profile.handle + "\t" + getTaskName(runtime, profile.handle));
+                nameWriter.flush();
+            }
+        }
+    }
+
+    /**
+     * @return Total number of recorded task profiles
+     */
+    public synchronized long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * @return Base file of recording
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Stops recording and flushes all data to disk
+     */
+    public synchronized void close() {
+        if (segment != null) {
+            segment.force();
+            segment = null;
+        }
+        nameWriter.close();
+    }
+
+    /**
+     * @param handle Handle of task
+     * @param taskClassification Classification of task
+     * @return Key that identifies task (unique combination of handle and task classification)
+     */
+    public static long getTaskKey(int handle, TaskProfile.TaskClassification taskClassification) {
+        return (((long)handle) << 8) | taskClassification.ordinal();
+    }
+
+    /**
+     * @param runtime Runtime that task belongs to
+     * @param handle Handle of task
+     * @return Name of task (qualified link of element - or of its parent, if element is an interface)
+     */
+    public static String getTaskName(RemoteRuntime runtime, int handle) {
+        RemoteFrameworkElement element = runtime != null ? runtime.elementLookup.get(handle) : null;
+        if (element != null && element.isInterface()) {
+            element = (RemoteFrameworkElement)element.getParent();
+        }
+        return element == null ? "Unknown" : element.getQualifiedLink();
+    }
+
+    /**
+     * Finishes current segment and maps the next one
+     */
+    private void nextSegment() throws IOException {
+        if (segment != null) {
+            segment.force();
+        }
+        segmentIndex++;
+        RandomAccessFile segmentFile = new RandomAccessFile(ProfileRecording.getSegmentFile(file, segmentIndex), "rw");
+        try {
+            segment = segmentFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, ProfileRecording.SEGMENT_SIZE);
+        } finally {
+            segmentFile.close(); // mapping remains valid
+        }
+        segmentRecordCount = 0;
+        segment.putInt(ProfileRecording.MAGIC);
+        segment.putInt(ProfileRecording.VERSION);
+        segment.putLong(0);
+    }
+}
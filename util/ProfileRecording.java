@@ -0,0 +1,327 @@
+//
+// You received this file as part of Finroc
+// A framework for intelligent robot control
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.finroc.tools.finstruct.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+import org.finroc.plugins.data_types.TaskProfile.TaskClassification;
+
+/**
+ * @author Max Reichardt
+ *
+ * Task profile recording created by ProfileRecorder.
+ *
+ * A recording consists of segment files (<file>.<index>) and a name file (<file>.names).
+ * Each segment starts with a header (magic number, version, number of records)
+ * followed by fixed-width records:
+ *
+ *   timestamp (long, microseconds since epoch), handle (int), task classification (byte), 3 reserved bytes,
+ *   schedule position (int), last/average/max/total execution duration (4 x long, nanoseconds), 4 reserved bytes
+ */
+public class ProfileRecording {
+
+    /** Magic number at start of each segment */
+    static final int MAGIC = 0x46505246; // "FPRF"
+
+    /** Format version */
+    static final int VERSION = 1;
+
+    /** Size of segment header */
+    static final int HEADER_SIZE = 16;
+
+    /** Offset of record count in segment header */
+    static final int RECORD_COUNT_OFFSET = 8;
+
+    /** Size of a single record */
+    static final int RECORD_SIZE = 56;
+
+    /** Size of each segment file (header + records) */
+    static final int SEGMENT_SIZE = HEADER_SIZE + (64 * 1024 * 1024 / RECORD_SIZE) * RECORD_SIZE;
+
+    /** Records per segment */
+    static final int RECORDS_PER_SEGMENT = (SEGMENT_SIZE - HEADER_SIZE) / RECORD_SIZE;
+
+    /** Single task profile record */
+    public static class Record {
+
+        /** Time stamp (in microseconds since epoch) */
+        public long timestamp;
+
+        /** Handle of task */
+        public int handle;
+
+        /** Task classification */
+        public TaskClassification taskClassification;
+
+        /** Position of task in schedule */
+        public int schedulePosition;
+
+        /** Execution durations (in nanoseconds) */
+        public long lastExecutionDuration, averageExecutionDuration, maxExecutionDuration, totalExecutionDuration;
+    }
+
+    /** Summary of a single task in recording (see summarize()) */
+    public static class TaskSummary {
+
+        /** Last record of task */
+        public final Record lastRecord = new Record();
+
+        /** Last execution durations of all records of task (in nanoseconds) - for percentiles */
+        public final LatencyHistogram durations = new LatencyHistogram();
+
+        /** Most recent last execution durations of task */
+        public final DurationHistory latestDurations = new DurationHistory();
+
+        /** Index of last record of task */
+        private long lastIndex;
+    }
+
+    /** Receives progress of summarize() and exportCsv() */
+    public interface ProgressListener {
+
+        /**
+         * @param processedRecords Number of records processed so far
+         * @return False if operation should be cancelled
+         */
+        boolean progress(long processedRecords);
+    }
+
+    /** Interval (in records) in which progress is reported */
+    private static final int PROGRESS_INTERVAL = 100000;
+
+    /** Mapped segments */
+    private final ArrayList<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+
+    /** Index of first record in each segment (plus total number of records as last element) */
+    private long[] segmentStarts;
+
+    /** Total number of records */
+    private long recordCount;
+
+    /** Task names by handle */
+    private final HashMap<Integer, String> names = new HashMap<Integer, String>();
+
+    /**
+     * Opens recording
+     *
+     * @param file Base file of recording (as passed to ProfileRecorder)
+     */
+    public ProfileRecording(File file) throws IOException {
+        ArrayList<Long> segmentCounts = new ArrayList<Long>();
+        for (int i = 0; getSegmentFile(file, i).exists(); i++) {
+            RandomAccessFile segmentFile = new RandomAccessFile(getSegmentFile(file, i), "r");
+            try {
+                MappedByteBuffer segment = segmentFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, segmentFile.length());
+                if (segment.getInt(0) != MAGIC || segment.getInt(4) != VERSION) {
+                    throw new IOException("File " + getSegmentFile(file, i) + " is not a task profile recording (or has an unsupported version)");
+                }
+                long count = segment.getLong(RECORD_COUNT_OFFSET);
+                segments.add(segment);
+                segmentCounts.add(count);
+                recordCount += count;
+            } finally {
+                segmentFile.close();
+            }
+        }
+        if (segments.size() == 0) {
+            throw new IOException("No task profile recording found at " + file);
+        }
+        segmentStarts = new long[segments.size() + 1];
+        for (int i = 0; i < segments.size(); i++) {
+            segmentStarts[i + 1] = segmentStarts[i] + segmentCounts.get(i);
+        }
+
+        File nameFile = getNameFile(file);
+        if (nameFile.exists()) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(nameFile), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int tab = line.indexOf('\t');
+                    if (tab > 0) {
+                        names.put(Integer.parseInt(line.substring(0, tab)), line.substring(tab + 1));
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * @return Total number of records
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Reads record
+     *
+     * @param index Index of record (0 to getRecordCount() - 1)
+     * @param record Object to store record data in
+     */
+    public void read(long index, Record record) {
+        int segmentIndex = Arrays.binarySearch(segmentStarts, index);
+        segmentIndex = segmentIndex >= 0 ? segmentIndex : (-segmentIndex - 2);
+        while (segmentStarts[segmentIndex + 1] == segmentStarts[segmentIndex]) { // skip empty segments
+            segmentIndex++;
+        }
+        MappedByteBuffer segment = segments.get(segmentIndex);
+        int offset = HEADER_SIZE + ((int)(index - segmentStarts[segmentIndex])) * RECORD_SIZE;
+        record.timestamp = segment.getLong(offset);
+        record.handle = segment.getInt(offset + 8);
+        record.taskClassification = TaskClassification.values()[segment.get(offset + 12)];
+        record.schedulePosition = segment.getInt(offset + 16);
+        record.lastExecutionDuration = segment.getLong(offset + 20);
+        record.averageExecutionDuration = segment.getLong(offset + 28);
+        record.maxExecutionDuration = segment.getLong(offset + 36);
+        record.totalExecutionDuration = segment.getLong(offset + 44);
+    }
+
+    /**
+     * Scans all records once and summarizes them per task
+     *
+     * @param listener Receives progress (may be null)
+     * @return Summaries by task key (see ProfileRecorder.getTaskKey()) in order of first occurrence - null if cancelled
+     */
+    public LinkedHashMap<Long, TaskSummary> summarize(ProgressListener listener) {
+        LinkedHashMap<Long, TaskSummary> result = new LinkedHashMap<Long, TaskSummary>();
+        Record record = new Record();
+        for (long i = 0; i < recordCount; i++) {
+            if (listener != null && i % PROGRESS_INTERVAL == 0 && (!listener.progress(i))) {
+                return null;
+            }
+            read(i, record);
+            long key = ProfileRecorder.getTaskKey(record.handle, record.taskClassification);
+            TaskSummary summary = result.get(key);
+            if (summary == null) {
+                summary = new TaskSummary();
+                result.put(key, summary);
+            }
+            summary.durations.record(record.lastExecutionDuration);
+            summary.latestDurations.add(record.lastExecutionDuration);
+            summary.lastIndex = i;
+        }
+        for (TaskSummary summary : result.values()) {
+            read(summary.lastIndex, summary.lastRecord);
+        }
+        return result;
+    }
+
+    /**
+     * Releases mapped segments.
+     * (Java cannot unmap files explicitly - mappings are released when buffers are garbage collected)
+     */
+    public void close() {
+        segments.clear();
+        segmentStarts = new long[] { 0 };
+        recordCount = 0;
+    }
+
+    /**
+     * @param handle Handle of task
+     * @return Name of task (qualified link) - "Unknown" if name is not known
+     */
+    public String getName(int handle) {
+        String name = names.get(handle);
+        return name == null ? "Unknown" : name;
+    }
+
+    /**
+     * Exports recording to CSV file (one line per record)
+     *
+     * @param csvFile File to write to
+     * @param listener Receives progress (may be null)
+     * @return False if export was cancelled (incomplete file is deleted)
+     */
+    public boolean exportCsv(File csvFile, ProgressListener listener) throws IOException {
+        PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(csvFile), "UTF-8")));
+        try {
+            writer.println("timestamp_us,handle,name,classification,schedule_position,last_ns,average_ns,max_ns,total_ns");
+            Record record = new Record();
+            for (long i = 0; i < recordCount; i++) {
+                if (listener != null && i % PROGRESS_INTERVAL == 0 && (!listener.progress(i))) {
+                    writer.close();
+                    csvFile.delete();
+                    return false;
+                }
+                read(i, record);
+                writer.print(record.timestamp);
+                writer.print(',');
+                writer.print(record.handle);
+                writer.print(",\"");
+                writer.print(getName(record.handle).replace("\"", "\"\""));
+                writer.print("\",");
+                writer.print(record.taskClassification.name());
+                writer.print(',');
+                writer.print(record.schedulePosition);
+                writer.print(',');
+                writer.print(record.lastExecutionDuration);
+                writer.print(',');
+                writer.print(record.averageExecutionDuration);
+                writer.print(',');
+                writer.print(record.maxExecutionDuration);
+                writer.print(',');
+                writer.println(record.totalExecutionDuration);
+            }
+            if (writer.checkError()) {
+                throw new IOException("Error writing " + csvFile);
+            }
+        } finally {
+            writer.close();
+        }
+        return true;
+    }
+
+    /**
+     * @param file Base file of recording
+     * @param index Index of segment
+     * @return Segment file with specified index
+     */
+    static File getSegmentFile(File file, int index) {
+        return new File(file.getPath() + "." + index);
+    }
+
+    /**
+     * @param file Base file of recording
+     * @return File with task names
+     */
+    static File getNameFile(File file) {
+        return new File(file.getPath() + ".names");
+    }
+}
@@ -0,0 +1,229 @@
+//
+// You received this file as part of Finroc
+// A framework for intelligent robot control
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.finroc.tools.finstruct.util;
+
+/**
+ * @author Max Reichardt
+ *
+ * Numeric time series in a primitive ring buffer.
+ *
+ * When the buffer is full, the oldest samples are overwritten.
+ * For display, samples can be downsampled to screen resolution using
+ * Largest-Triangle-Three-Buckets (Steinarsson, 2013), which preserves the visual shape
+ * (peaks in particular) of a series - so even millions of samples can be drawn quickly.
+ */
+public class TimeSeries {
+
+    /** Default maximum number of samples */
+    public static final int DEFAULT_CAPACITY = 1 << 20;
+
+    /** Initial size of arrays (arrays grow up to capacity) */
+    private static final int INITIAL_SIZE = 4096;
+
+    /** Maximum number of samples */
+    private final int capacity;
+
+    /** Sample times (ascending) and values (ring buffers) */
+    private long[] times;
+    private double[] values;
+
+    /** Position of oldest sample and number of samples */
+    private int start, size;
+
+    /**
+     * @param capacity Maximum number of samples
+     */
+    public TimeSeries(int capacity) {
+        this.capacity = capacity;
+        times = new long[Math.min(capacity, INITIAL_SIZE)];
+        values = new double[times.length];
+    }
+
+    /**
+     * Adds sample
+     *
+     * @param time Time of sample (in ms). Samples older than the newest sample are added with the newest sample's time.
+     * @param value Value of sample
+     */
+    public synchronized void add(long time, double value) {
+        if (size > 0) {
+            time = Math.max(time, getTime(size - 1));
+        }
+        if (size == times.length && size < capacity) {
+            grow();
+        }
+        if (size == times.length) {
+            times[start] = time; // overwrite oldest sample
+            values[start] = value;
+            start = (start + 1) % times.length;
+        } else {
+            int position = (start + size) % times.length;
+            times[position] = time;
+            values[position] = value;
+            size++;
+        }
+    }
+
+    /**
+     * Removes all samples
+     */
+    public synchronized void clear() {
+        start = 0;
+        size = 0;
+    }
+
+    /**
+     * @return Number of samples
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return Time of newest sample - Long.MIN_VALUE if series is empty
+     */
+    public synchronized long getEndTime() {
+        return size > 0 ? getTime(size - 1) : Long.MIN_VALUE;
+    }
+
+    /**
+     * Downsamples samples in time range using Largest-Triangle-Three-Buckets
+     *
+     * @param startTime Start of time range (in ms)
+     * @param endTime End of time range (in ms)
+     * @param threshold Maximum number of samples to return (e.g. width of plot in pixels)
+     * @param outTimes Array to store times of selected samples in (length >= threshold)
+     * @param outValues Array to store values of selected samples in (length >= threshold)
+     * @return Number of samples stored in output arrays
+     */
+    public synchronized int downsample(long startTime, long endTime, int threshold, long[] outTimes, double[] outValues) {
+        // Include one sample before and after range, so that lines continue to the borders
+        int first = Math.max(0, findFirst(startTime) - 1);
+        int end = Math.min(size, findFirst(endTime + 1) + 1);
+        int count = end - first;
+        if (count <= 0) {
+            return 0;
+        }
+        if (count <= threshold || threshold < 3) {
+            int n = Math.min(count, Math.max(threshold, 0));
+            for (int i = 0; i < n; i++) {
+                outTimes[i] = getTime(first + i);
+                outValues[i] = getValue(first + i);
+            }
+            return n;
+        }
+
+        // Always keep first and last sample. Remaining samples are split into threshold - 2 buckets.
+        double bucketSize = (double)(count - 2) / (threshold - 2);
+        int selected = first;
+        int n = 0;
+        outTimes[n] = getTime(selected);
+        outValues[n++] = getValue(selected);
+        for (int bucket = 0; bucket < threshold - 2; bucket++) {
+
+            // Average of next bucket (third vertex of triangle)
+            int nextStart = first + 1 + (int)((bucket + 1) * bucketSize);
+            int nextEnd = Math.min(first + 1 + (int)((bucket + 2) * bucketSize), end);
+            double avgTime = 0, avgValue = 0;
+            if (nextStart >= end - 1) {
+                avgTime = getTime(end - 1);
+                avgValue = getValue(end - 1);
+            } else {
+                for (int i = nextStart; i < nextEnd; i++) {
+                    avgTime += getTime(i);
+                    avgValue += getValue(i);
+                }
+                avgTime /= (nextEnd - nextStart);
+                avgValue /= (nextEnd - nextStart);
+            }
+
+            // Select sample in current bucket that forms largest triangle with previously selected sample and average
+            int bucketStart = first + 1 + (int)(bucket * bucketSize);
+            int bucketEnd = Math.min(first + 1 + (int)((bucket + 1) * bucketSize), end - 1);
+            double selectedTime = getTime(selected), selectedValue = getValue(selected);
+            double maxArea = -1;
+            int maxIndex = bucketStart;
+            for (int i = bucketStart; i < bucketEnd; i++) {
+                double area = Math.abs((selectedTime - avgTime) * (getValue(i) - selectedValue) - (selectedTime - getTime(i)) * (avgValue - selectedValue));
+                if (area > maxArea) {
+                    maxArea = area;
+                    maxIndex = i;
+                }
+            }
+            selected = maxIndex;
+            outTimes[n] = getTime(selected);
+            outValues[n++] = getValue(selected);
+        }
+        outTimes[n] = getTime(end - 1);
+        outValues[n++] = getValue(end - 1);
+        return n;
+    }
+
+    /**
+     * @param index Index of sample (0 is oldest)
+     * @return Time of sample
+     */
+    private long getTime(int index) {
+        return times[(start + index) % times.length];
+    }
+
+    /**
+     * @param index Index of sample (0 is oldest)
+     * @return Value of sample
+     */
+    private double getValue(int index) {
+        return values[(start + index) % times.length];
+    }
+
+    /**
+     * @param time Time (in ms)
+     * @return Index of first sample at or after specified time (size if there is none)
+     */
+    private int findFirst(long time) {
+        int low = 0, high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (getTime(middle) < time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Doubles size of arrays (up to capacity)
+     */
+    private void grow() {
+        int newSize = Math.min(capacity, times.length * 2);
+        long[] newTimes = new long[newSize];
+        double[] newValues = new double[newSize];
+        for (int i = 0; i < size; i++) {
+            newTimes[i] = getTime(i);
+            newValues[i] = getValue(i);
+        }
+        times = newTimes;
+        values = newValues;
+        start = 0;
+    }
+}
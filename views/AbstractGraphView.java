@@ -50,8 +50,10 @@ import org.finroc.core.remote.RemoteFrameworkElement;
 import org.finroc.core.remote.RemotePort;
 import org.finroc.core.remote.RemoteRuntime;
 import org.finroc.plugins.data_types.StdStringList;
+import org.finroc.tools.finstruct.Finstruct;
 import org.finroc.tools.finstruct.FinstructConnectionPanel;
 import org.finroc.tools.finstruct.FinstructView;
+import org.finroc.tools.finstruct.TagIndex;
 import org.finroc.tools.gui.util.gui.IconManager;
 import org.finroc.tools.gui.util.gui.MToolBar;
 import org.finroc.tools.gui.util.propertyeditor.gui.PropertiesDialog;
@@ -382,9 +384,10 @@ public abstract class AbstractGraphView<V extends AbstractGraphView.Vertex, E ex
         }
 
         // mark groups
+        TagIndex tagIndex = Finstruct.getInstance().getIoInterface().getTagIndex();
         for (final V v : result) {
             // we have a group, if framework element is tagged as such
-            if (v.getFinrocElement() != null && v.getFinrocElement().isTagged("group")) {
+            if (v.getFinrocElement() != null && tagIndex.isTagged(v.getFinrocElement(), "group")) {
                 v.setGroup(true);
             }
         }
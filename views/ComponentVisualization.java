@@ -35,16 +35,20 @@ import java.util.ArrayList;
 import javax.swing.ImageIcon;
 import javax.swing.JMenuBar;
 import javax.swing.JToggleButton;
+import javax.swing.SwingUtilities;
 
 import org.finroc.core.port.AbstractPort;
 import org.finroc.core.port.PortListener;
+import org.finroc.core.port.ThreadLocalCache;
 import org.finroc.core.port.std.PortBase;
 import org.finroc.core.remote.ModelNode;
 import org.finroc.core.remote.RemoteFrameworkElement;
 import org.finroc.core.remote.RemotePort;
 import org.finroc.plugins.data_types.Paintable;
+import org.finroc.tools.finstruct.Finstruct;
 import org.finroc.tools.finstruct.FinstructView;
 import org.finroc.tools.finstruct.propertyeditor.ConnectingPortAccessor;
+import org.finroc.tools.finstruct.propertyeditor.UpdateThrottle;
 import org.finroc.tools.gui.commons.fastdraw.BufferedImageRGB;
 import org.finroc.tools.gui.util.gui.IconManager;
 import org.finroc.tools.gui.util.gui.MAction;
@@ -99,6 +103,15 @@ public class ComponentVisualization extends Ib2cViewClassic {
     /** Maximum Y resolution for each level of detail */
     private final static int[] MAX_Y_RESOLUTION = { 90, 180, Integer.MAX_VALUE };
 
+    /** Maximum memory (in bytes) used for prerendered visualizations */
+    private final static long MAX_IMAGE_BUFFER_MEMORY = 64 * 1024 * 1024;
+
+    /** Image buffers for prerendered visualizations (shared by all vertices) */
+    private final ImageBufferPool imageBufferPool = new ImageBufferPool(MAX_IMAGE_BUFFER_MEMORY);
+
+    /** Temporary rectangle for visibility checks in updateView() */
+    private final Rectangle tempVisualizationBounds = new Rectangle();
+
     public ComponentVisualization() {
         super.createBehaviorEdges = false;
         if (true) {
@@ -130,6 +143,7 @@ public class ComponentVisualization extends Ib2cViewClassic {
 
     @Override
     protected void destroy() {
+        super.destroy();
         clear();
     }
 
@@ -139,6 +153,7 @@ public class ComponentVisualization extends Ib2cViewClassic {
             clear();
         }
         super.relayout(keepVerticesAndEdges);
+        Log.log(LogLevel.DEBUG_VERBOSE_1, this, imageBufferPool.toString());
     }
 
     @Override
@@ -165,16 +180,7 @@ public class ComponentVisualization extends Ib2cViewClassic {
      * @return True if framework element has real-time visualization
      */
     private static boolean hasRealtimeVisualization(ModelNode fe) {
-        if (fe instanceof RemoteFrameworkElement) {
-            for (RemoteFrameworkElement subElement : fe.getFrameworkElementsBelow(null)) {
-                for (String tag : subElement.getTags()) {
-                    if (tag.startsWith("visualization-")) {
-                        return true;
-                    }
-                }
-            }
-        }
-        return false;
+        return (fe instanceof RemoteFrameworkElement) && Finstruct.getInstance().getIoInterface().getTagIndex().hasTagPrefixBelow(fe, "visualization-");
     }
 
     /**
@@ -183,21 +189,7 @@ public class ComponentVisualization extends Ib2cViewClassic {
      * @return Port with one of these tags. If multiple ports have an appropriate tag, one with the lowest rank tag is returned.
      */
     static RemotePort findVisualizationPort(RemoteFrameworkElement fe, final String[] tags) {
-        RemotePort result = null;
-        int bestResultRank = Integer.MAX_VALUE;
-        for (RemoteFrameworkElement subElement : fe.getFrameworkElementsBelow(null)) {
-            if (subElement instanceof RemotePort) {
-                for (String tag : subElement.getTags()) {
-                    for (int i = 0; i < tags.length; i++) {
-                        if (i < bestResultRank && tags[i].equals(tag)) {
-                            result = (RemotePort)subElement;
-                            bestResultRank = i;
-                        }
-                    }
-                }
-            }
-        }
-        return result;
+        return (RemotePort)Finstruct.getInstance().getIoInterface().getTagIndex().findElementBelow(fe, tags, RemotePort.class);
     }
 
     @Override
@@ -217,8 +209,8 @@ public class ComponentVisualization extends Ib2cViewClassic {
     @Override
     public void setZoom(double zoom) {
         int oldHeight = visualizationHeight;
+        double newZoom = zoom;
         if (zoomLabelsButton.isSelected()) {
-            super.setZoom(zoom);
             visualizationZoom = 1.0f;
             visualizationHeight = DEFAULT_VISUALIZATION_HEIGHT;
             visualizationWidth = DEFAULT_VISUALIZATION_WIDTH;
@@ -227,29 +219,49 @@ public class ComponentVisualization extends Ib2cViewClassic {
                 visualizationZoom *= zoom;
             }
             if (visualizationZoom <= 1.0f || zoom == 1.0f) {
-                super.setZoom(zoom);
                 visualizationZoom = 1.0f;
                 visualizationHeight = DEFAULT_VISUALIZATION_HEIGHT;
                 visualizationWidth = DEFAULT_VISUALIZATION_WIDTH;
             } else {
-                super.setZoom(1.0);
+                newZoom = 1.0;
                 visualizationHeight = (int)(DEFAULT_VISUALIZATION_HEIGHT * visualizationZoom);
                 visualizationWidth = (int)(DEFAULT_VISUALIZATION_WIDTH * visualizationZoom);
             }
         }
-        if (oldHeight != visualizationHeight) {
-            relayout(false);
+
+        // Vertices and edges are kept - layout is scaled by the visualization zoom factor
+        if (((float)newZoom) != getZoom()) {
+            super.setZoom(newZoom);
+        } else if (oldHeight != visualizationHeight) {
+            rescaleLayout(((double)visualizationHeight) / oldHeight);
+        }
+        for (AnimatedVertex vertex : animatedVertices) {
+            vertex.updateLevelOfDetail();
         }
     }
 
+    /**
+     * @return Level of detail appropriate for current zoom level
+     */
+    private LevelOfDetail getLevelOfDetail() {
+        int yResolution = (int)((getZoom() * visualizationZoom) * DEFAULT_VISUALIZATION_HEIGHT);
+        for (int i = 0; i <= 2; i++) {
+            if (yResolution <= MAX_Y_RESOLUTION[i]) {
+                return LevelOfDetail.values()[i];
+            }
+        }
+        return LevelOfDetail.Low;
+    }
+
 
 
     @Override
     protected void updateView() {
         super.updateView();
 
+        Rectangle visibleRect = getVisibleRect();
         for (AnimatedVertex vertex : animatedVertices) {
-            vertex.updateVertex();
+            vertex.updateVertex(visibleRect);
         }
     }
 
@@ -264,8 +276,14 @@ public class ComponentVisualization extends Ib2cViewClassic {
         /** ports used to get behaviour data via push */
         private ConnectingPortAccessor<?> port;
 
-        /** Array with prerendered image buffers: currently triple-buffering */
-        private BufferedImageRGB[] imageBuffers = new BufferedImageRGB[3];
+        /** Remote port that port above is connected to */
+        private RemotePort remotePort;
+
+        /** Level of detail that port above was selected for */
+        private LevelOfDetail levelOfDetail;
+
+        /** Array with prerendered image buffers leased from pool (entries are null if not leased): currently triple-buffering */
+        private final BufferedImageRGB[] imageBuffers = new BufferedImageRGB[3];
 
         /** Index of next image buffer to use */
         private int nextBufferIndex = 0;
@@ -276,41 +294,144 @@ public class ComponentVisualization extends Ib2cViewClassic {
         /** Embedded view */
         private FinstructView embeddedView;
 
+        /** Is visualization of vertex currently visible? (only visible vertices hold image buffers) */
+        private volatile boolean visible = true;
+
+        /** Limits rendering to display rate (values arriving faster are skipped before rendering) */
+        private final UpdateThrottle throttle = UpdateThrottle.maxRate(UpdateThrottle.VISUALIZATION_RATE);
+
         public AnimatedVertex(RemoteFrameworkElement fe) {
             super(fe);
+            throttle.setTrailingUpdate(new Runnable() {
+                @Override
+                public void run() {
+                    ThreadLocalCache.get();
+                    synchronized (AnimatedVertex.this) {
+                        if (port != null) {
+                            showValue(port.getAutoLocked());
+                        }
+                    }
+                    ThreadLocalCache.getFast().releaseAllLocks();
+                }
+            });
+
+            animatedVertices.add(this);
+            updateLevelOfDetail();
+        }
 
-            // Determine appropriate level of detail
-            LevelOfDetail levelOfDetail = LevelOfDetail.Low;
-            int yResolution = (int)((getZoom() * visualizationZoom) * DEFAULT_VISUALIZATION_HEIGHT);
-            for (int i = 0; i <= 2; i++) {
-                if (yResolution <= MAX_Y_RESOLUTION[i]) {
-                    levelOfDetail = LevelOfDetail.values()[i];
-                    break;
+        /**
+         * Determines appropriate level of detail for current zoom level.
+         * If it changed, port subscription is retargeted to the visualization port for the new level of detail.
+         */
+        public void updateLevelOfDetail() {
+            LevelOfDetail newLevelOfDetail = getLevelOfDetail();
+            if (embeddedView != null || newLevelOfDetail == levelOfDetail) {
+                return;
+            }
+            levelOfDetail = newLevelOfDetail;
+            RemotePort newRemotePort = findVisualizationPort((RemoteFrameworkElement)getModelElement(), PORT_TAGS[levelOfDetail.ordinal()]);
+            if (newRemotePort == remotePort) {
+                return;
+            }
+
+            // Create port for visualization data access
+            ConnectingPortAccessor<?> oldPort;
+            synchronized (this) {
+                oldPort = port;
+                remotePort = newRemotePort;
+                currentBuffer = null;
+                port = null;
+                if (remotePort != null) {
+                    port = new ConnectingPortAccessor(remotePort, "");
+                    ((PortBase)port.getPort()).addPortListenerRaw(this);
+                    port.init();
+                    port.setAutoUpdate(true);
                 }
             }
 
-            // Create port for visualization data access */
-            RemotePort remotePort = findVisualizationPort(fe, PORT_TAGS[levelOfDetail.ordinal()]);
+            // Delete old port without holding lock: port threads might wait for lock in portChanged() (values from old port are ignored)
+            if (oldPort != null) {
+                oldPort.delete();
+            }
+        }
 
+        /**
+         * Called regularly by updateView()
+         *
+         * @param visibleRect Currently visible part of view (in view coordinates)
+         */
+        public void updateVertex(Rectangle visibleRect) {
+            if (embeddedView != null) {
+                repaint();
+                return;
+            }
+
+            // Return image buffers to pool if vertex is not visible
+            float zoom = getZoom();
+            tempVisualizationBounds.setBounds((int)(rect.x * zoom), (int)((rect.y + rect.height - visualizationHeight) * zoom), (int)((rect.width + 1) * zoom) + 1, (int)((visualizationHeight + 1) * zoom) + 1);
+            boolean nowVisible = visibleRect.intersects(tempVisualizationBounds);
+            if (visible && (!nowVisible)) {
+                releaseImageBuffers();
+            }
+            visible = nowVisible;
+        }
+
+        /**
+         * Returns all image buffers to pool
+         */
+        private synchronized void releaseImageBuffers() {
+            currentBuffer = null;
             for (int i = 0; i < imageBuffers.length; i++) {
-                imageBuffers[i] = new BufferedImageRGB();
+                releaseImageBuffer(imageBuffers[i]);
+                imageBuffers[i] = null;
             }
+        }
 
-            animatedVertices.add(this);
-            if (remotePort != null) {
-                port = new ConnectingPortAccessor(remotePort, "");
-                ((PortBase)port.getPort()).addPortListenerRaw(this);
-                port.init();
-                port.setAutoUpdate(true);
+        /**
+         * Returns image buffer to pool on AWT thread.
+         * paint() reads and draws currentBuffer without lock on the AWT thread - so a buffer released by another thread
+         * might still be drawn while another vertex already renders to it. Releasing on the AWT thread after currentBuffer
+         * was swapped ensures that no paint references the buffer anymore.
+         *
+         * @param buffer Buffer to return (null is ignored)
+         */
+        private void releaseImageBuffer(final BufferedImageRGB buffer) {
+            if (buffer == null) {
                 return;
             }
-
+            if (SwingUtilities.isEventDispatchThread()) {
+                imageBufferPool.release(buffer);
+            } else {
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        imageBufferPool.release(buffer);
+                    }
+                });
+            }
         }
 
-        public void updateVertex() {
-            if (embeddedView != null) {
-                repaint();
+        /**
+         * @param width Required width
+         * @param height Required height
+         * @return Next image buffer to render visualization to (leased from pool if necessary). Null if pool has no buffer available.
+         */
+        private BufferedImageRGB nextImageBuffer(int width, int height) {
+            for (int i = 0; i < imageBuffers.length; i++) {
+                int index = (nextBufferIndex + i) % imageBuffers.length;
+                if (!ImageBufferPool.fits(imageBuffers[index], width, height)) {
+                    if (imageBuffers[index] != null && imageBuffers[index] == currentBuffer) {
+                        currentBuffer = null;
+                    }
+                    releaseImageBuffer(imageBuffers[index]);
+                    imageBuffers[index] = imageBufferPool.lease(width, height);
+                }
+                if (imageBuffers[index] != null) {
+                    nextBufferIndex = (index + 1) % imageBuffers.length;
+                    return imageBuffers[index];
+                }
             }
+            return null;
         }
 
         public AnimatedVertex(RemoteFrameworkElement fe, FinstructView view) {
@@ -321,9 +442,15 @@ public class ComponentVisualization extends Ib2cViewClassic {
         }
 
         public void delete() {
-            if (port != null) {
-                port.delete();
+            ConnectingPortAccessor<?> oldPort;
+            synchronized (this) {
+                oldPort = port;
+                port = null;
             }
+            if (oldPort != null) {
+                oldPort.delete(); // without holding lock (see updateLevelOfDetail())
+            }
+            releaseImageBuffers();
             if (embeddedView != null) {
                 embeddedView.destroyEmbeddedView();
             }
@@ -334,6 +461,11 @@ public class ComponentVisualization extends Ib2cViewClassic {
 
             // increase height, so that we have space for upper and lower bar
             gvVertex.setSize(Math.max(gvVertex.getWidth(), visualizationWidth), gvVertex.getHeight() + visualizationHeight);
+
+            // prerendered images might have wrong size now - so they are recycled
+            if (imageBuffers != null) { // reset() is also called by super constructor
+                releaseImageBuffers();
+            }
         }
 
         @Override
@@ -403,39 +535,24 @@ public class ComponentVisualization extends Ib2cViewClassic {
                     g2d.setClip(oldClip);
                 }
             } else if (doingPdfExport()) {
-                Object visualizationData = port.getAutoLocked();
-                if (visualizationData instanceof Paintable) {
-                    Paintable paintable = (Paintable)visualizationData;
-
-                    // scale to fit etc.
-                    Rectangle2D originalBounds = paintable.getBounds();
-                    if (originalBounds != null) {
-                        Rectangle2D fitTo = new Rectangle2D.Double(0, 0, rect.getWidth() - 1, visualizationHeight);
-                        AffineTransform oldTransform = g2d.getTransform();
-                        Shape oldClip = g2d.getClip();
-
-                        double factorX = (fitTo.getWidth()) / (originalBounds.getWidth());
-                        double factorY = (fitTo.getHeight()) / (originalBounds.getHeight());
-                        double factor = Math.min(factorX, factorY);
-
-                        g2d.translate(rect.x + 0.5, rect.y + rect.height - visualizationHeight);
-                        g2d.setClip(0, 0, rect.width - 1, visualizationHeight);
-                        g2d.translate(Math.max(0, (fitTo.getWidth() - factor * originalBounds.getWidth()) / 2), (paintable.isYAxisPointingDownwards() ? 0 : visualizationHeight));
-                        g2d.scale(factor, paintable.isYAxisPointingDownwards() ? factor : -factor);
-                        g2d.translate(-originalBounds.getMinX(), -originalBounds.getMinY());
-                        paintable.paint(g2d, null);
-
-                        g2d.setTransform(oldTransform);
-                        g2d.setClip(oldClip);
-                    }
+                paintVisualization(g2d);
+            } else if (port != null) {
+                Rectangle clip = g2d.getClipBounds();
+                if (clip == null || clip.intersects(rect)) {
+                    visible = true;
                 }
-            } else {
-                if (currentBuffer == null) {
-                    portChanged(port.getPort(), port.getAutoLocked());
+                BufferedImageRGB buffer = currentBuffer;
+                if (buffer == null) {
+                    render(port.getAutoLocked());
                     releaseAllLocks();
+                    buffer = currentBuffer;
                 }
-                if (currentBuffer != null) {
-                    g2d.drawImage(currentBuffer.getBufferedImage(), rect.x + 1, rect.y + rect.height - visualizationHeight, null);
+                if (buffer != null) {
+                    int x = rect.x + 1;
+                    int y = rect.y + rect.height - visualizationHeight;
+                    g2d.drawImage(buffer.getBufferedImage(), x, y, x + rect.width, y + visualizationHeight + 1, 0, 0, rect.width, visualizationHeight + 1, null);
+                } else {
+                    paintVisualization(g2d); // no image buffer available (memory limit of pool reached)
                 }
             }
 
@@ -453,55 +570,105 @@ public class ComponentVisualization extends Ib2cViewClassic {
             releaseAllLocks();
         }
 
-        @Override
-        public synchronized void portChanged(AbstractPort origin, Object value) {
-            if (rect.getWidth() <= 2) {
+        /**
+         * Paints current visualization data directly (without image buffer)
+         *
+         * @param g2d Graphics object
+         */
+        private void paintVisualization(Graphics2D g2d) {
+            Object visualizationData = port != null ? port.getAutoLocked() : null;
+            if (visualizationData instanceof Paintable) {
+                Paintable paintable = (Paintable)visualizationData;
+
+                // scale to fit etc.
+                Rectangle2D originalBounds = paintable.getBounds();
+                if (originalBounds != null) {
+                    Rectangle2D fitTo = new Rectangle2D.Double(0, 0, rect.getWidth() - 1, visualizationHeight);
+                    AffineTransform oldTransform = g2d.getTransform();
+                    Shape oldClip = g2d.getClip();
+
+                    double factorX = (fitTo.getWidth()) / (originalBounds.getWidth());
+                    double factorY = (fitTo.getHeight()) / (originalBounds.getHeight());
+                    double factor = Math.min(factorX, factorY);
+
+                    g2d.translate(rect.x + 0.5, rect.y + rect.height - visualizationHeight);
+                    g2d.setClip(0, 0, rect.width - 1, visualizationHeight);
+                    g2d.translate(Math.max(0, (fitTo.getWidth() - factor * originalBounds.getWidth()) / 2), (paintable.isYAxisPointingDownwards() ? 0 : visualizationHeight));
+                    g2d.scale(factor, paintable.isYAxisPointingDownwards() ? factor : -factor);
+                    g2d.translate(-originalBounds.getMinX(), -originalBounds.getMinY());
+                    paintable.paint(g2d, null);
+
+                    g2d.setTransform(oldTransform);
+                    g2d.setClip(oldClip);
+                }
+            }
+        }
+
+        /**
+         * Renders visualization data to next image buffer (if vertex is visible and buffer is available)
+         *
+         * @param value Visualization data
+         */
+        private synchronized void render(Object value) {
+            if (rect.getWidth() <= 2 || (!visible) || (!(value instanceof Paintable))) {
                 return;
             }
 
-            if (value instanceof Paintable) {
-                Paintable paintable = (Paintable)value;
-                BufferedImageRGB imageBuffer = imageBuffers[nextBufferIndex];
-                nextBufferIndex++;
-                if (nextBufferIndex == imageBuffers.length) {
-                    nextBufferIndex = 0;
-                }
-                Rectangle2D fitTo = new Rectangle2D.Double(0, 0, rect.getWidth() - 1, visualizationHeight);
-                if (imageBuffer.getWidth() != (int)fitTo.getWidth() || imageBuffer.getHeight() != (int)fitTo.getHeight()) {
-                    imageBuffer.resize((int)fitTo.getWidth() + 1, (int)fitTo.getHeight() + 1); // one pixel larger cope with points on right and bottom edges of bounding box
-                }
-                imageBuffer.fill(graphAppearance.modules.getRGB());
+            Paintable paintable = (Paintable)value;
+            Rectangle2D fitTo = new Rectangle2D.Double(0, 0, rect.getWidth() - 1, visualizationHeight);
+            BufferedImageRGB imageBuffer = nextImageBuffer((int)fitTo.getWidth() + 1, (int)fitTo.getHeight() + 1); // one pixel larger cope with points on right and bottom edges of bounding box
+            if (imageBuffer == null) {
+                currentBuffer = null;
+                return;
+            }
+            imageBuffer.fill(graphAppearance.modules.getRGB());
 
-                Graphics2D g2d = imageBuffer.getBufferedImage().createGraphics();
-                g2d.setColor(getTextColor());
-                if (getFinstructWindow().getToolBar().isSelected(DiverseSwitches.antialiasing)) {
-                    g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-                }
+            Graphics2D g2d = imageBuffer.getBufferedImage().createGraphics();
+            g2d.setColor(getTextColor());
+            if (getFinstructWindow().getToolBar().isSelected(DiverseSwitches.antialiasing)) {
+                g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            }
 
-                try {
-                    // scale to fit etc.
-                    Rectangle2D originalBounds = paintable.getBounds();
-                    if (originalBounds != null) {
-
-                        double factorX = (fitTo.getWidth()) / (originalBounds.getWidth());
-                        double factorY = (fitTo.getHeight()) / (originalBounds.getHeight());
-                        double factor = Math.min(factorX, factorY);
-
-                        //g2d.translate(rect.x + 1, rect.y + rect.height - visualizationHeight);
-                        //g2d.setClip(fitTo.createIntersection(g2d.getClipBounds()));
-                        g2d.translate(Math.max(0, (fitTo.getWidth() - factor * originalBounds.getWidth()) / 2), (paintable.isYAxisPointingDownwards() ? 0 : visualizationHeight));
-                        g2d.scale(factor, paintable.isYAxisPointingDownwards() ? factor : -factor);
-                        g2d.translate(-originalBounds.getMinX(), -originalBounds.getMinY());
-                        paintable.paint(g2d, imageBuffer);
-                    }
-                } catch (Exception e) {
-                    Log.log(LogLevel.ERROR, e);
+            try {
+                // scale to fit etc.
+                Rectangle2D originalBounds = paintable.getBounds();
+                if (originalBounds != null) {
+
+                    double factorX = (fitTo.getWidth()) / (originalBounds.getWidth());
+                    double factorY = (fitTo.getHeight()) / (originalBounds.getHeight());
+                    double factor = Math.min(factorX, factorY);
+
+                    g2d.setClip(0, 0, (int)fitTo.getWidth() + 1, (int)fitTo.getHeight() + 1);
+                    g2d.translate(Math.max(0, (fitTo.getWidth() - factor * originalBounds.getWidth()) / 2), (paintable.isYAxisPointingDownwards() ? 0 : visualizationHeight));
+                    g2d.scale(factor, paintable.isYAxisPointingDownwards() ? factor : -factor);
+                    g2d.translate(-originalBounds.getMinX(), -originalBounds.getMinY());
+                    paintable.paint(g2d, imageBuffer);
                 }
-                g2d.dispose();
+            } catch (Exception e) {
+                Log.log(LogLevel.ERROR, e);
+            }
+            g2d.dispose();
 
-                currentBuffer = imageBuffer;
+            currentBuffer = imageBuffer;
+        }
+
+        @Override
+        public synchronized void portChanged(AbstractPort origin, Object value) {
+            if (port == null || origin != port.getPort()) { // values from ports of previous level of detail are ignored
+                return;
             }
+            if (throttle.accept(value)) {
+                showValue(value);
+            }
+        }
 
+        /**
+         * Renders value and repaints visualization
+         *
+         * @param value Port value
+         */
+        private synchronized void showValue(Object value) {
+            render(value);
 
             if (getZoom() != 1.0f) {
                 repaint((int)(rect.x * getZoom()), (int)((rect.y + rect.height - visualizationHeight) * getZoom()), (int)(rect.width * getZoom()), (int)(visualizationHeight * getZoom())); // thread-safe
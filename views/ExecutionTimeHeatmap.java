@@ -0,0 +1,427 @@
+//
+// You received this file as part of Finroc
+// A framework for intelligent robot control
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.finroc.tools.finstruct.views;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.finroc.core.port.AbstractPort;
+import org.finroc.core.remote.ModelNode;
+import org.finroc.core.remote.RemotePort;
+import org.finroc.core.remote.RemoteRuntime;
+import org.finroc.plugins.data_types.TaskProfile;
+import org.finroc.tools.finstruct.util.DurationHistory;
+import org.finroc.tools.finstruct.util.ProfileRecorder;
+
+/**
+ * @author Max Reichardt
+ *
+ * Execution-time heatmap overlay for graph views.
+ *
+ * Colors vertices by the execution duration of the tasks they contain (according to the thread containers' profiling ports).
+ * Tasks of elements that are not displayed as vertices (e.g. modules inside collapsed groups) are aggregated in
+ * the vertex of their closest displayed ancestor.
+ * Profiling data is obtained via ProfilingSubscription - so there is only one connection per thread container,
+ * regardless of how many views display profiling data.
+ */
+public class ExecutionTimeHeatmap implements ProfilingSubscription.Listener {
+
+    /** Execution duration that vertices are colored by */
+    public enum Metric {
+        Average, // sum of average execution durations of all tasks in vertex
+        Maximum  // maximum execution duration of all tasks in vertex
+    }
+
+    /** Available color scales */
+    public enum ColorScale { Heat, BlueToRed, Grayscale }
+
+    /** Number of colors in each color scale */
+    private static final int PALETTE_SIZE = 64;
+
+    /** Colors of each color scale (index: ColorScale ordinal, color index) */
+    private static final Color[][] PALETTES = new Color[ColorScale.values().length][PALETTE_SIZE];
+
+    /** Default minimum interval between color updates (in ms) */
+    public static final int DEFAULT_UPDATE_INTERVAL = 500;
+
+    /** Width and height of color scale legend (in pixels) */
+    private static final int LEGEND_WIDTH = 120, LEGEND_HEIGHT = 10;
+
+    static {
+        for (int i = 0; i < PALETTE_SIZE; i++) {
+            float f = i / (float)(PALETTE_SIZE - 1);
+            PALETTES[ColorScale.Heat.ordinal()][i] = f < 0.5f ? new Color(2 * f, 0.7f + 0.3f * f, 0) : new Color(1.0f, 1.0f - (f - 0.5f) * 2, 0);
+            PALETTES[ColorScale.BlueToRed.ordinal()][i] = new Color(f, 0.2f, 1.0f - f);
+            PALETTES[ColorScale.Grayscale.ordinal()][i] = new Color(1.0f - 0.85f * f, 1.0f - 0.85f * f, 1.0f - 0.85f * f);
+        }
+    }
+
+    /** Task data received from profiling ports */
+    private static class TaskSample {
+
+        /** Handle of task's framework element */
+        private final int handle;
+
+        /** Average and maximum execution duration (in nanoseconds) */
+        private long average, max;
+
+        /** Was task contained in the last profile list received? */
+        private boolean current;
+
+        /** Vertex that task is aggregated in (null if task is not displayed) */
+        private AbstractGraphView.Vertex vertex;
+
+        /** Has vertex been resolved? */
+        private boolean resolved;
+
+        private TaskSample(int handle) {
+            this.handle = handle;
+        }
+    }
+
+    /** Samples of each subscription (key: task key, see ProfileRecorder.getTaskKey) - access synchronized on this map */
+    private final IdentityHashMap<ProfilingSubscription, HashMap<Long, TaskSample>> samples = new IdentityHashMap<ProfilingSubscription, HashMap<Long, TaskSample>>();
+
+    /** Vertices by model element */
+    private final HashMap<ModelNode, AbstractGraphView.Vertex> verticesByElement = new HashMap<ModelNode, AbstractGraphView.Vertex>();
+
+    /** Aggregated execution duration of each vertex (in nanoseconds) */
+    private final IdentityHashMap<AbstractGraphView.Vertex, long[]> vertexValues = new IdentityHashMap<AbstractGraphView.Vertex, long[]>();
+
+    /** Current color of each vertex (only vertices with tasks) */
+    private final IdentityHashMap<AbstractGraphView.Vertex, Color> vertexColors = new IdentityHashMap<AbstractGraphView.Vertex, Color>();
+
+    /** Metric and color scale */
+    private Metric metric = Metric.Average;
+    private ColorScale colorScale = ColorScale.Heat;
+
+    /** Execution duration mapped to the last color of the color scale (in nanoseconds) - 0 means automatic (maximum of displayed vertices) */
+    private long scaleMaximum;
+
+    /** Execution duration currently mapped to the last color of the color scale (in nanoseconds) */
+    private long currentScaleMaximum;
+
+    /** Minimum interval between color updates (in ms) */
+    private int updateInterval = DEFAULT_UPDATE_INTERVAL;
+
+    /** Time of last color update */
+    private long lastUpdate;
+
+    /** Has new data been received since last color update? */
+    private volatile boolean dataChanged;
+
+    /**
+     * Sets vertices to color - and subscribes to the profiling ports of the thread containers they belong to
+     * (subscriptions that are still needed are kept - so that shared profiling ports are not recreated on every relayout;
+     *  must be called from AWT thread)
+     *
+     * @param vertices Vertices currently displayed in view
+     */
+    public void setVertices(Collection <? extends AbstractGraphView.Vertex > vertices) {
+        HashMap<AbstractPort, ProfilingSubscription> remaining = new HashMap<AbstractPort, ProfilingSubscription>();
+        synchronized (samples) {
+            for (ProfilingSubscription subscription : samples.keySet()) {
+                remaining.put(subscription.getDetailsPort().getPort(), subscription);
+            }
+        }
+        clearVertices();
+        ArrayList<RemotePort> detailsPorts = new ArrayList<RemotePort>();
+        for (AbstractGraphView.Vertex vertex : vertices) {
+            if (vertex.getModelElement() == null) {
+                continue;
+            }
+            verticesByElement.put(vertex.getModelElement(), vertex);
+            vertexValues.put(vertex, new long[1]);
+            RemotePort detailsPort = ProfilingSubscription.findDetailsPort(vertex.getModelElement());
+            if (detailsPort != null && !detailsPorts.contains(detailsPort)) {
+                detailsPorts.add(detailsPort);
+            }
+
+            // thread containers of inner elements (e.g. collapsed groups with own thread containers)
+            if (vertex.isGroup()) {
+                ArrayList<RemotePort> portsBelow = new ArrayList<RemotePort>();
+                vertex.getModelElement().getPortsBelow(portsBelow);
+                for (RemotePort port : portsBelow) {
+                    if (ProfilingSubscription.isDetailsPort(port) && !detailsPorts.contains(port)) {
+                        detailsPorts.add(port);
+                    }
+                }
+            }
+        }
+        for (RemotePort detailsPort : detailsPorts) {
+            if (remaining.remove(detailsPort.getPort()) == null) {
+                ProfilingSubscription subscription = ProfilingSubscription.subscribe(detailsPort, this);
+                synchronized (samples) {
+                    if (!samples.containsKey(subscription)) {
+                        samples.put(subscription, new HashMap<Long, TaskSample>());
+                    }
+                }
+            }
+        }
+
+        // Unsubscribe from ports that are no longer needed - and resolve vertices of kept samples again
+        synchronized (samples) {
+            for (ProfilingSubscription subscription : remaining.values()) {
+                samples.remove(subscription);
+            }
+            for (HashMap<Long, TaskSample> subscriptionSamples : samples.values()) {
+                for (TaskSample sample : subscriptionSamples.values()) {
+                    sample.resolved = false;
+                    sample.vertex = null;
+                }
+            }
+        }
+        for (ProfilingSubscription subscription : remaining.values()) {
+            subscription.unsubscribe(this);
+        }
+        lastUpdate = 0;
+        dataChanged = true;
+    }
+
+    /**
+     * Removes all vertices and unsubscribes from profiling ports
+     */
+    public void clear() {
+        ArrayList<ProfilingSubscription> subscriptions;
+        synchronized (samples) {
+            subscriptions = new ArrayList<ProfilingSubscription>(samples.keySet());
+            samples.clear();
+        }
+        for (ProfilingSubscription subscription : subscriptions) {
+            subscription.unsubscribe(this);
+        }
+        clearVertices();
+    }
+
+    /**
+     * Removes all vertices (subscriptions are kept)
+     */
+    private void clearVertices() {
+        verticesByElement.clear();
+        vertexValues.clear();
+        vertexColors.clear();
+        currentScaleMaximum = 0;
+    }
+
+    @Override
+    public void profilesChanged(ProfilingSubscription subscription, TaskProfile.List profiles) {
+        synchronized (samples) {
+            HashMap<Long, TaskSample> subscriptionSamples = samples.get(subscription);
+            if (subscriptionSamples == null) {
+                return;
+            }
+            for (TaskSample sample : subscriptionSamples.values()) {
+                sample.current = false;
+            }
+            for (int i = 1; i < profiles.size(); i++) { // first entry contains totals
+                TaskProfile profile = profiles.get(i);
+                long key = ProfileRecorder.getTaskKey(profile.handle, profile.taskClassification);
+                TaskSample sample = subscriptionSamples.get(key);
+                if (sample == null) {
+                    sample = new TaskSample(profile.handle);
+                    subscriptionSamples.put(key, sample);
+                }
+                sample.average = profile.averageExecutionDuration.getNanoseconds();
+                sample.max = profile.maxExecutionDuration.getNanoseconds();
+                sample.current = true;
+            }
+            for (Iterator<TaskSample> it = subscriptionSamples.values().iterator(); it.hasNext();) {
+                if (!it.next().current) {
+                    it.remove(); // task no longer exists
+                }
+            }
+        }
+        dataChanged = true;
+    }
+
+    /**
+     * Updates vertex colors if new data is available and the update interval has elapsed
+     * (must be called from AWT thread)
+     *
+     * @return True if colors were updated (view should be repainted)
+     */
+    public boolean update() {
+        long now = System.currentTimeMillis();
+        if (!dataChanged || now - lastUpdate < updateInterval) {
+            return false;
+        }
+        lastUpdate = now;
+        dataChanged = false;
+
+        for (long[] value : vertexValues.values()) {
+            value[0] = 0;
+        }
+        synchronized (samples) {
+            for (Map.Entry<ProfilingSubscription, HashMap<Long, TaskSample>> entry : samples.entrySet()) {
+                RemoteRuntime runtime = entry.getKey().getRuntime();
+                for (TaskSample sample : entry.getValue().values()) {
+                    if (!sample.resolved) {
+                        sample.resolved = true;
+                        sample.vertex = resolveVertex(runtime, sample.handle);
+                    }
+                    if (sample.vertex != null) {
+                        long[] value = vertexValues.get(sample.vertex);
+                        value[0] = metric == Metric.Average ? (value[0] + sample.average) : Math.max(value[0], sample.max);
+                    }
+                }
+            }
+        }
+
+        long maximum = scaleMaximum;
+        if (maximum <= 0) {
+            for (long[] value : vertexValues.values()) {
+                maximum = Math.max(maximum, value[0]);
+            }
+        }
+        currentScaleMaximum = maximum;
+        vertexColors.clear();
+        Color[] palette = PALETTES[colorScale.ordinal()];
+        for (Map.Entry<AbstractGraphView.Vertex, long[]> entry : vertexValues.entrySet()) {
+            long value = entry.getValue()[0];
+            if (value > 0 && maximum > 0) {
+                int index = (int)Math.min(PALETTE_SIZE - 1, (value * (PALETTE_SIZE - 1)) / maximum);
+                vertexColors.put(entry.getKey(), palette[index]);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param vertex Vertex
+     * @return Heatmap color of vertex - null if no tasks are associated with vertex
+     */
+    public Color getColor(AbstractGraphView.Vertex vertex) {
+        return vertexColors.get(vertex);
+    }
+
+    /**
+     * Draws color scale legend
+     *
+     * @param g2d Graphics to draw to
+     * @param x Left coordinate
+     * @param y Top coordinate
+     */
+    public void paintLegend(Graphics2D g2d, int x, int y) {
+        Color[] palette = PALETTES[colorScale.ordinal()];
+        for (int i = 0; i < LEGEND_WIDTH; i++) {
+            g2d.setColor(palette[(i * PALETTE_SIZE) / LEGEND_WIDTH]);
+            g2d.drawLine(x + i, y, x + i, y + LEGEND_HEIGHT);
+        }
+        g2d.setColor(Color.BLACK);
+        g2d.drawRect(x, y, LEGEND_WIDTH, LEGEND_HEIGHT);
+        int textY = y + LEGEND_HEIGHT + g2d.getFontMetrics().getAscent() + 2;
+        g2d.drawString("0", x, textY);
+        String maximum = (scaleMaximum <= 0 ? "auto: " : "") + DurationHistory.toString(currentScaleMaximum);
+        g2d.drawString(maximum, x + LEGEND_WIDTH - g2d.getFontMetrics().stringWidth(maximum), textY);
+        g2d.drawString(metric == Metric.Average ? "Sum of average execution durations" : "Maximum execution duration", x, textY + g2d.getFontMetrics().getHeight());
+    }
+
+    /**
+     * @param metric Execution duration that vertices are colored by
+     */
+    public void setMetric(Metric metric) {
+        this.metric = metric;
+        forceUpdate();
+    }
+
+    /**
+     * @return Execution duration that vertices are colored by
+     */
+    public Metric getMetric() {
+        return metric;
+    }
+
+    /**
+     * @param colorScale Color scale to use
+     */
+    public void setColorScale(ColorScale colorScale) {
+        this.colorScale = colorScale;
+        forceUpdate();
+    }
+
+    /**
+     * @return Color scale in use
+     */
+    public ColorScale getColorScale() {
+        return colorScale;
+    }
+
+    /**
+     * @param scaleMaximum Execution duration (in nanoseconds) that is mapped to the last color of the color scale - 0 for automatic
+     */
+    public void setScaleMaximum(long scaleMaximum) {
+        this.scaleMaximum = scaleMaximum;
+        forceUpdate();
+    }
+
+    /**
+     * @return Execution duration (in nanoseconds) that is mapped to the last color of the color scale - 0 for automatic
+     */
+    public long getScaleMaximum() {
+        return scaleMaximum;
+    }
+
+    /**
+     * @param updateInterval Minimum interval between color updates (in ms)
+     */
+    public void setUpdateInterval(int updateInterval) {
+        this.updateInterval = updateInterval;
+    }
+
+    /**
+     * @return Minimum interval between color updates (in ms)
+     */
+    public int getUpdateInterval() {
+        return updateInterval;
+    }
+
+    /**
+     * Makes next call to update() recalculate colors
+     */
+    private void forceUpdate() {
+        lastUpdate = 0;
+        dataChanged = true;
+    }
+
+    /**
+     * @param runtime Runtime that task belongs to
+     * @param handle Handle of task
+     * @return Vertex of task or of its closest displayed ancestor - null if there is no such vertex
+     */
+    private AbstractGraphView.Vertex resolveVertex(RemoteRuntime runtime, int handle) {
+        ModelNode current = runtime != null ? runtime.getRemoteElement(handle) : null;
+        while (current != null) {
+            AbstractGraphView.Vertex vertex = verticesByElement.get(current);
+            if (vertex != null) {
+                return vertex;
+            }
+            current = (ModelNode)current.getParent();
+        }
+        return null;
+    }
+}
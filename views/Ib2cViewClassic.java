@@ -37,6 +37,8 @@ import org.finroc.core.remote.ModelNode;
 import org.finroc.core.remote.RemoteFrameworkElement;
 import org.finroc.core.remote.RemotePort;
 import org.finroc.plugins.data_types.BehaviorStatus;
+import org.finroc.tools.finstruct.Finstruct;
+import org.finroc.tools.finstruct.TagIndex;
 import org.finroc.tools.finstruct.propertyeditor.ConnectingPortAccessor;
 
 /**
@@ -80,6 +82,7 @@ public class Ib2cViewClassic extends StandardViewGraphViz {
 
     @Override
     protected void destroy() {
+        super.destroy();
         clear();
     }
 
@@ -114,7 +117,8 @@ public class Ib2cViewClassic extends StandardViewGraphViz {
      * @return True if framework element is a behaviour
      */
     protected static boolean isBehaviour(ModelNode fe) {
-        return (fe instanceof RemoteFrameworkElement) && (((RemoteFrameworkElement)fe).isTagged("ib2c_module") || ((RemoteFrameworkElement)fe).isTagged("ib2c_group"));
+        TagIndex tagIndex = Finstruct.getInstance().getIoInterface().getTagIndex();
+        return tagIndex.isTagged(fe, "ib2c_module") || tagIndex.isTagged(fe, "ib2c_group");
     }
 
     // we may add this heuristic again, if it turns out to be necessary
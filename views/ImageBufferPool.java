@@ -0,0 +1,200 @@
+//
+// You received this file as part of Finroc
+// A framework for intelligent robot control
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.finroc.tools.finstruct.views;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import org.finroc.tools.gui.commons.fastdraw.BufferedImageRGB;
+
+/**
+ * @author Max Reichardt
+ *
+ * Pool of image buffers shared by all vertices of a view.
+ *
+ * Buffers are allocated in size classes (width and height rounded up to multiples of SIZE_CLASS_STEP),
+ * so that they can be reused for vertices of similar size and across zoom levels.
+ * Total memory of all buffers (leased and pooled) never exceeds the memory cap.
+ */
+public class ImageBufferPool {
+
+    /** Width and height of buffers are multiples of this value */
+    private static final int SIZE_CLASS_STEP = 32;
+
+    /** Bytes per pixel in BufferedImageRGB */
+    private static final int BYTES_PER_PIXEL = 4;
+
+    /** Maximum memory (in bytes) of all buffers */
+    private final long memoryCap;
+
+    /** Unused buffers by size class */
+    private final HashMap<Long, ArrayList<BufferedImageRGB>> freeBuffers = new HashMap<Long, ArrayList<BufferedImageRGB>>();
+
+    /** Memory (in bytes) of all allocated buffers - and of currently leased buffers */
+    private long allocatedBytes, leasedBytes;
+
+    /** Number of currently leased buffers */
+    private int leasedBuffers;
+
+    /** Number of lease requests that could not be served due to memory cap */
+    private int rejectedLeases;
+
+    /**
+     * @param memoryCap Maximum memory (in bytes) of all buffers
+     */
+    public ImageBufferPool(long memoryCap) {
+        this.memoryCap = memoryCap;
+    }
+
+    /**
+     * Leases buffer that is at least as large as specified
+     *
+     * @param width Minimum width of buffer
+     * @param height Minimum height of buffer
+     * @return Buffer - or null if memory cap does not allow another buffer of this size
+     */
+    public synchronized BufferedImageRGB lease(int width, int height) {
+        int classWidth = getSizeClass(width);
+        int classHeight = getSizeClass(height);
+        long key = getKey(classWidth, classHeight);
+        long bytes = ((long)classWidth) * classHeight * BYTES_PER_PIXEL;
+
+        BufferedImageRGB result = null;
+        ArrayList<BufferedImageRGB> free = freeBuffers.get(key);
+        if (free != null && free.size() > 0) {
+            result = free.remove(free.size() - 1);
+        } else {
+            evictFreeBuffers(bytes);
+            if (allocatedBytes + bytes > memoryCap) {
+                rejectedLeases++;
+                return null;
+            }
+            result = new BufferedImageRGB();
+            result.resize(classWidth, classHeight);
+            allocatedBytes += bytes;
+        }
+        leasedBytes += bytes;
+        leasedBuffers++;
+        return result;
+    }
+
+    /**
+     * Returns leased buffer to pool
+     *
+     * @param buffer Buffer to return (null is ignored)
+     */
+    public synchronized void release(BufferedImageRGB buffer) {
+        if (buffer == null) {
+            return;
+        }
+        long key = getKey(buffer.getWidth(), buffer.getHeight());
+        ArrayList<BufferedImageRGB> free = freeBuffers.get(key);
+        if (free == null) {
+            free = new ArrayList<BufferedImageRGB>();
+            freeBuffers.put(key, free);
+        }
+        free.add(buffer);
+        leasedBytes -= getBytes(buffer);
+        leasedBuffers--;
+    }
+
+    /**
+     * @param buffer Buffer leased from pool (may be null)
+     * @param width Required width
+     * @param height Required height
+     * @return True if buffer is not null and has the size class that lease() would return for the specified size
+     */
+    public static boolean fits(BufferedImageRGB buffer, int width, int height) {
+        return buffer != null && buffer.getWidth() == getSizeClass(width) && buffer.getHeight() == getSizeClass(height);
+    }
+
+    /**
+     * Discards all unused buffers
+     */
+    public synchronized void clear() {
+        evictFreeBuffers(Long.MAX_VALUE);
+    }
+
+    /**
+     * @return Memory (in bytes) of all allocated buffers (leased and pooled)
+     */
+    public synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * @return Memory (in bytes) of currently leased buffers
+     */
+    public synchronized long getLeasedBytes() {
+        return leasedBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Image buffer pool: " + leasedBuffers + " buffers leased (" + (leasedBytes / 1024) + " KB), " + ((allocatedBytes - leasedBytes) / 1024) + " KB pooled, " +
+               (allocatedBytes / 1024) + " of " + (memoryCap / 1024) + " KB used, " + rejectedLeases + " leases rejected";
+    }
+
+    /**
+     * Discards unused buffers until specified number of bytes can be allocated without exceeding memory cap
+     *
+     * @param bytes Number of bytes to allocate
+     */
+    private void evictFreeBuffers(long bytes) {
+        Iterator<ArrayList<BufferedImageRGB>> it = freeBuffers.values().iterator();
+        while (allocatedBytes + bytes > memoryCap && it.hasNext()) {
+            ArrayList<BufferedImageRGB> free = it.next();
+            while (free.size() > 0 && allocatedBytes + bytes > memoryCap) {
+                allocatedBytes -= getBytes(free.remove(free.size() - 1));
+            }
+            if (free.size() == 0) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * @param size Required width or height
+     * @return Width or height of size class
+     */
+    private static int getSizeClass(int size) {
+        return Math.max(1, (size + SIZE_CLASS_STEP - 1) / SIZE_CLASS_STEP) * SIZE_CLASS_STEP;
+    }
+
+    /**
+     * @param width Buffer width
+     * @param height Buffer height
+     * @return Key of size class in freeBuffers
+     */
+    private static long getKey(int width, int height) {
+        return (((long)width) << 32) | height;
+    }
+
+    /**
+     * @param buffer Buffer
+     * @return Memory (in bytes) of buffer
+     */
+    private static long getBytes(BufferedImageRGB buffer) {
+        return ((long)buffer.getWidth()) * buffer.getHeight() * BYTES_PER_PIXEL;
+    }
+}
@@ -0,0 +1,307 @@
+//
+// You received this file as part of Finroc
+// A framework for intelligent robot control
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.finroc.tools.finstruct.views;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.JComponent;
+import javax.swing.Timer;
+
+import org.finroc.core.datatype.CoreNumber;
+import org.finroc.core.datatype.Timestamp;
+import org.finroc.core.port.ThreadLocalCache;
+import org.finroc.core.remote.RemotePort;
+import org.finroc.tools.finstruct.propertyeditor.ConnectingPortAccessor;
+import org.finroc.tools.finstruct.propertyeditor.PortAccessor;
+import org.finroc.tools.finstruct.util.TimeSeries;
+import org.rrlib.logging.Log;
+import org.rrlib.logging.LogLevel;
+import org.rrlib.serialization.rtti.DataTypeBase;
+
+/**
+ * @author Max Reichardt
+ *
+ * Live time-series plot of numeric ports.
+ *
+ * All values of the plotted ports are stored in TimeSeries ring buffers.
+ * All series share a common time axis based on port value timestamps
+ * (receive time is used for values without timestamp).
+ * For painting, each series is downsampled to the plot's width in pixels - so painting
+ * costs do not depend on the number of samples.
+ */
+public class PortPlot extends JComponent implements ActionListener {
+
+    /** UID */
+    private static final long serialVersionUID = -2917306513436190281L;
+
+    /** Maximum number of ports that can be plotted */
+    public static final int MAX_PORTS = 16;
+
+    /** Default length of displayed time window (in ms) */
+    public static final int DEFAULT_TIME_WINDOW = 10000;
+
+    /** Interval in which plot is repainted (in ms) */
+    private static final int REPAINT_INTERVAL = 40;
+
+    /** Margins around plot area (in pixels) */
+    private static final int MARGIN_LEFT = 60, MARGIN_RIGHT = 10, MARGIN_TOP = 10, MARGIN_BOTTOM = 20;
+
+    /** Colors of series */
+    private static final Color[] COLORS = { new Color(0x1f77b4), new Color(0xd62728), new Color(0x2ca02c), new Color(0xff7f0e), new Color(0x9467bd), new Color(0x8c564b), new Color(0xe377c2), new Color(0x17becf) };
+
+    /** Plotted series */
+    private final ArrayList<Series> series = new ArrayList<Series>();
+
+    /** Length of displayed time window (in ms) */
+    private int timeWindow = DEFAULT_TIME_WINDOW;
+
+    /** Timer for repainting */
+    private final Timer repaintTimer = new Timer(REPAINT_INTERVAL, this);
+
+    /** Buffers for downsampled samples (reused) */
+    private long[] sampleTimes = new long[0];
+    private double[] sampleValues = new double[0];
+    private int[] pointsX = new int[0], pointsY = new int[0];
+
+    public PortPlot() {
+        setPreferredSize(new Dimension(600, 300));
+        setBackground(Color.WHITE);
+        setOpaque(true);
+    }
+
+    /**
+     * @param type Data type
+     * @return True if ports with this data type can be plotted
+     */
+    public static boolean isNumeric(DataTypeBase type) {
+        Class<?> c = type.getJavaClass();
+        return c != null && (CoreNumber.class.isAssignableFrom(c) || Number.class.isAssignableFrom(c));
+    }
+
+    /**
+     * Sets ports to plot (unsubscribes from previously plotted ports)
+     *
+     * @param ports Ports to plot (non-numeric ports are ignored - as are ports beyond MAX_PORTS)
+     */
+    public synchronized void setPorts(List<RemotePort> ports) {
+        clear();
+        for (RemotePort port : ports) {
+            if (series.size() >= MAX_PORTS) {
+                Log.log(LogLevel.WARNING, this, "Only the first " + MAX_PORTS + " numeric ports are plotted");
+                break;
+            }
+            if (isNumeric(port.getPort().getDataType())) {
+                series.add(new Series(port, COLORS[series.size() % COLORS.length]));
+            }
+        }
+        repaintTimer.start();
+    }
+
+    /**
+     * Unsubscribes from all plotted ports
+     */
+    public synchronized void clear() {
+        repaintTimer.stop();
+        for (Series s : series) {
+            s.port.delete();
+        }
+        series.clear();
+    }
+
+    /**
+     * @return Number of plotted ports
+     */
+    public synchronized int getPortCount() {
+        return series.size();
+    }
+
+    /**
+     * @param timeWindow Length of displayed time window (in ms)
+     */
+    public void setTimeWindow(int timeWindow) {
+        this.timeWindow = Math.max(1, timeWindow);
+        repaint();
+    }
+
+    /**
+     * @return Length of displayed time window (in ms)
+     */
+    public int getTimeWindow() {
+        return timeWindow;
+    }
+
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        if (isShowing()) {
+            repaint();
+        }
+    }
+
+    @Override
+    protected synchronized void paintComponent(Graphics g) {
+        Graphics2D g2d = (Graphics2D)g;
+        g2d.setColor(getBackground());
+        g2d.fillRect(0, 0, getWidth(), getHeight());
+        int plotWidth = getWidth() - MARGIN_LEFT - MARGIN_RIGHT;
+        int plotHeight = getHeight() - MARGIN_TOP - MARGIN_BOTTOM;
+        if (plotWidth < 10 || plotHeight < 10) {
+            return;
+        }
+        if (sampleTimes.length < plotWidth) {
+            sampleTimes = new long[plotWidth];
+            sampleValues = new double[plotWidth];
+            pointsX = new int[plotWidth];
+            pointsY = new int[plotWidth];
+        }
+
+        // Common time axis
+        long endTime = Long.MIN_VALUE;
+        for (Series s : series) {
+            endTime = Math.max(endTime, s.samples.getEndTime());
+        }
+        FontMetrics fm = g2d.getFontMetrics();
+        g2d.setColor(Color.LIGHT_GRAY);
+        g2d.drawRect(MARGIN_LEFT, MARGIN_TOP, plotWidth, plotHeight);
+        if (endTime == Long.MIN_VALUE) {
+            g2d.setColor(Color.GRAY);
+            g2d.drawString(series.size() == 0 ? "No numeric ports to plot" : "Waiting for values...", MARGIN_LEFT + 5, MARGIN_TOP + fm.getAscent() + 5);
+            return;
+        }
+        long startTime = endTime - timeWindow;
+
+        // Downsample and determine value range
+        double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+        for (Series s : series) {
+            s.sampleCount = s.samples.downsample(startTime, endTime, plotWidth, sampleTimes, sampleValues);
+            if (s.times.length < s.sampleCount) {
+                s.times = new long[plotWidth];
+                s.values = new double[plotWidth];
+            }
+            System.arraycopy(sampleTimes, 0, s.times, 0, s.sampleCount);
+            System.arraycopy(sampleValues, 0, s.values, 0, s.sampleCount);
+            for (int i = 0; i < s.sampleCount; i++) {
+                min = Math.min(min, s.values[i]);
+                max = Math.max(max, s.values[i]);
+            }
+        }
+        if (min > max) {
+            return;
+        }
+        if (max - min < 1E-9) {
+            min -= 1;
+            max += 1;
+        }
+
+        // Axes
+        g2d.setColor(Color.DARK_GRAY);
+        g2d.drawString(formatValue(max), MARGIN_LEFT - fm.stringWidth(formatValue(max)) - 4, MARGIN_TOP + fm.getAscent());
+        g2d.drawString(formatValue(min), MARGIN_LEFT - fm.stringWidth(formatValue(min)) - 4, MARGIN_TOP + plotHeight);
+        String windowLabel = String.format("-%.1f s", timeWindow / 1000.0);
+        g2d.drawString(windowLabel, MARGIN_LEFT, MARGIN_TOP + plotHeight + fm.getAscent() + 2);
+        g2d.drawString("0 s", MARGIN_LEFT + plotWidth - fm.stringWidth("0 s"), MARGIN_TOP + plotHeight + fm.getAscent() + 2);
+
+        // Series
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.clipRect(MARGIN_LEFT, MARGIN_TOP, plotWidth + 1, plotHeight + 1);
+        double scaleX = (double)plotWidth / timeWindow;
+        double scaleY = plotHeight / (max - min);
+        int legendY = MARGIN_TOP + fm.getAscent() + 2;
+        for (Series s : series) {
+            for (int i = 0; i < s.sampleCount; i++) {
+                pointsX[i] = MARGIN_LEFT + (int)((s.times[i] - startTime) * scaleX);
+                pointsY[i] = MARGIN_TOP + plotHeight - (int)((s.values[i] - min) * scaleY);
+            }
+            g2d.setColor(s.color);
+            g2d.drawPolyline(pointsX, pointsY, s.sampleCount);
+            g2d.drawString(s.name, MARGIN_LEFT + 5, legendY);
+            legendY += fm.getHeight();
+        }
+    }
+
+    /**
+     * @param value Value
+     * @return Value formatted for axis label
+     */
+    private static String formatValue(double value) {
+        return Math.abs(value) >= 10000 || (Math.abs(value) < 0.01 && value != 0) ? String.format("%.2e", value) : String.format("%.2f", value);
+    }
+
+    /**
+     * Plotted port
+     */
+    private class Series implements PortAccessor.Listener {
+
+        /** Port accessor */
+        @SuppressWarnings("rawtypes")
+        private final ConnectingPortAccessor port;
+
+        /** Recorded samples */
+        private final TimeSeries samples = new TimeSeries(TimeSeries.DEFAULT_CAPACITY);
+
+        /** Name displayed in legend */
+        private final String name;
+
+        /** Color of series */
+        private final Color color;
+
+        /** Buffer for timestamp of values (only used by thread that receives port data) */
+        private final Timestamp timestampBuffer = new Timestamp();
+
+        /** Downsampled samples for painting (only used by AWT thread) */
+        private long[] times = new long[0];
+        private double[] values = new double[0];
+        private int sampleCount;
+
+        @SuppressWarnings("rawtypes")
+        private Series(RemotePort remotePort, Color color) {
+            this.color = color;
+            name = remotePort.getQualifiedLink();
+            port = new ConnectingPortAccessor(remotePort, "");
+            port.setListener(this);
+            port.init();
+            port.setAutoUpdate(true);
+        }
+
+        @Override
+        public void portChanged() {
+            try {
+                port.getTimestamp(timestampBuffer);
+                Object value = port.getAutoLocked();
+                double number = (value instanceof Number) ? ((Number)value).doubleValue() : ((CoreNumber)value).doubleValue();
+                long time = timestampBuffer.getInMs();
+                samples.add(time != 0 ? time : System.currentTimeMillis(), number);
+            } catch (Exception e) {
+                Log.log(LogLevel.DEBUG, this, e);
+            }
+            ThreadLocalCache.getFast().releaseAllLocks();
+        }
+    }
+}
@@ -0,0 +1,193 @@
+//
+// You received this file as part of Finroc
+// A framework for intelligent robot control
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.finroc.tools.finstruct.views;
+
+import java.util.Collection;
+import java.util.HashMap;
+
+import org.finroc.core.port.AbstractPort;
+import org.finroc.core.portdatabase.FinrocTypeInfo;
+import org.finroc.core.remote.RemotePort;
+import org.finroc.tools.finstruct.propertyeditor.ConnectingPortAccessor;
+import org.finroc.tools.finstruct.propertyeditor.LatencyMonitor;
+import org.finroc.tools.finstruct.propertyeditor.PortStatistics;
+import org.rrlib.logging.Log;
+import org.rrlib.logging.LogLevel;
+
+/**
+ * @author Max Reichardt
+ *
+ * Update rate, bandwidth and latency annotations for edges in graph views.
+ *
+ * Subscribes to the source ports of all displayed connections and collects PortStatistics and latencies.
+ * Note that subscribing to ports causes additional network traffic itself - so the overlay
+ * should only be enabled while looking for ports that flood the network.
+ */
+public class PortStatisticsOverlay {
+
+    /** Interval in which annotations are updated (in ms) */
+    public static final int UPDATE_INTERVAL = 1000;
+
+    /** Subscribed ports (key: remote port) */
+    private final HashMap < AbstractPort, ConnectingPortAccessor<? >> subscriptions = new HashMap < AbstractPort, ConnectingPortAccessor<? >> ();
+
+    /** Time when annotations were last updated */
+    private long lastUpdate;
+
+    /** Monitor latency of subscribed ports? */
+    private final boolean monitorLatency;
+
+    public PortStatisticsOverlay() {
+        this(true);
+    }
+
+    /**
+     * @param monitorLatency Monitor latency of subscribed ports (for tool tips)?
+     */
+    public PortStatisticsOverlay(boolean monitorLatency) {
+        this.monitorLatency = monitorLatency;
+    }
+
+    /**
+     * Sets ports to collect statistics for (subscribes to new ports and unsubscribes from ports that are no longer needed)
+     *
+     * @param ports Ports
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public void setPorts(Collection<RemotePort> ports) {
+        HashMap < AbstractPort, ConnectingPortAccessor<? >> remaining = new HashMap < AbstractPort, ConnectingPortAccessor<? >> (subscriptions);
+        subscriptions.clear();
+        for (RemotePort port : ports) {
+            AbstractPort key = port.getPort();
+            if (subscriptions.containsKey(key) || FinrocTypeInfo.isMethodType(key.getDataType(), true)) {
+                continue;
+            }
+            ConnectingPortAccessor<?> accessor = remaining.remove(key);
+            if (accessor == null) {
+                try {
+                    accessor = new ConnectingPortAccessor(port, "");
+                    accessor.setStatisticsEnabled(true);
+                    accessor.setLatencyMonitoringEnabled(monitorLatency);
+                    accessor.init();
+                    accessor.setAutoUpdate(true);
+                } catch (Exception e) {
+                    Log.log(LogLevel.WARNING, this, "Cannot collect statistics of port '" + port.getQualifiedLink() + "': " + e.getMessage());
+                    continue;
+                }
+            }
+            subscriptions.put(key, accessor);
+        }
+        for (ConnectingPortAccessor<?> accessor : remaining.values()) {
+            accessor.delete();
+        }
+    }
+
+    /**
+     * Unsubscribes from all ports
+     */
+    public void clear() {
+        for (ConnectingPortAccessor<?> accessor : subscriptions.values()) {
+            accessor.delete();
+        }
+        subscriptions.clear();
+    }
+
+    /**
+     * @param port Port
+     * @return Statistics of port - null if port is not subscribed
+     */
+    public PortStatistics getStatistics(RemotePort port) {
+        ConnectingPortAccessor<?> accessor = subscriptions.get(port.getPort());
+        return accessor != null ? accessor.getStatistics() : null;
+    }
+
+    /**
+     * @param ports Ports (e.g. all source ports of a graph edge)
+     * @return Annotation with summed update rates and bandwidths of ports - null if none of the ports is subscribed
+     */
+    public String getAnnotation(Collection<RemotePort> ports) {
+        double updateRate = 0, byteRate = 0;
+        boolean byteRateKnown = true, found = false;
+        for (RemotePort port : ports) {
+            PortStatistics statistics = getStatistics(port);
+            if (statistics != null) {
+                found = true;
+                updateRate += statistics.getUpdateRate();
+                double portByteRate = statistics.getByteRate();
+                if (portByteRate < 0) {
+                    byteRateKnown = false;
+                } else {
+                    byteRate += portByteRate;
+                }
+            }
+        }
+        if (!found) {
+            return null;
+        }
+        return String.format("%.1f Hz", updateRate) + (byteRateKnown ? ", " + PortStatistics.formatByteRate(byteRate) : "");
+    }
+
+    /**
+     * @param ports Ports (e.g. all source ports of a graph edge)
+     * @return HTML tool tip with statistics and min/median/p99 latency of each port - null if none of the ports is subscribed
+     */
+    public String getToolTip(Collection<RemotePort> ports) {
+        StringBuilder sb = new StringBuilder("<html>");
+        boolean found = false;
+        for (RemotePort port : ports) {
+            ConnectingPortAccessor<?> accessor = subscriptions.get(port.getPort());
+            if (accessor != null) {
+                found = true;
+                LatencyMonitor latency = accessor.getLatencyMonitor();
+                String latencyString = latency != null ? latency.toString() : "";
+                sb.append(escape(port.getQualifiedLink())).append("<br>&nbsp;&nbsp;").append(escape(accessor.getStatistics().toString()));
+                if (latencyString.length() > 0) {
+                    sb.append("<br>&nbsp;&nbsp;latency min/median/p99: ").append(escape(latencyString));
+                }
+                sb.append("<br>");
+            }
+        }
+        return found ? sb.append("</html>").toString() : null;
+    }
+
+    /**
+     * @param s String
+     * @return String with HTML special characters escaped
+     */
+    private static String escape(String s) {
+        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    /**
+     * Should be called regularly (e.g. in updateView())
+     *
+     * @return True if annotations should be repainted
+     */
+    public boolean update() {
+        long now = System.currentTimeMillis();
+        if (subscriptions.isEmpty() || now - lastUpdate < UPDATE_INTERVAL) {
+            return false;
+        }
+        lastUpdate = now;
+        return true;
+    }
+}
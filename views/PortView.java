@@ -21,19 +21,39 @@
 //----------------------------------------------------------------------
 package org.finroc.tools.finstruct.views;
 
-import java.awt.BorderLayout;
 import java.awt.Color;
+import java.awt.Component;
+import java.awt.Container;
+import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.GridBagConstraints;
+import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.KeyEvent;
+import java.awt.event.KeyListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JMenuBar;
 import javax.swing.JOptionPane;
-import javax.swing.SwingUtilities;
+import javax.swing.JSlider;
+import javax.swing.JViewport;
+import javax.swing.Timer;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 
 import org.finroc.core.datatype.Timestamp;
 import org.finroc.core.port.ThreadLocalCache;
@@ -43,7 +63,12 @@ import org.finroc.tools.finstruct.Finstruct;
 import org.finroc.tools.finstruct.FinstructView;
 import org.finroc.tools.finstruct.propertyeditor.ConnectingPortAccessor;
 import org.finroc.tools.finstruct.propertyeditor.FinrocComponentFactory;
+import org.finroc.tools.finstruct.propertyeditor.LatencyMonitor;
 import org.finroc.tools.finstruct.propertyeditor.PortAccessor;
+import org.finroc.tools.finstruct.propertyeditor.PortStatistics;
+import org.finroc.tools.finstruct.propertyeditor.PortValueBatch;
+import org.finroc.tools.finstruct.propertyeditor.UpdateThrottle;
+import org.finroc.tools.finstruct.util.PortValueRecorder;
 import org.finroc.tools.gui.util.gui.MAction;
 import org.finroc.tools.gui.util.gui.MActionEvent;
 import org.finroc.tools.gui.util.gui.MToolBar;
@@ -53,20 +78,44 @@ import org.finroc.tools.gui.util.propertyeditor.PropertyEditComponent;
 import org.finroc.tools.gui.util.propertyeditor.StandardComponentFactory;
 import org.rrlib.logging.Log;
 import org.rrlib.logging.LogLevel;
+import org.rrlib.serialization.BinarySerializable;
 import org.rrlib.xml.XMLNode;
 
 /**
  * @author Max Reichardt
  *
  * Displays port-values and lets user manipulate them
+ *
+ * Ports are displayed in pages of PAGE_SIZE ports.
+ * Editor components and port subscriptions are only created for pages in the viewport - so that
+ * subtrees with thousands of ports can be opened instantly.
+ * Pages that are scrolled out of view are parked (no auto-update) and reused when they become visible again.
+ * Only the least recently visible pages beyond MAX_PARKED_PAGES are discarded - except of pages with
+ * edits that have not been applied yet (auto-update off).
+ *
+ * Port changes are not forwarded to the AWT thread individually. Changed ports are collected in a lock-free
+ * queue instead (each port at most once) - and a timer drains this queue once per frame.
+ * So, the UI never lags behind fast ports - intermediate values are skipped (and counted).
+ *
+ * Values of displayed ports can be recorded to ring files (see PortValueRecorder).
+ * In playback mode, recorded values are shown in the editor components instead of live values
+ * (selected with a time slider in the toolbar) - without setting any values in the runtime.
+ *
+ * Numeric ports can be plotted live in a separate window (see PortPlot).
  */
-public class PortView extends FinstructView implements ActionListener {
+public class PortView extends FinstructView implements ActionListener, ChangeListener {
 
     /** UID */
     private static final long serialVersionUID = 7231901570012922905L;
 
-    /** Ports created for panel */
-    private final ArrayList < ConnectingPortAccessor<? >> ports = new ArrayList < ConnectingPortAccessor<? >> ();
+    /** All ports to display (with supported data types) */
+    private final ArrayList<RemotePort> displayedPorts = new ArrayList<RemotePort>();
+
+    /** Pages of displayed ports */
+    private final ArrayList<Page> pages = new ArrayList<Page>();
+
+    /** Pages with editor components and port subscriptions (least recently visible first) */
+    private final ArrayList<Page> realizedPages = new ArrayList<Page>();
 
     /** Framework element that all displayed ports are child of */
     private ModelNode commonParent;
@@ -74,11 +123,8 @@ public class PortView extends FinstructView implements ActionListener {
     /** reference to toolBar */
     private MToolBar toolBar;
 
-    /** Properties Panel */
-    private PortPanel propPanel;
-
     /** Diverse toolbar switches */
-    private enum DiverseSwitches { autoUpdate, singleUpdate, apply, showTimestamps }
+    private enum DiverseSwitches { autoUpdate, singleUpdate, apply, showTimestamps, showStatistics, showLatency, record, playback, plot }
 
     /** Is the currently displayed port view drawn disconnected (due to disconnect)? */
     private boolean viewDrawnDisconnected = false;
@@ -86,12 +132,238 @@ public class PortView extends FinstructView implements ActionListener {
     /** Default panel background color */
     private final Color DEFAULT_BACKGROUND_COLOR = this.getBackground();
 
-    /** Maximum number of ports to display */
-    private final int MAX_PORTS = 250;
+    /** Number of ports per page */
+    private static final int PAGE_SIZE = 25;
+
+    /** Maximum number of realized pages outside of the viewport */
+    private static final int MAX_PARKED_PAGES = 4;
+
+    /** Estimated height of a port row (in pixels) - used for pages that have never been realized */
+    private static final int DEFAULT_ROW_HEIGHT = 26;
+
+    /** Pages within this distance (in pixels) of the viewport are realized */
+    private static final int OVERSCAN = 200;
+
+    /** Viewport that this view is displayed in (null if none) */
+    private JViewport viewport;
+
+    /** Total height of all pages (in pixels) */
+    private int totalHeight;
+
+    /** Sum of measured page heights and number of ports in measured pages (for estimating row height) */
+    private int measuredPageHeight, measuredPortCount;
+
+    /** True while pages are being realized (avoids recursion via viewport events) */
+    private boolean updatingPages;
+
+    /** Interval (in ms) in which changed ports are forwarded to editor components */
+    private static final int FRAME_INTERVAL = 40;
+
+    /** Interval (in ms) in which update metrics are displayed */
+    private static final int METRICS_INTERVAL = 1000;
+
+    /** Ports whose values changed since last frame (each port is contained at most once) */
+    private final ConcurrentLinkedQueue<ChangeForwarder> changedPorts = new ConcurrentLinkedQueue<ChangeForwarder>();
+
+    /** Number of ports in changedPorts */
+    private final AtomicInteger changedPortCount = new AtomicInteger();
+
+    /** Number of port values that were replaced by newer values before they were displayed (since last metrics update) */
+    private final AtomicLong droppedValues = new AtomicLong();
+
+    /** Timer that forwards changed ports once per frame */
+    private final Timer frameTimer = new Timer(FRAME_INTERVAL, this);
+
+    /** Metrics since last metrics update: number of forwarded values, maximum queue depth */
+    private int forwardedValues, maxQueueDepth;
+
+    /** Time of last metrics update */
+    private long lastMetricsUpdate;
+
+    /** Values of PortAccessor copy and cache hit counters at last metrics update */
+    private long lastCopyCount, lastCacheHitCount;
+
+    /** Label to display update metrics in */
+    private final JLabel metricsLabel = new JLabel();
+
+    /** Recorder for port values - null if no values have been recorded */
+    private volatile PortValueRecorder recorder;
+
+    /** Slider to select time of displayed values in playback mode (value: ms since playbackStartTime) */
+    private final JSlider timeSlider = new JSlider(0, 0, 0);
+
+    /** Label that displays time selected with time slider */
+    private final JLabel timeLabel = new JLabel();
+
+    /** Receive time of oldest recorded value when playback was started (in ms) */
+    private long playbackStartTime;
+
+    /** Format for time label */
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss.SSS");
+
+    /** Window with live plot of numeric ports (null if not shown) */
+    private JFrame plotWindow;
+
+    /** Live plot of numeric ports */
+    private final PortPlot plot = new PortPlot();
 
     ///** Port description font */
     //private static final Font FONT = new JLabel().getFont().deriveFont(Font.PLAIN);
 
+    /**
+     * Consecutive range of displayed ports
+     */
+    private class Page {
+
+        /** Index of first port of page in displayedPorts */
+        private final int firstPort;
+
+        /** Number of ports in page */
+        private final int portCount;
+
+        /** Measured height of page (in pixels) - -1 if page has never been realized */
+        private int height = -1;
+
+        /** Vertical position of page (in pixels) */
+        private int y;
+
+        /** Ports created for page (empty if page is not realized) */
+        private final ArrayList < ConnectingPortAccessor<? >> ports = new ArrayList < ConnectingPortAccessor<? >> ();
+
+        /** Properties Panel (null if page is not realized) */
+        private PortPanel propPanel;
+
+        /** Is page currently in (or close to) viewport? */
+        private boolean visible;
+
+        /** Has user possibly edited values in page since they were last applied or refreshed? */
+        private boolean edited;
+
+        private Page(int firstPort, int portCount) {
+            this.firstPort = firstPort;
+            this.portCount = portCount;
+        }
+
+        /**
+         * @return Height of page - estimated if page has never been realized
+         */
+        private int getHeight() {
+            return height >= 0 ? height : portCount * getEstimatedRowHeight();
+        }
+
+        /**
+         * Creates editor components and port subscriptions for page
+         */
+        private void realize() {
+            for (int i = firstPort; i < firstPort + portCount; i++) {
+                @SuppressWarnings("rawtypes")
+                ConnectingPortAccessor cpa = new ConnectingPortAccessor(displayedPorts.get(i), commonParent.getQualifiedName('/'));
+                ports.add(cpa);
+            }
+            propPanel = new PortPanel(new FinrocComponentFactory(commonParent), new StandardComponentFactory());
+            propPanel.setOpaque(false);
+            propPanel.init(ports, true);
+            List < PropertyEditComponent<? >> components = propPanel.getComponentList();
+            assert(components.size() == ports.size());
+            for (int i = 0; i < ports.size(); i++) {
+                ConnectingPortAccessor<?> cpa = ports.get(i);
+                cpa.setStatisticsEnabled(toolBar.isSelected(DiverseSwitches.showStatistics));
+                cpa.setLatencyMonitoringEnabled(toolBar.isSelected(DiverseSwitches.showLatency));
+                cpa.setUpdateThrottle(UpdateThrottle.maxRate(UpdateThrottle.PROPERTY_EDITOR_RATE));
+                new ChangeForwarder(cpa, components.get(i), propPanel.timestampElements.get(i), displayedPorts.get(firstPort + i).getQualifiedLink());
+                cpa.init();
+            }
+            trackEdits(propPanel, new EditTracker());
+            PortView.this.add(propPanel);
+            if (height >= 0) {
+                measuredPageHeight -= height;
+            } else {
+                measuredPortCount += portCount;
+            }
+            height = propPanel.getPreferredSize().height;
+            measuredPageHeight += height;
+        }
+
+        /**
+         * Registers edit tracker with component and all of its children
+         *
+         * @param component Component
+         * @param tracker Edit tracker
+         */
+        private void trackEdits(Component component, EditTracker tracker) {
+            component.addKeyListener(tracker);
+            component.addMouseListener(tracker);
+            if (component instanceof Container) {
+                for (Component child : ((Container)component).getComponents()) {
+                    trackEdits(child, tracker);
+                }
+            }
+        }
+
+        /**
+         * @return Does page contain edits that would be lost if it was released? (only possible with auto-update off - as Apply only walks realized pages)
+         */
+        private boolean hasPendingEdits() {
+            return edited && propPanel != null && (!toolBar.isSelected(DiverseSwitches.autoUpdate));
+        }
+
+        /**
+         * Deletes editor components and port subscriptions of page
+         */
+        private void release() {
+            for (ConnectingPortAccessor<?> port : ports) {
+                ((ChangeForwarder)port.getListener()).released = true;
+                port.delete();
+            }
+            ports.clear();
+            if (propPanel != null) {
+                PortView.this.remove(propPanel);
+                propPanel = null;
+            }
+            visible = false;
+            edited = false;
+        }
+
+        /**
+         * Enables or disables receiving of port values (when page enters or leaves viewport)
+         *
+         * @param visible Is page visible?
+         */
+        private void setVisible(boolean visible) {
+            this.visible = visible;
+            boolean autoUpdate = visible && toolBar.isSelected(DiverseSwitches.autoUpdate);
+            for (ConnectingPortAccessor<?> port : ports) {
+                port.setAutoUpdate(autoUpdate);
+            }
+        }
+
+        /**
+         * Marks page as edited on user input in any of its editor components
+         * (conservative: any key press or mouse click counts)
+         */
+        private class EditTracker extends MouseAdapter implements KeyListener {
+
+            @Override
+            public void mousePressed(MouseEvent e) {
+                edited = true;
+            }
+
+            @Override
+            public void keyPressed(KeyEvent e) {
+                edited = true;
+            }
+
+            @Override
+            public void keyTyped(KeyEvent e) {
+                edited = true;
+            }
+
+            @Override
+            public void keyReleased(KeyEvent e) {
+            }
+        }
+    }
+
     @Override
     protected synchronized void rootElementChanged(XMLNode expandedElements) {
         ArrayList<RemotePort> tmpResultList = new ArrayList<RemotePort>();
@@ -99,29 +371,23 @@ public class PortView extends FinstructView implements ActionListener {
             tmpResultList.add((RemotePort)getRootElement());
         }
         getRootElement().getPortsBelow(tmpResultList);
-        setLayout(new BorderLayout());
-
-        if (tmpResultList.size() > MAX_PORTS) {
-            Finstruct.showErrorMessage(tmpResultList.size() + " ports selected. Only showing the first " + MAX_PORTS + " (to preserve usability).", false, false);
-            while (tmpResultList.size() > 250) {
-                tmpResultList.remove(tmpResultList.size() - 1);
-            }
-        }
-
         showPorts(tmpResultList);
     }
 
     /**
      * Clears port view (both graphical user elements and finroc ports)
      */
-    public void clear() {
-        super.removeAll();
-
-        // delete panels
-        for (ConnectingPortAccessor<?> panel : ports) {
-            panel.delete();
+    public synchronized void clear() {
+        for (Page page : realizedPages) {
+            page.release();
         }
-        ports.clear();
+        realizedPages.clear();
+        pages.clear();
+        displayedPorts.clear();
+        super.removeAll();
+        totalHeight = 0;
+        measuredPageHeight = 0;
+        measuredPortCount = 0;
     }
 
     /**
@@ -129,7 +395,7 @@ public class PortView extends FinstructView implements ActionListener {
      *
      * @param portsToShow port to show
      */
-    public void showPorts(List<RemotePort> portsToShow) {
+    public synchronized void showPorts(List<RemotePort> portsToShow) {
         clear();
         if (portsToShow.size() == 0) {
             return;
@@ -143,31 +409,242 @@ public class PortView extends FinstructView implements ActionListener {
             }
         }
 
-        // create new panel
+        // create pages
         for (RemotePort port : portsToShow) {
-
             if (FinrocComponentFactory.isTypeSupported(port.getPort().getDataType())) {
-                @SuppressWarnings("rawtypes")
-                ConnectingPortAccessor cpa = new ConnectingPortAccessor(port, commonParent.getQualifiedName('/'));
-                ports.add(cpa);
+                displayedPorts.add(port);
             }
         }
-        propPanel = new PortPanel(new FinrocComponentFactory(commonParent), new StandardComponentFactory());
-        propPanel.setOpaque(false);
-        propPanel.init(ports, true);
-        add(propPanel, BorderLayout.CENTER);
-        List < PropertyEditComponent<? >> components = propPanel.getComponentList();
-        assert(components.size() == ports.size());
-        for (int i = 0; i < ports.size(); i++) {
-            ConnectingPortAccessor<?> cpa = ports.get(i);
-            new ChangeForwarder(cpa, components.get(i), propPanel.timestampElements.get(i));
-            cpa.init();
+        for (int i = 0; i < displayedPorts.size(); i += PAGE_SIZE) {
+            pages.add(new Page(i, Math.min(PAGE_SIZE, displayedPorts.size() - i)));
+        }
+        setLayout(null);
+        updatePages();
+        frameTimer.start();
+        if (plotWindow != null) {
+            plot.setPorts(displayedPorts);
         }
 
         revalidate();
         repaint();
     }
 
+    /**
+     * Realizes pages in viewport, parks pages that left the viewport and discards pages that have not been visible for a while
+     */
+    private synchronized void updatePages() {
+        if (updatingPages || pages.size() == 0) {
+            return;
+        }
+        updatingPages = true;
+        try {
+            layoutPages();
+            Rectangle visibleRect = getVisibleRect();
+            if (visibleRect.height <= 0) {
+                visibleRect = new Rectangle(0, 0, getWidth(), viewport != null ? viewport.getHeight() : DEFAULT_ROW_HEIGHT * PAGE_SIZE); // not displayed yet
+            }
+            int top = visibleRect.y - OVERSCAN;
+            int bottom = visibleRect.y + visibleRect.height + OVERSCAN;
+            boolean heightChanged = false;
+            for (Page page : pages) {
+                boolean inView = page.y < bottom && page.y + page.getHeight() > top;
+                if (inView) {
+                    if (page.propPanel == null) {
+                        int oldHeight = page.getHeight();
+                        page.realize();
+                        page.visible = true;
+                        if (isInPlayback()) {
+                            showRecordedValues(page);
+                        }
+                        heightChanged |= page.height != oldHeight;
+                    } else if (!page.visible) {
+                        page.setVisible(true);
+                    }
+                    realizedPages.remove(page);
+                    realizedPages.add(page);
+                } else if (page.visible) {
+                    page.setVisible(false);
+                }
+            }
+
+            // discard least recently visible pages
+            int parkedPages = 0;
+            for (Page page : realizedPages) {
+                parkedPages += page.visible ? 0 : 1;
+            }
+            for (int i = 0; i < realizedPages.size() && parkedPages > MAX_PARKED_PAGES; i++) {
+                Page page = realizedPages.get(i);
+                if (!page.visible && (!page.hasPendingEdits())) {
+                    page.release();
+                    realizedPages.remove(i);
+                    i--;
+                    parkedPages--;
+                }
+            }
+
+            if (heightChanged) {
+                layoutPages();
+                revalidate();
+            }
+            repaint();
+        } finally {
+            updatingPages = false;
+        }
+    }
+
+    /**
+     * Calculates vertical positions of pages and places realized pages
+     */
+    private void layoutPages() {
+        int y = 0;
+        for (Page page : pages) {
+            page.y = y;
+            y += page.getHeight();
+            if (page.propPanel != null) {
+                page.propPanel.setBounds(0, page.y, getWidth(), page.getHeight());
+            }
+        }
+        totalHeight = y;
+    }
+
+    /**
+     * @return Estimated height of a port row (average of measured pages - maintained incrementally, so this is constant time)
+     */
+    private int getEstimatedRowHeight() {
+        return measuredPortCount > 0 ? Math.max(1, measuredPageHeight / measuredPortCount) : DEFAULT_ROW_HEIGHT;
+    }
+
+    @Override
+    public synchronized void doLayout() {
+        if (pages.size() > 0) {
+            layoutPages();
+        } else {
+            super.doLayout();
+        }
+    }
+
+    @Override
+    public synchronized Dimension getPreferredSize() {
+        if (pages.size() == 0) {
+            return super.getPreferredSize();
+        }
+        int width = 0;
+        for (Page page : realizedPages) {
+            width = Math.max(width, page.propPanel.getPreferredSize().width);
+        }
+        return new Dimension(width, totalHeight);
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        Container parent = getParent();
+        if (parent instanceof JViewport) {
+            viewport = (JViewport)parent;
+            viewport.addChangeListener(this);
+        }
+    }
+
+    @Override
+    public void removeNotify() {
+        if (viewport != null) {
+            viewport.removeChangeListener(this);
+            viewport = null;
+        }
+        super.removeNotify();
+    }
+
+    @Override
+    public void stateChanged(ChangeEvent e) {
+        if (e.getSource() == timeSlider) {
+            if (isInPlayback()) {
+                timeLabel.setText(timeFormat.format(new Date(getPlaybackTime())));
+                for (Page page : realizedPages) {
+                    showRecordedValues(page);
+                }
+            }
+            return;
+        }
+        updatePages(); // viewport was scrolled or resized
+    }
+
+    /**
+     * @return Are recorded values currently displayed instead of live values?
+     */
+    private boolean isInPlayback() {
+        return toolBar != null && toolBar.isSelected(DiverseSwitches.playback);
+    }
+
+    /**
+     * @return Time (in ms) selected with time slider
+     */
+    private long getPlaybackTime() {
+        return playbackStartTime + timeSlider.getValue();
+    }
+
+    /**
+     * Shows recorded values in all editor components of page
+     *
+     * @param page Page
+     */
+    private void showRecordedValues(Page page) {
+        long time = getPlaybackTime();
+        for (ConnectingPortAccessor<?> port : page.ports) {
+            ((ChangeForwarder)port.getListener()).showRecordedValue(time);
+        }
+    }
+
+    /**
+     * Starts or stops recording values of displayed ports
+     *
+     * @param record Start recording? (otherwise stop)
+     */
+    private void setRecording(boolean record) {
+        if (record) {
+            setPlayback(false);
+            if (recorder != null) {
+                recorder.close();
+            }
+            recorder = new PortValueRecorder(PortValueRecorder.DEFAULT_RING_SIZE);
+        }
+        for (Page page : realizedPages) {
+            for (ConnectingPortAccessor<?> port : page.ports) {
+                ((ChangeForwarder)port.getListener()).updateRecordingChannel();
+            }
+        }
+    }
+
+    /**
+     * Starts or stops playback of recorded values
+     *
+     * @param playback Start playback? (otherwise display live values)
+     */
+    private void setPlayback(boolean playback) {
+        if (playback) {
+            long startTime = recorder != null ? recorder.getStartTime() : Long.MAX_VALUE;
+            long endTime = recorder != null ? recorder.getEndTime() : Long.MIN_VALUE;
+            if (startTime > endTime) {
+                toolBar.setSelected(DiverseSwitches.playback, false);
+                Finstruct.showErrorMessage("No values have been recorded yet. Press 'Record' first.", false, false);
+                return;
+            }
+            playbackStartTime = startTime;
+            timeSlider.setMaximum((int)Math.min(Integer.MAX_VALUE, endTime - startTime));
+            timeSlider.setValue(timeSlider.getMaximum());
+            timeSlider.setEnabled(true);
+            stateChanged(new ChangeEvent(timeSlider));
+        } else {
+            toolBar.setSelected(DiverseSwitches.playback, false);
+            timeSlider.setEnabled(false);
+            timeLabel.setText("");
+            for (Page page : realizedPages) {
+                for (ConnectingPortAccessor<?> port : page.ports) {
+                    ((ChangeForwarder)port.getListener()).showLiveValue();
+                }
+            }
+        }
+    }
+
     @Override
     public void initMenuAndToolBar(JMenuBar menuBar, MToolBar toolBar) {
         this.toolBar = toolBar;
@@ -175,30 +652,193 @@ public class PortView extends FinstructView implements ActionListener {
         toolBar.add(new MAction(DiverseSwitches.singleUpdate, "reload-ubuntu.png", "Single Update", this));
         toolBar.add(new MAction(DiverseSwitches.apply, "gtk-apply-ubuntu.png", "Apply", this));
         toolBar.addToggleButton(new MAction(DiverseSwitches.showTimestamps, "clock-ubuntu.png", "Show Timestamps", this), true);
+        toolBar.addToggleButton(new MAction(DiverseSwitches.showStatistics, null, "Show Statistics", this), true);
+        toolBar.addToggleButton(new MAction(DiverseSwitches.showLatency, null, "Show Latency", this), true);
+        toolBar.addSeparator();
+        toolBar.add(metricsLabel);
+        metricsLabel.setToolTipText("Port values displayed, maximum number of changed ports per frame, values skipped (replaced by newer values before they were displayed), deep copies of port values and values served from snapshot cache (all port accessors)");
+        toolBar.addSeparator();
+        toolBar.addToggleButton(new MAction(DiverseSwitches.record, null, "Record", this), true);
+        toolBar.addToggleButton(new MAction(DiverseSwitches.playback, null, "Playback", this), true);
+        toolBar.add(timeSlider);
+        timeSlider.setPreferredSize(new Dimension(200, timeSlider.getPreferredSize().height));
+        timeSlider.setMaximumSize(timeSlider.getPreferredSize());
+        timeSlider.setEnabled(false);
+        timeSlider.addChangeListener(this);
+        toolBar.add(timeLabel);
+        toolBar.addSeparator();
+        toolBar.addToggleButton(new MAction(DiverseSwitches.plot, null, "Plot", this), true);
+    }
+
+    /**
+     * Shows or hides window with live plot of numeric ports
+     *
+     * @param show Show plot?
+     */
+    private void setPlotVisible(boolean show) {
+        if (show && plotWindow == null) {
+            plot.setPorts(displayedPorts);
+            if (plot.getPortCount() == 0) {
+                plot.clear();
+                toolBar.setSelected(DiverseSwitches.plot, false);
+                Finstruct.showErrorMessage("None of the displayed ports is numeric.", false, false);
+                return;
+            }
+            plotWindow = new JFrame("Plot: " + (getRootElement() != null ? getRootElement().getQualifiedName('/') : ""));
+            plotWindow.getContentPane().add(plot);
+            plotWindow.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+            plotWindow.addWindowListener(new WindowAdapter() {
+                @Override
+                public void windowClosed(WindowEvent e) {
+                    if (plotWindow == e.getWindow()) {
+                        setPlotVisible(false);
+                    }
+                }
+            });
+            plotWindow.pack();
+            plotWindow.setVisible(true);
+        } else if ((!show) && plotWindow != null) {
+            JFrame window = plotWindow;
+            plotWindow = null;
+            plot.clear();
+            window.getContentPane().remove(plot);
+            window.dispose();
+            if (toolBar != null) {
+                toolBar.setSelected(DiverseSwitches.plot, false);
+            }
+        }
+    }
+
+    /**
+     * Forwards all changed ports to their editor components (called once per frame)
+     */
+    private void forwardChangedPorts() {
+        int queueDepth = changedPortCount.get();
+        maxQueueDepth = Math.max(maxQueueDepth, queueDepth);
+        ThreadLocalCache.get();
+        for (int i = 0; i < queueDepth; i++) { // ports changing during this loop are forwarded in next frame
+            ChangeForwarder forwarder = changedPorts.poll();
+            if (forwarder == null) {
+                break;
+            }
+            changedPortCount.decrementAndGet();
+            forwarder.changed.set(false);
+            if (!forwarder.released) {
+                forwarder.run();
+                forwardedValues++;
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        if (now - lastMetricsUpdate >= METRICS_INTERVAL) {
+            double seconds = lastMetricsUpdate == 0 ? 1 : (now - lastMetricsUpdate) / 1000.0;
+            long copyCount = PortAccessor.getCopyCount(), cacheHitCount = PortAccessor.getCacheHitCount();
+            metricsLabel.setText(String.format("%.0f updates/s, queue depth max. %d, %.0f skipped/s, %.0f copies/s, %.0f cached/s", forwardedValues / seconds, maxQueueDepth, droppedValues.getAndSet(0) / seconds,
+                                               (copyCount - lastCopyCount) / seconds, (cacheHitCount - lastCacheHitCount) / seconds));
+            lastCopyCount = copyCount;
+            lastCacheHitCount = cacheHitCount;
+            lastMetricsUpdate = now;
+            forwardedValues = 0;
+            maxQueueDepth = 0;
+            updateStatistics();
+        }
+    }
+
+    /**
+     * Updates statistics and latency labels of visible ports
+     */
+    private void updateStatistics() {
+        boolean showStatistics = toolBar.isSelected(DiverseSwitches.showStatistics);
+        boolean showLatency = toolBar.isSelected(DiverseSwitches.showLatency);
+        if (!(showStatistics || showLatency)) {
+            return;
+        }
+        for (Page page : realizedPages) {
+            if (page.visible) {
+                for (int i = 0; i < page.ports.size(); i++) {
+                    if (showStatistics) {
+                        PortStatistics statistics = page.ports.get(i).getStatistics();
+                        page.propPanel.statisticsElements.get(i).setText(statistics != null ? statistics.toString() : "");
+                    }
+                    if (showLatency) {
+                        LatencyMonitor latency = page.ports.get(i).getLatencyMonitor();
+                        page.propPanel.latencyElements.get(i).setText(latency != null ? latency.toString() : "");
+                    }
+                }
+            }
+        }
     }
 
     @Override
     public void actionPerformed(ActionEvent ae) {
+        if (ae.getSource() == frameTimer) {
+            forwardChangedPorts();
+            return;
+        }
         try {
             if (ae instanceof MActionEvent) {
                 @SuppressWarnings("rawtypes")
                 Enum e = ((MActionEvent)ae).getEnumID();
                 if (e == DiverseSwitches.autoUpdate) {
-                    for (ConnectingPortAccessor<?> port : ports) {
-                        port.setAutoUpdate(toolBar.isSelected(DiverseSwitches.autoUpdate));
+                    for (Page page : realizedPages) {
+                        page.setVisible(page.visible);
                     }
+                    updatePages(); // parked pages with edits may be discarded now
                 } else if (e == DiverseSwitches.singleUpdate && (!toolBar.isSelected(DiverseSwitches.autoUpdate))) {
-                    for (ConnectingPortAccessor<?> port : ports) {
-                        ((ChangeForwarder)port.getListener()).initialValueRetrieve = true;
-                        port.setAutoUpdate(true);
+                    for (Page page : realizedPages) {
+                        for (ConnectingPortAccessor<?> port : page.ports) {
+                            ((ChangeForwarder)port.getListener()).initialValueRetrieve = true;
+                            port.setAutoUpdate(true);
+                        }
+                        page.edited = false; // editor values are overwritten
+                    }
+                    updatePages();
+                } else if (e == DiverseSwitches.apply) {
+                    PortValueBatch batch = PortValueBatch.begin(); // send all changes together
+                    try {
+                        for (Page page : realizedPages) {
+                            for (PropertyEditComponent<?> comp : page.propPanel.getComponentList()) {
+                                comp.applyChanges();
+                            }
+                            page.edited = false;
+                        }
+                    } finally {
+                        batch.commit();
+                    }
+                    updatePages();
+                } else if (e == DiverseSwitches.record) {
+                    setRecording(toolBar.isSelected(DiverseSwitches.record));
+                } else if (e == DiverseSwitches.playback) {
+                    setPlayback(toolBar.isSelected(DiverseSwitches.playback));
+                } else if (e == DiverseSwitches.plot) {
+                    setPlotVisible(toolBar.isSelected(DiverseSwitches.plot));
+                } else if (e == DiverseSwitches.showStatistics) {
+                    boolean showStatistics = toolBar.isSelected(DiverseSwitches.showStatistics);
+                    for (Page page : realizedPages) {
+                        for (ConnectingPortAccessor<?> port : page.ports) {
+                            port.setStatisticsEnabled(showStatistics);
+                        }
+                        for (JLabel label : page.propPanel.statisticsElements) {
+                            label.setText("");
+                            label.setVisible(showStatistics);
+                        }
                     }
-                } else if (e == DiverseSwitches.apply && propPanel != null) {
-                    for (PropertyEditComponent<?> comp : propPanel.getComponentList()) {
-                        comp.applyChanges();
+                } else if (e == DiverseSwitches.showLatency) {
+                    boolean showLatency = toolBar.isSelected(DiverseSwitches.showLatency);
+                    for (Page page : realizedPages) {
+                        for (ConnectingPortAccessor<?> port : page.ports) {
+                            port.setLatencyMonitoringEnabled(showLatency);
+                        }
+                        for (JLabel label : page.propPanel.latencyElements) {
+                            label.setText("");
+                            label.setVisible(showLatency);
+                        }
                     }
-                } else if (e == DiverseSwitches.showTimestamps && propPanel != null) {
-                    for (JLabel label : propPanel.timestampElements) {
-                        label.setVisible(toolBar.isSelected(DiverseSwitches.showTimestamps));
+                } else if (e == DiverseSwitches.showTimestamps) {
+                    for (Page page : realizedPages) {
+                        for (JLabel label : page.propPanel.timestampElements) {
+                            label.setVisible(toolBar.isSelected(DiverseSwitches.showTimestamps));
+                        }
                     }
                 }
             }
@@ -232,7 +872,7 @@ public class PortView extends FinstructView implements ActionListener {
 
     /**
      * Customized PropertiesPanel for Port view.
-     * Includes optional text field for time stamps
+     * Includes optional text fields for time stamps, port statistics and latencies
      */
     private class PortPanel extends PropertiesPanel {
 
@@ -242,22 +882,40 @@ public class PortView extends FinstructView implements ActionListener {
         /** All timestamp fields */
         private ArrayList<JLabel> timestampElements = new ArrayList<JLabel>();
 
+        /** All statistics fields */
+        private ArrayList<JLabel> statisticsElements = new ArrayList<JLabel>();
+
+        /** All latency fields */
+        private ArrayList<JLabel> latencyElements = new ArrayList<JLabel>();
+
         /** Gridbag contraints for timestamp */
         private final GridBagConstraints gbc = new GridBagConstraints();
 
         public PortPanel(ComponentFactory... componentFactories) {
             super(componentFactories);
-            gbc.gridx = 2;
         }
 
         @Override
         protected void addComponent(PropertyEditComponent<?> comp, int index, boolean labelAlignmentLeft) {
             super.addComponent(comp, index, labelAlignmentLeft);
             gbc.gridy = index;
+            gbc.gridx = 2;
             JLabel timestampElement = new JLabel();
             timestampElement.setVisible(toolBar.isSelected(DiverseSwitches.showTimestamps));
             timestampElements.add(timestampElement);
             add(timestampElement, gbc);
+            gbc.gridx = 3;
+            JLabel statisticsElement = new JLabel();
+            statisticsElement.setToolTipText("Updates per second, estimated bandwidth (serialized), mean/max. time between values");
+            statisticsElement.setVisible(toolBar.isSelected(DiverseSwitches.showStatistics));
+            statisticsElements.add(statisticsElement);
+            add(statisticsElement, gbc);
+            gbc.gridx = 4;
+            JLabel latencyElement = new JLabel();
+            latencyElement.setToolTipText("Min./median/99th percentile latency between publishing and receiving values (relative to fastest observed transfer, as clocks are not synchronized)");
+            latencyElement.setVisible(toolBar.isSelected(DiverseSwitches.showLatency));
+            latencyElements.add(latencyElement);
+            add(latencyElement, gbc);
         }
     }
 
@@ -281,21 +939,104 @@ public class PortView extends FinstructView implements ActionListener {
         /** Buffer to store timestamp in */
         private final Timestamp timestampBuffer = new Timestamp();
 
-        public ChangeForwarder(ConnectingPortAccessor<?> cpa, PropertyEditComponent<?> component, JLabel timestampElement) {
+        /** Is port currently in queue of changed ports? */
+        private final AtomicBoolean changed = new AtomicBoolean();
+
+        /** Has port been deleted? (set by AWT thread) */
+        private volatile boolean released;
+
+        /** Key of port in recorder */
+        private final String recordingKey;
+
+        /** Channel that port values are recorded to - null if values are not recorded */
+        private volatile PortValueRecorder.Channel recordingChannel;
+
+        /** Buffers for playback of recorded values (created on first use) */
+        private BinarySerializable playbackBuffer;
+        private final Timestamp playbackTimestamp = new Timestamp();
+
+        public ChangeForwarder(ConnectingPortAccessor<?> cpa, PropertyEditComponent<?> component, JLabel timestampElement, String recordingKey) {
             this.port = cpa;
             this.component = component;
             this.timestampElement = timestampElement;
+            this.recordingKey = recordingKey;
+            updateRecordingChannel();
             cpa.setListener(this);
         }
 
+        /**
+         * Updates channel that port values are recorded to (after recording was started or stopped)
+         */
+        private void updateRecordingChannel() {
+            PortValueRecorder currentRecorder = recorder;
+            boolean record = toolBar != null && toolBar.isSelected(DiverseSwitches.record);
+            recordingChannel = record && currentRecorder != null ? currentRecorder.getChannel(recordingKey) : null;
+            if ((recordingChannel != null) != (port.getUpdateThrottle() == null)) { // record all values
+                port.setUpdateThrottle(recordingChannel != null ? null : UpdateThrottle.maxRate(UpdateThrottle.PROPERTY_EDITOR_RATE));
+            }
+        }
+
         @Override
         public void portChanged() {
-            SwingUtilities.invokeLater(this);
+            PortValueRecorder.Channel channel = recordingChannel;
+            if (channel != null) {
+                try {
+                    port.getTimestamp(channel.getTimestampBuffer());
+                    channel.record(System.currentTimeMillis(), channel.getTimestampBuffer(), port.getAutoLocked());
+                } catch (Exception e) {
+                    Log.log(LogLevel.ERROR, this, e);
+                }
+                ThreadLocalCache.getFast().releaseAllLocks();
+            }
+
+            if (changed.getAndSet(true)) {
+                droppedValues.incrementAndGet(); // previous value has not been displayed yet
+            } else {
+                changedPorts.add(this);
+                changedPortCount.incrementAndGet();
+            }
+        }
+
+        /**
+         * Shows recorded value in editor component
+         *
+         * @param time Time (in ms) of value to show (the last value received at or before this time is shown)
+         */
+        @SuppressWarnings({ "rawtypes", "unchecked" })
+        private void showRecordedValue(long time) {
+            PortValueRecorder currentRecorder = recorder;
+            PortValueRecorder.Channel channel = currentRecorder != null ? currentRecorder.findChannel(recordingKey) : null;
+            try {
+                if (playbackBuffer == null) {
+                    playbackBuffer = port.createPlaybackBuffer();
+                }
+                if (channel != null && channel.read(time, playbackTimestamp, playbackBuffer)) {
+                    ((ConnectingPortAccessor)port).setPlaybackValue(playbackBuffer);
+                    component.updateValue();
+                    timestampElement.setText(playbackTimestamp.toString());
+                } else {
+                    timestampElement.setText("(no recorded value)");
+                }
+            } catch (Exception e) {
+                Log.log(LogLevel.ERROR, this, e);
+            }
+        }
+
+        /**
+         * Shows live value in editor component again (after playback)
+         */
+        private void showLiveValue() {
+            port.setPlaybackValue(null);
+            initialValueRetrieve = true;
+            run();
         }
 
         @Override
         public void run() {
             //System.out.println("Running for " + component.toString());
+            if (port.isInPlayback()) {
+                return;
+            }
             ThreadLocalCache.get();
             boolean aa = toolBar.isSelected(DiverseSwitches.autoUpdate);
             boolean upd = initialValueRetrieve;
@@ -323,7 +1064,13 @@ public class PortView extends FinstructView implements ActionListener {
 
     @Override
     protected void destroy() {
+        frameTimer.stop();
         clear();
+        if (recorder != null) {
+            recorder.close();
+            recorder = null;
+        }
+        setPlotVisible(false);
     }
 }
 
@@ -28,12 +28,20 @@ import java.awt.Graphics2D;
 import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.Stroke;
+import java.awt.event.ActionEvent;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 
 import javax.swing.ImageIcon;
 import javax.swing.JLabel;
+import javax.swing.JMenuBar;
+import javax.swing.ProgressMonitor;
 import javax.swing.SwingUtilities;
 
 import org.finroc.core.FrameworkElementFlags;
@@ -47,9 +55,16 @@ import org.finroc.core.remote.RemoteRuntime;
 import org.finroc.plugins.data_types.Paintable;
 import org.finroc.plugins.data_types.TaskProfile;
 import org.finroc.plugins.data_types.TaskProfile.TaskClassification;
-import org.finroc.tools.finstruct.propertyeditor.ConnectingPortAccessor;
-import org.finroc.tools.finstruct.propertyeditor.PortAccessor;
+import org.finroc.tools.finstruct.Finstruct;
+import org.finroc.tools.finstruct.propertyeditor.TaskProfileViewer;
+import org.finroc.tools.finstruct.util.DurationHistory;
+import org.finroc.tools.finstruct.util.ProfileRecorder;
+import org.finroc.tools.finstruct.util.ProfileRecording;
+import org.finroc.tools.gui.util.gui.FileDialog;
 import org.finroc.tools.gui.util.gui.IconManager;
+import org.finroc.tools.gui.util.gui.MAction;
+import org.finroc.tools.gui.util.gui.MActionEvent;
+import org.finroc.tools.gui.util.gui.MToolBar;
 import org.rrlib.logging.Log;
 import org.rrlib.logging.LogLevel;
 
@@ -69,8 +84,26 @@ public class Profiling extends StandardViewGraphViz {
     /** Label for getting node bounds - may only be used in synchronized context */
     private final JLabel testLabel = new JLabel("Test");
 
+    /** Number of samples and maximum width (in pixels) of sparklines with recent execution durations */
+    private static final int SPARKLINE_SAMPLES = 50, SPARKLINE_WIDTH = 50;
+
+    /** Stroke for schedule position badges and sparklines */
+    private static final Stroke BADGE_STROKE = new BasicStroke(3), SPARKLINE_STROKE = new BasicStroke(1);
+
+    /** Key that no profile has (see getKey()) */
+    private static final long UNKNOWN_KEY = Long.MIN_VALUE;
+
     /** Ports to access profiling data */
     private final ArrayList<ProfilingPortConnnection> profilingPorts = new ArrayList<ProfilingPortConnnection>();
+
+    /** Recorder that profiles are currently recorded to - null if profiles are not recorded */
+    private volatile ProfileRecorder recorder;
+
+    /** Reference to toolbar */
+    private MToolBar toolBar;
+
+    /** Toolbar switches */
+    private enum ProfilingSwitches { record, loadRecording, exportRecording }
 //
 //    /** Height of component visualization */
 //    private static final int VISUALIZATION_HEIGHT = 60;
@@ -86,16 +119,235 @@ public class Profiling extends StandardViewGraphViz {
     }
 
     public void clear() {
-        // Delete old ports
-        for (ConnectingPortAccessor<?> port : profilingPorts) {
-            port.delete();
+        // Unsubscribe from profiling ports
+        for (ProfilingPortConnnection connection : profilingPorts) {
+            connection.subscription.unsubscribe(connection);
         }
         profilingPorts.clear();
     }
 
     @Override
     protected void destroy() {
+        super.destroy();
+        clear();
+        stopRecording();
+    }
+
+    @Override
+    public void initMenuAndToolBar(JMenuBar menuBar, MToolBar toolBar) {
+        super.initMenuAndToolBar(menuBar, toolBar);
+        this.toolBar = toolBar;
+        toolBar.addSeparator();
+        toolBar.addToggleButton(new MAction(ProfilingSwitches.record, null, "Record", this));
+        toolBar.add(new MAction(ProfilingSwitches.loadRecording, null, "Load Recording", this));
+        toolBar.add(new MAction(ProfilingSwitches.exportRecording, null, "Export Recording as CSV", this));
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public void actionPerformed(ActionEvent ae) {
+        if (ae instanceof MActionEvent) {
+            Enum e = ((MActionEvent)ae).getEnumID();
+            try {
+                if (e == ProfilingSwitches.record) {
+                    if (toolBar.isSelected(ProfilingSwitches.record)) {
+                        File file = FileDialog.showSaveDialog("Where should task profiles be recorded to?", "fprof");
+                        if (file != null) {
+                            recorder = new ProfileRecorder(file);
+                        } else {
+                            toolBar.setSelected(ProfilingSwitches.record, false);
+                        }
+                    } else {
+                        stopRecording();
+                    }
+                    return;
+                } else if (e == ProfilingSwitches.loadRecording) {
+                    File file = FileDialog.showOpenDialog("Load task profile recording", "fprof");
+                    if (file != null) {
+                        loadRecording(file);
+                    }
+                    return;
+                } else if (e == ProfilingSwitches.exportRecording) {
+                    File file = FileDialog.showOpenDialog("Task profile recording to export", "fprof");
+                    if (file != null) {
+                        File csvFile = FileDialog.showSaveDialog("Where should .csv be saved to?", "csv");
+                        if (csvFile != null) {
+                            exportRecording(file, csvFile);
+                        }
+                    }
+                    return;
+                }
+            } catch (Exception exception) {
+                if (e == ProfilingSwitches.record) {
+                    toolBar.setSelected(ProfilingSwitches.record, false);
+                }
+                Finstruct.showErrorMessage(exception, true);
+                return;
+            }
+        }
+        super.actionPerformed(ae);
+    }
+
+    /**
+     * Stops recording profiles (if profiles are currently recorded)
+     */
+    private void stopRecording() {
+        ProfileRecorder oldRecorder = recorder;
+        recorder = null;
+        if (oldRecorder != null) {
+            oldRecorder.close();
+            Log.log(LogLevel.USER, this, "Recorded " + oldRecorder.getRecordCount() + " task profiles to " + oldRecorder.getFile());
+        }
+    }
+
+    /**
+     * Loads recording on a worker thread (showing progress).
+     * When done, its profiles are displayed and statistics of all tasks are shown in a dialog.
+     *
+     * @param file Base file of recording
+     */
+    private void loadRecording(File file) throws IOException {
+        processRecording(file, "Loading task profile recording", new RecordingTask() {
+            @Override
+            public Object process(ProfileRecording recording, ProfileRecording.ProgressListener listener) {
+                return recording.summarize(listener);
+            }
+
+            @SuppressWarnings("unchecked")
+            @Override
+            public void done(ProfileRecording recording, Object result) {
+                LinkedHashMap<Long, ProfileRecording.TaskSummary> summaries = (LinkedHashMap<Long, ProfileRecording.TaskSummary>)result;
+                showRecording(recording, summaries);
+                TaskProfileViewer.showRecording(getFinstructWindow(), recording, summaries);
+            }
+        });
+    }
+
+    /**
+     * Exports recording to CSV file on a worker thread (showing progress - can be cancelled)
+     *
+     * @param file Base file of recording
+     * @param csvFile File to write to
+     */
+    private void exportRecording(File file, final File csvFile) throws IOException {
+        processRecording(file, "Exporting task profile recording", new RecordingTask() {
+            @Override
+            public Object process(ProfileRecording recording, ProfileRecording.ProgressListener listener) throws Exception {
+                return recording.exportCsv(csvFile, listener) ? Long.valueOf(recording.getRecordCount()) : null;
+            }
+
+            @Override
+            public void done(ProfileRecording recording, Object result) {
+                Log.log(LogLevel.USER, Profiling.this, "Exported " + result + " task profiles to " + csvFile);
+            }
+        });
+    }
+
+    /**
+     * Operation on a recording that is performed on a worker thread (see processRecording())
+     */
+    private interface RecordingTask {
+
+        /**
+         * Performs operation (called on worker thread)
+         *
+         * @param recording Recording
+         * @param listener Progress listener to pass on
+         * @return Result - null if operation was cancelled
+         */
+        Object process(ProfileRecording recording, ProfileRecording.ProgressListener listener) throws Exception;
+
+        /**
+         * Called on AWT thread after operation completed successfully (and was not cancelled)
+         *
+         * @param recording Recording (already closed)
+         * @param result Result of process()
+         */
+        void done(ProfileRecording recording, Object result);
+    }
+
+    /**
+     * Opens recording and processes it on a worker thread - showing progress in a ProgressMonitor that allows cancelling
+     *
+     * @param file Base file of recording
+     * @param title Title of progress monitor and name of worker thread
+     * @param task Operation to perform
+     */
+    private void processRecording(File file, String title, final RecordingTask task) throws IOException {
+        final ProfileRecording recording = new ProfileRecording(file);
+        final int maxProgress = (int)Math.min(Integer.MAX_VALUE, recording.getRecordCount());
+        final ProgressMonitor progressMonitor = new ProgressMonitor(getFinstructWindow(), title, file.getName(), 0, maxProgress);
+        Thread thread = new Thread(title) {
+            @Override
+            public void run() {
+                Object result = null;
+                Exception exception = null;
+                try {
+                    result = task.process(recording, new ProfileRecording.ProgressListener() {
+                        @Override
+                        public boolean progress(final long processedRecords) {
+                            SwingUtilities.invokeLater(new Runnable() {
+                                @Override
+                                public void run() {
+                                    progressMonitor.setProgress((int)Math.min(maxProgress, processedRecords));
+                                }
+                            });
+                            return !progressMonitor.isCanceled();
+                        }
+                    });
+                } catch (Exception e) {
+                    exception = e;
+                } finally {
+                    recording.close();
+                }
+                final Object taskResult = result;
+                final Exception error = exception;
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        progressMonitor.close();
+                        if (error != null) {
+                            Finstruct.showErrorMessage(error, true);
+                        } else if (taskResult != null) {
+                            task.done(recording, taskResult);
+                        }
+                    }
+                });
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Displays profiles from recording (instead of live data) - until next full relayout
+     * Tasks are assigned to vertices by name - so recordings of previous runs can be displayed.
+     *
+     * @param recording Recording to display
+     * @param summaries Summaries of recording (see ProfileRecording.summarize())
+     */
+    private void showRecording(ProfileRecording recording, LinkedHashMap<Long, ProfileRecording.TaskSummary> summaries) {
         clear();
+        HashMap<String, Vertex> verticesByName = new HashMap<String, Vertex>();
+        for (StandardViewGraphViz.Vertex vertex : getVertices()) {
+            ((Vertex)vertex).currentProfiles = null;
+            ((Vertex)vertex).currentHistories = null;
+            if (vertex.getFinrocElement() != null) {
+                verticesByName.put(vertex.getFinrocElement().getQualifiedLink(), (Vertex)vertex);
+            }
+        }
+
+        for (ProfileRecording.TaskSummary summary : summaries.values()) {
+            Vertex vertex = verticesByName.get(recording.getName(summary.lastRecord.handle));
+            if (vertex != null) {
+                TaskProfile profile = new TaskProfile();
+                profile.handle = summary.lastRecord.handle;
+                profile.taskClassification = summary.lastRecord.taskClassification;
+                profile.schedulePosition = summary.lastRecord.schedulePosition;
+                vertex.addProfile(profile, summary.latestDurations);
+            }
+        }
+        repaint();
     }
 
     @Override
@@ -110,27 +362,28 @@ public class Profiling extends StandardViewGraphViz {
     protected Vertex createVertexInstance(ModelNode fe) {
 
         // Look for thread container profiling port
-        ModelNode current = fe;
-        while (current != null) {
-            ModelNode port = current.getChildByQualifiedName("Profiling/Details", '/');
-            if (port instanceof RemotePort && ((RemotePort)port).getPort().getDataType() == TaskProfile.TYPE.getListType()) {
-                for (ProfilingPortConnnection connection : profilingPorts) {
-                    if (((RemotePort)port).getPort() == connection.getConnectedPort()) {
-                        return new Vertex(fe); // a port for this thread container already exists
-                    }
+        RemotePort port = ProfilingSubscription.findDetailsPort(fe);
+        if (port != null) {
+            for (ProfilingPortConnnection connection : profilingPorts) {
+                if (port.getPort() == connection.getConnectedPort()) {
+                    return new Vertex(fe); // a connection for this thread container already exists
                 }
-
-                profilingPorts.add(new ProfilingPortConnnection((RemotePort)port, ""));
-                return new Vertex(fe);
             }
-            current = current.getParent();
+            profilingPorts.add(new ProfilingPortConnnection(port));
         }
-
         return new Vertex(fe);
     }
 
 
 
+    /**
+     * @param profile Task profile
+     * @return Key that identifies task of profile (unique combination of handle and task classification)
+     */
+    private static long getKey(TaskProfile profile) {
+        return ProfileRecorder.getTaskKey(profile.handle, profile.taskClassification);
+    }
+
     @Override
     protected void updateView() {
         super.updateView();
@@ -142,84 +395,139 @@ public class Profiling extends StandardViewGraphViz {
         }
     }
 
-    /** Single connection to profiling details port */
-    private class ProfilingPortConnnection extends ConnectingPortAccessor<TaskProfile.List> implements PortAccessor.Listener {
+    /** Single connection to profiling details port (via subscription shared with other views) */
+    private class ProfilingPortConnnection implements ProfilingSubscription.Listener {
 
-        public ProfilingPortConnnection(RemotePort partner, String rootName) {
-            super(partner, rootName);
-            setListener(this);
-            init();
-            setAutoUpdate(true);
+        /** Subscription to profiling details port */
+        private final ProfilingSubscription subscription;
+
+        public ProfilingPortConnnection(RemotePort detailsPort) {
+            subscription = ProfilingSubscription.subscribe(detailsPort, this);
         }
 
-        /** Profile objects to update on value change */
-        private ArrayList<TaskProfile> profilesToUpdate = new ArrayList<TaskProfile>();
+        /** Preallocated profile objects that are updated on value change (one for each displayed task) */
+        private TaskProfile[] profileSlots = new TaskProfile[0];
+
+        /** Execution duration history for each profile slot */
+        private DurationHistory[] slotHistories = new DurationHistory[0];
+
+        /** Index in profileSlots for each (handle, classification) key (see getKey()) */
+        private final HashMap<Long, Integer> slotLookup = new HashMap<Long, Integer>();
+
+        /**
+         * Key and slot index of profile at each list index in the last update (slot index is -1 if profile is not displayed).
+         * As order of profiles usually does not change, this avoids any lookups (and allocation) in slotLookup.
+         */
+        private long[] keysByListIndex = new long[0];
+        private int[] slotsByListIndex = new int[0];
 
         /** Is the next port data update the initial one? */
         private boolean initialReceive = true;
 
         @Override
-        public void portChanged() {
+        public void profilesChanged(ProfilingSubscription subscription, TaskProfile.List profiles) {
             try {
-                TaskProfile.List profiles = this.getAutoLocked();
+                ProfileRecorder currentRecorder = recorder;
+                if (currentRecorder != null) {
+                    currentRecorder.record(profiles, subscription.getRuntime());
+                }
                 if (initialReceive) {
                     initialReceive = false;
-                    for (int i = 0; i < profiles.size(); i++) {
-                        TaskProfile profile = profiles.get(i);
-                        RemoteRuntime remoteRuntime = RemoteRuntime.find(Profiling.this.getRootElement());
-                        if (remoteRuntime == null) {
-                            return;
-                        }
-                        RemoteFrameworkElement profileElement = remoteRuntime.getRemoteElement(profile.handle);
-                        if (profileElement == null) {
-                            continue;
-                        }
-
-                        // Is task in graph?
-                        for (StandardViewGraphViz.Vertex vertex : Profiling.this.getVertices()) {
-                            if (vertex.getFinrocElement() != null) {
-                                if (vertex.getFinrocElement().getRemoteHandle() == profile.handle ||
-                                        (profileElement.getFlag(FrameworkElementFlags.INTERFACE) &&
-                                         profileElement.getParent() == vertex.getModelElement())) {
-
-                                    // Add profile variable
-                                    TaskProfile profileToUpdate = new TaskProfile();
-                                    profileToUpdate.copyFrom(profile);
-                                    profilesToUpdate.add(profileToUpdate);
-                                    Vertex v = (Vertex)vertex;
-                                    TaskProfile[] newProfiles = null;
-                                    if (v.currentProfiles == null) {
-                                        newProfiles = new TaskProfile[1];
-                                    } else {
-                                        TaskProfile[] old = v.currentProfiles;
-                                        newProfiles = new TaskProfile[old.length + 1];
-                                        System.arraycopy(old, 0, newProfiles, 0, old.length);
-                                    }
-                                    newProfiles[newProfiles.length - 1] = profileToUpdate;
-                                    v.currentProfiles = newProfiles;
-                                }
-                            }
-                        }
-
-                    }
+                    resolveProfiles(profiles);
                 } else {
+                    if (keysByListIndex.length < profiles.size()) {
+                        int oldSize = keysByListIndex.length;
+                        keysByListIndex = Arrays.copyOf(keysByListIndex, profiles.size());
+                        slotsByListIndex = Arrays.copyOf(slotsByListIndex, profiles.size());
+                        Arrays.fill(keysByListIndex, oldSize, keysByListIndex.length, UNKNOWN_KEY);
+                    }
                     for (int i = 0; i < profiles.size(); i++) {
                         TaskProfile profile = profiles.get(i);
-                        for (TaskProfile profileToUpdate : profilesToUpdate) {
-                            if (profileToUpdate.handle == profile.handle && profileToUpdate.taskClassification == profile.taskClassification) {
-                                profileToUpdate.copyFrom(profile);
-                            }
+                        long key = getKey(profile);
+                        if (keysByListIndex[i] != key) {
+                            Integer slot = slotLookup.get(key);
+                            keysByListIndex[i] = key;
+                            slotsByListIndex[i] = slot != null ? slot : -1;
+                        }
+                        if (slotsByListIndex[i] >= 0) {
+                            profileSlots[slotsByListIndex[i]].copyFrom(profile);
+                            slotHistories[slotsByListIndex[i]].add(profile);
                         }
                     }
                 }
             } catch (Exception e) {
                 Log.log(LogLevel.ERROR, e);
             }
-            releaseAllLocks();
+        }
+
+        /**
+         * Resolves profiles of initial update to vertices in graph and creates profile slots for them
+         *
+         * @param profiles Profiles of initial update
+         */
+        private void resolveProfiles(TaskProfile.List profiles) {
+            RemoteRuntime remoteRuntime = RemoteRuntime.find(Profiling.this.getRootElement());
+            if (remoteRuntime == null) {
+                return;
+            }
+
+            // Lookup tables for vertices
+            HashMap<Integer, Vertex> verticesByHandle = new HashMap<Integer, Vertex>();
+            HashMap<ModelNode, Vertex> verticesByElement = new HashMap<ModelNode, Vertex>();
+            for (StandardViewGraphViz.Vertex vertex : Profiling.this.getVertices()) {
+                if (vertex.getFinrocElement() != null) {
+                    verticesByHandle.put(vertex.getFinrocElement().getRemoteHandle(), (Vertex)vertex);
+                    verticesByElement.put(vertex.getModelElement(), (Vertex)vertex);
+                }
+            }
+
+            ArrayList<TaskProfile> slots = new ArrayList<TaskProfile>();
+            ArrayList<DurationHistory> histories = new ArrayList<DurationHistory>();
+            keysByListIndex = new long[profiles.size()];
+            slotsByListIndex = new int[profiles.size()];
+            for (int i = 0; i < profiles.size(); i++) {
+                TaskProfile profile = profiles.get(i);
+                long key = getKey(profile);
+                keysByListIndex[i] = key;
+                slotsByListIndex[i] = -1;
+                RemoteFrameworkElement profileElement = remoteRuntime.getRemoteElement(profile.handle);
+                if (profileElement == null) {
+                    continue;
+                }
+
+                // Is task in graph?
+                Vertex vertex = verticesByHandle.get(profile.handle);
+                Vertex interfaceVertex = profileElement.getFlag(FrameworkElementFlags.INTERFACE) ? verticesByElement.get(profileElement.getParent()) : null;
+                if (vertex == null && interfaceVertex == null) {
+                    continue;
+                }
+
+                // Add profile slot
+                Integer slot = slotLookup.get(key);
+                if (slot == null) {
+                    TaskProfile profileToUpdate = new TaskProfile();
+                    profileToUpdate.copyFrom(profile);
+                    DurationHistory history = new DurationHistory();
+                    history.add(profile);
+                    slot = slots.size();
+                    slots.add(profileToUpdate);
+                    histories.add(history);
+                    slotLookup.put(key, slot);
+                }
+                slotsByListIndex[i] = slot;
+                if (vertex != null) {
+                    vertex.addProfile(slots.get(slot), histories.get(slot));
+                }
+                if (interfaceVertex != null && interfaceVertex != vertex) {
+                    interfaceVertex.addProfile(slots.get(slot), histories.get(slot));
+                }
+            }
+            slotHistories = histories.toArray(new DurationHistory[histories.size()]);
+            profileSlots = slots.toArray(new TaskProfile[slots.size()]);
         }
 
         private AbstractPort getConnectedPort() {
-            return partner;
+            return subscription.getDetailsPort().getPort();
         }
     }
 
@@ -235,10 +543,68 @@ public class Profiling extends StandardViewGraphViz {
          */
         private TaskProfile[] currentProfiles;
 
+        /** Execution duration histories of profiles above (same order) */
+        private DurationHistory[] currentHistories;
+
+        /** Buffers for drawing sparklines (allocated once) */
+        private final long[] sparklineSamples = new long[SPARKLINE_SAMPLES];
+        private final int[] sparklineX = new int[SPARKLINE_SAMPLES], sparklineY = new int[SPARKLINE_SAMPLES];
+
         public Vertex(ModelNode node) {
             super(node);
         }
 
+        /**
+         * Adds profile to profiles displayed with this vertex
+         *
+         * @param profile Profile object (updated on value change)
+         * @param history Execution duration history of task
+         */
+        private void addProfile(TaskProfile profile, DurationHistory history) {
+            TaskProfile[] newProfiles = null;
+            DurationHistory[] newHistories = null;
+            if (currentProfiles == null) {
+                newProfiles = new TaskProfile[1];
+                newHistories = new DurationHistory[1];
+            } else {
+                newProfiles = Arrays.copyOf(currentProfiles, currentProfiles.length + 1);
+                newHistories = Arrays.copyOf(currentHistories, currentHistories.length + 1);
+            }
+            newProfiles[newProfiles.length - 1] = profile;
+            newHistories[newHistories.length - 1] = history;
+            currentHistories = newHistories;
+            currentProfiles = newProfiles;
+        }
+
+        /**
+         * Draws sparkline with recent execution durations of task
+         *
+         * @param g2d Graphics object
+         * @param history Execution duration history of task
+         * @param x Left x coordinate of sparkline
+         * @param centerY Vertical center of sparkline
+         * @param width Width of sparkline
+         * @param height Height of sparkline
+         */
+        private void drawSparkline(Graphics2D g2d, DurationHistory history, int x, int centerY, int width, int height) {
+            int count = history.getLatest(sparklineSamples);
+            if (count < 2) {
+                return;
+            }
+            long max = 1;
+            for (int i = 0; i < count; i++) {
+                max = Math.max(max, sparklineSamples[i]);
+            }
+            int bottom = centerY + height / 2;
+            for (int i = 0; i < count; i++) {
+                sparklineX[i] = x + (SPARKLINE_SAMPLES - count + i) * width / SPARKLINE_SAMPLES;
+                sparklineY[i] = bottom - (int)(sparklineSamples[i] * height / max);
+            }
+            g2d.setColor(Color.darkGray);
+            g2d.setStroke(SPARKLINE_STROKE);
+            g2d.drawPolyline(sparklineX, sparklineY, count);
+        }
+
         /**
          * Paint Vertex
          *
@@ -258,8 +624,13 @@ public class Profiling extends StandardViewGraphViz {
 
                 // Draw
                 int currentYOffset = START_Y_OFFSET + rect.y;
-                for (TaskProfile profile : currentProfiles) {
-                    g2d.setStroke(new BasicStroke(3));
+                for (int i = 0; i < currentProfiles.length; i++) {
+                    TaskProfile profile = currentProfiles[i];
+                    int sparklineWidth = Math.min(SPARKLINE_WIDTH, rect.width - RADIUS - 6); // inside vertex - left of badge
+                    if (sparklineWidth > 10) {
+                        drawSparkline(g2d, currentHistories[i], rect.x + rect.width - RADIUS - 3 - sparklineWidth, currentYOffset, sparklineWidth, 2 * RADIUS - 2);
+                    }
+                    g2d.setStroke(BADGE_STROKE);
                     g2d.setColor(Color.white);
                     g2d.fillOval(rect.x + rect.width - RADIUS, currentYOffset - RADIUS, 2 * RADIUS, 2 * RADIUS);
                     g2d.setColor(profile.taskClassification == TaskClassification.SENSE ? Color.yellow : (profile.taskClassification == TaskClassification.CONTROL ? Color.red : Color.gray));
@@ -0,0 +1,168 @@
+//
+// You received this file as part of Finroc
+// A framework for intelligent robot control
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.finroc.tools.finstruct.views;
+
+import java.util.HashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.finroc.core.port.AbstractPort;
+import org.finroc.core.port.ThreadLocalCache;
+import org.finroc.core.remote.ModelNode;
+import org.finroc.core.remote.RemotePort;
+import org.finroc.core.remote.RemoteRuntime;
+import org.finroc.plugins.data_types.TaskProfile;
+import org.finroc.tools.finstruct.propertyeditor.ConnectingPortAccessor;
+import org.finroc.tools.finstruct.propertyeditor.PortAccessor;
+import org.rrlib.logging.Log;
+import org.rrlib.logging.LogLevel;
+
+/**
+ * @author Max Reichardt
+ *
+ * Connection to the profiling details port of a thread container.
+ *
+ * There is at most one subscription per thread container - shared by all views that display profiling data.
+ * The subscription is deleted when its last listener unsubscribes.
+ */
+public class ProfilingSubscription extends ConnectingPortAccessor<TaskProfile.List> implements PortAccessor.Listener {
+
+    /** Listener for profile updates */
+    public interface Listener {
+
+        /**
+         * Called whenever new profiles are received (by thread that receives port data)
+         *
+         * @param subscription Subscription that received profiles
+         * @param profiles Current profiles (first entry contains totals of thread container). Only valid during call.
+         */
+        public void profilesChanged(ProfilingSubscription subscription, TaskProfile.List profiles);
+    }
+
+    /** Qualified name of profiling details port below thread container */
+    public static final String DETAILS_PORT_NAME = "Profiling/Details";
+
+    /** Active subscriptions */
+    private static final HashMap<AbstractPort, ProfilingSubscription> subscriptions = new HashMap<AbstractPort, ProfilingSubscription>();
+
+    /** Listeners of this subscription */
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    /** Remote details port */
+    private final RemotePort detailsPort;
+
+    /** Runtime that profiles originate from */
+    private final RemoteRuntime runtime;
+
+    private ProfilingSubscription(RemotePort detailsPort) {
+        super(detailsPort, "");
+        this.detailsPort = detailsPort;
+        runtime = RemoteRuntime.find(detailsPort);
+        setListener(this);
+        init();
+        setAutoUpdate(true);
+    }
+
+    /**
+     * Subscribes to profiles of thread container
+     *
+     * @param detailsPort Profiling details port of thread container
+     * @param listener Listener to add
+     * @return Subscription (shared with other listeners)
+     */
+    public static ProfilingSubscription subscribe(RemotePort detailsPort, Listener listener) {
+        synchronized (subscriptions) {
+            ProfilingSubscription subscription = subscriptions.get(detailsPort.getPort());
+            if (subscription == null) {
+                subscription = new ProfilingSubscription(detailsPort);
+                subscriptions.put(detailsPort.getPort(), subscription);
+            }
+            subscription.listeners.add(listener);
+            return subscription;
+        }
+    }
+
+    /**
+     * Removes listener from subscription. Deletes subscription if it has no more listeners.
+     *
+     * @param listener Listener to remove
+     */
+    public void unsubscribe(Listener listener) {
+        synchronized (subscriptions) {
+            listeners.remove(listener);
+            if (listeners.isEmpty() && subscriptions.get(partner) == this) {
+                subscriptions.remove(partner);
+                delete();
+            }
+        }
+    }
+
+    /**
+     * @param node Node
+     * @return Profiling details port of thread container that node belongs to - null if there is none
+     */
+    public static RemotePort findDetailsPort(ModelNode node) {
+        ModelNode current = node;
+        while (current != null) {
+            ModelNode port = current.getChildByQualifiedName(DETAILS_PORT_NAME, '/');
+            if (isDetailsPort(port)) {
+                return (RemotePort)port;
+            }
+            current = current.getParent();
+        }
+        return null;
+    }
+
+    /**
+     * @param node Node
+     * @return True if node is a profiling details port
+     */
+    public static boolean isDetailsPort(ModelNode node) {
+        return node instanceof RemotePort && ((RemotePort)node).getPort().getDataType() == TaskProfile.TYPE.getListType();
+    }
+
+    /**
+     * @return Remote details port
+     */
+    public RemotePort getDetailsPort() {
+        return detailsPort;
+    }
+
+    /**
+     * @return Runtime that profiles originate from (null if it cannot be determined)
+     */
+    public RemoteRuntime getRuntime() {
+        return runtime;
+    }
+
+    @Override
+    public void portChanged() {
+        try {
+            TaskProfile.List profiles = getAutoLocked();
+            for (Listener listener : listeners) {
+                listener.profilesChanged(this, profiles);
+            }
+        } catch (Exception e) {
+            Log.log(LogLevel.ERROR, e);
+        }
+        ThreadLocalCache.getFast().releaseAllLocks();
+    }
+}
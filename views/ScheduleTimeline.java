@@ -0,0 +1,432 @@
+//
+// You received this file as part of Finroc
+// A framework for intelligent robot control
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.finroc.tools.finstruct.views;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Stroke;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javax.swing.JLabel;
+import javax.swing.JMenuBar;
+import javax.swing.JSpinner;
+import javax.swing.SpinnerNumberModel;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+import org.finroc.core.remote.ModelNode;
+import org.finroc.core.remote.RemotePort;
+import org.finroc.plugins.data_types.TaskProfile;
+import org.finroc.plugins.data_types.TaskProfile.TaskClassification;
+import org.finroc.tools.finstruct.FinstructView;
+import org.finroc.tools.finstruct.util.DurationHistory;
+import org.finroc.tools.finstruct.util.ProfileRecorder;
+import org.finroc.tools.gui.util.gui.MToolBar;
+import org.rrlib.xml.XMLNode;
+
+/**
+ * @author Max Reichardt
+ *
+ * Displays the last cycle of each thread container below the root element as timeline of task bars
+ * (in schedule order, bar length is last execution duration).
+ *
+ * The thread container with the longest cycle is outlined, cycles exceeding
+ * the configured cycle time are highlighted.
+ * Profile updates only copy primitive values to preallocated arrays and mark lanes as changed -
+ * only lanes that changed are repainted (at most with the view update rate).
+ * Painting does not allocate any objects - so this view also keeps up with thread containers running at 1 kHz.
+ */
+public class ScheduleTimeline extends FinstructView implements ChangeListener {
+
+    /** UID */
+    private static final long serialVersionUID = -2416503787411095117L;
+
+    /** Height of a lane (in pixels) */
+    private static final int LANE_HEIGHT = 32;
+
+    /** Height of task bars (in pixels) */
+    private static final int BAR_HEIGHT = 20;
+
+    /** Width of column with thread container names (in pixels) */
+    private static final int LABEL_WIDTH = 220;
+
+    /** Margin around timeline (in pixels) */
+    private static final int MARGIN = 10;
+
+    /** Displayed time range relative to cycle time */
+    private static final double TIME_RANGE_FACTOR = 1.5;
+
+    /** Default cycle time (in milliseconds) */
+    private static final double CYCLE_TIME_DEFAULT = 40;
+
+    /** Colors */
+    private static final Color SENSE_COLOR = new Color(255, 255, 160), CONTROL_COLOR = new Color(255, 180, 180), OTHER_COLOR = new Color(210, 210, 210),
+                               LANE_COLOR = Color.white, ALTERNATE_LANE_COLOR = new Color(245, 245, 245), OVERRUN_LANE_COLOR = new Color(255, 225, 225),
+                               OVERRUN_COLOR = new Color(220, 0, 0), CYCLE_MARKER_COLOR = new Color(0, 0, 200);
+
+    /** Strokes */
+    private static final Stroke DEFAULT_STROKE = new BasicStroke(1), SLOWEST_LANE_STROKE = new BasicStroke(3);
+
+    /** Cycle time of thread containers (in milliseconds) */
+    private final JSpinner cycleTime = new JSpinner(new SpinnerNumberModel(CYCLE_TIME_DEFAULT, 0.1, 10000.0, 1.0));
+
+    /** Lanes - one for each thread container */
+    private final ArrayList<Lane> lanes = new ArrayList<Lane>();
+
+    /** Lane of thread container with longest cycle - currently outlined (-1 if none) */
+    private int slowestLane = -1;
+
+    /** Buffer for clip bounds (avoids allocation in paintComponent) */
+    private final Rectangle clipBounds = new Rectangle();
+
+    /** Buffer for formatting durations (avoids allocation in paintComponent) */
+    private final char[] textBuffer = new char[32];
+
+    @Override
+    protected synchronized void rootElementChanged(XMLNode viewConfiguration) {
+        clear();
+        if (viewConfiguration != null) {
+            try {
+                cycleTime.setValue(viewConfiguration.getDoubleAttribute("cycle-time"));
+            } catch (Exception e) {
+                cycleTime.setValue(CYCLE_TIME_DEFAULT);
+            }
+        }
+
+        ArrayList<RemotePort> detailsPorts = new ArrayList<RemotePort>();
+        RemotePort parentPort = ProfilingSubscription.findDetailsPort(getRootElement());
+        if (parentPort != null) {
+            detailsPorts.add(parentPort);
+        }
+        ArrayList<RemotePort> portsBelow = new ArrayList<RemotePort>();
+        getRootElement().getPortsBelow(portsBelow);
+        for (RemotePort port : portsBelow) {
+            if (ProfilingSubscription.isDetailsPort(port) && !detailsPorts.contains(port)) {
+                detailsPorts.add(port);
+            }
+        }
+
+        for (RemotePort port : detailsPorts) {
+            lanes.add(new Lane(port));
+        }
+        setPreferredSize(new Dimension(LABEL_WIDTH + 800, 2 * MARGIN + Math.max(1, lanes.size()) * LANE_HEIGHT));
+        revalidate();
+        repaint();
+    }
+
+    /**
+     * Removes all lanes and unsubscribes from profiling ports
+     */
+    private void clear() {
+        for (Lane lane : lanes) {
+            lane.subscription.unsubscribe(lane);
+        }
+        lanes.clear();
+        slowestLane = -1;
+    }
+
+    @Override
+    protected synchronized void destroy() {
+        clear();
+    }
+
+    @Override
+    public void storeViewConfiguration(XMLNode node) {
+        if (((Number)cycleTime.getValue()).doubleValue() != CYCLE_TIME_DEFAULT) {
+            node.setAttribute("cycle-time", ((Number)cycleTime.getValue()).doubleValue());
+        }
+    }
+
+    @Override
+    public void initMenuAndToolBar(JMenuBar menuBar, MToolBar toolBar) {
+        toolBar.add(new JLabel("Cycle time [ms] "));
+        toolBar.add(cycleTime);
+        cycleTime.addChangeListener(this);
+        cycleTime.setPreferredSize(new Dimension(80, cycleTime.getPreferredSize().height));
+        cycleTime.setMaximumSize(cycleTime.getPreferredSize());
+    }
+
+    @Override
+    public void stateChanged(ChangeEvent e) {
+        repaint();
+    }
+
+    @Override
+    protected synchronized void updateView() {
+        int newSlowestLane = -1;
+        long maxCycleDuration = 0;
+        for (int i = 0; i < lanes.size(); i++) {
+            Lane lane = lanes.get(i);
+            if (lane.cycleDuration > maxCycleDuration) {
+                maxCycleDuration = lane.cycleDuration;
+                newSlowestLane = i;
+            }
+            if (lane.changed) {
+                lane.changed = false;
+                repaintLane(i);
+            }
+        }
+        if (newSlowestLane != slowestLane) {
+            repaintLane(slowestLane);
+            repaintLane(newSlowestLane);
+            slowestLane = newSlowestLane;
+        }
+    }
+
+    /**
+     * Repaints area of lane
+     *
+     * @param laneIndex Index of lane (nothing is repainted if index is negative)
+     */
+    private void repaintLane(int laneIndex) {
+        if (laneIndex >= 0) {
+            repaint(0, MARGIN + laneIndex * LANE_HEIGHT, getWidth(), LANE_HEIGHT);
+        }
+    }
+
+    @Override
+    public synchronized void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        Graphics2D g2d = (Graphics2D)g;
+        g.getClipBounds(clipBounds);
+        FontMetrics metrics = g.getFontMetrics();
+        int timelineX = LABEL_WIDTH + MARGIN;
+        int timelineWidth = Math.max(1, getWidth() - timelineX - MARGIN);
+        long cycleTimeNs = (long)(((Number)cycleTime.getValue()).doubleValue() * 1000000);
+        double pixelsPerNs = timelineWidth / (cycleTimeNs * TIME_RANGE_FACTOR);
+        int cycleMarkerX = timelineX + (int)(cycleTimeNs * pixelsPerNs);
+        int textOffset = (LANE_HEIGHT + metrics.getAscent() - metrics.getDescent()) / 2;
+
+        for (int i = 0; i < lanes.size(); i++) {
+            int laneY = MARGIN + i * LANE_HEIGHT;
+            if (laneY + LANE_HEIGHT < clipBounds.y || laneY > clipBounds.y + clipBounds.height) {
+                continue;
+            }
+            Lane lane = lanes.get(i);
+            synchronized (lane) {
+                boolean overrun = lane.cycleDuration > cycleTimeNs;
+                g.setColor(overrun ? OVERRUN_LANE_COLOR : ((i % 2) == 0 ? LANE_COLOR : ALTERNATE_LANE_COLOR));
+                g.fillRect(0, laneY, getWidth(), LANE_HEIGHT);
+                g.setColor(Color.black);
+                g.drawString(lane.name, MARGIN, laneY + textOffset);
+
+                // task bars
+                int barY = laneY + (LANE_HEIGHT - BAR_HEIGHT) / 2;
+                g2d.setStroke(i == slowestLane ? SLOWEST_LANE_STROKE : DEFAULT_STROKE);
+                long start = 0;
+                for (int j = 0; j < lane.count; j++) {
+                    int index = lane.order[j];
+                    long end = start + lane.durations[index];
+                    int x1 = timelineX + (int)(start * pixelsPerNs);
+                    int x2 = timelineX + (int)(end * pixelsPerNs);
+                    start = end;
+                    if (x1 > timelineX + timelineWidth) {
+                        break;
+                    }
+                    x2 = Math.min(x2, timelineX + timelineWidth);
+                    if (x2 <= x1) {
+                        continue;
+                    }
+                    g.setColor(getColor(lane.classifications[index]));
+                    g.fillRect(x1, barY, x2 - x1, BAR_HEIGHT);
+                    if (overrun && x2 > cycleMarkerX) {
+                        int overrunX = Math.max(x1, cycleMarkerX);
+                        g.setColor(OVERRUN_COLOR);
+                        g.fillRect(overrunX, barY, x2 - overrunX, BAR_HEIGHT);
+                    }
+                    g.setColor(Color.darkGray);
+                    g.drawRect(x1, barY, x2 - x1, BAR_HEIGHT);
+                    String name = lane.names[index];
+                    if (name != null && x2 - x1 > metrics.stringWidth(name) + 4) {
+                        g.setColor(Color.black);
+                        g.drawString(name, x1 + 2, laneY + textOffset);
+                    }
+                }
+                g2d.setStroke(DEFAULT_STROKE);
+
+                // cycle duration
+                if (lane.count > 0) {
+                    int length = formatDuration(lane.cycleDuration, textBuffer);
+                    int textX = Math.min(timelineX + (int)(lane.cycleDuration * pixelsPerNs), timelineX + timelineWidth) + 4;
+                    textX = Math.min(textX, getWidth() - metrics.charsWidth(textBuffer, 0, length) - 2);
+                    g.setColor(overrun ? OVERRUN_COLOR : Color.black);
+                    g.drawChars(textBuffer, 0, length, textX, laneY + textOffset);
+                }
+            }
+        }
+
+        // cycle time marker
+        g.setColor(CYCLE_MARKER_COLOR);
+        g.drawLine(cycleMarkerX, MARGIN, cycleMarkerX, MARGIN + Math.max(1, lanes.size()) * LANE_HEIGHT);
+    }
+
+    /**
+     * @param classification Task classification (ordinal)
+     * @return Color of task bars with this classification
+     */
+    private static Color getColor(byte classification) {
+        if (classification == TaskClassification.SENSE.ordinal()) {
+            return SENSE_COLOR;
+        } else if (classification == TaskClassification.CONTROL.ordinal()) {
+            return CONTROL_COLOR;
+        }
+        return OTHER_COLOR;
+    }
+
+    /**
+     * Formats duration in milliseconds with three decimal places (without allocating any objects)
+     *
+     * @param duration Duration in nanoseconds
+     * @param buffer Buffer to write characters to
+     * @return Number of characters written
+     */
+    private static int formatDuration(long duration, char[] buffer) {
+        long micros = Math.max(0, duration / 1000);
+        int length = 0;
+        long millis = micros / 1000;
+        long divisor = 1;
+        while (divisor * 10 <= millis) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            buffer[length++] = (char)('0' + (millis / divisor) % 10);
+        }
+        buffer[length++] = '.';
+        long fraction = micros % 1000;
+        buffer[length++] = (char)('0' + fraction / 100);
+        buffer[length++] = (char)('0' + (fraction / 10) % 10);
+        buffer[length++] = (char)('0' + fraction % 10);
+        buffer[length++] = ' ';
+        buffer[length++] = 'm';
+        buffer[length++] = 's';
+        return length;
+    }
+
+    /**
+     * Timeline of a single thread container
+     *
+     * Stores task data of the last cycle in arrays that are only reallocated when the number of tasks grows.
+     */
+    private class Lane implements ProfilingSubscription.Listener {
+
+        /** Subscription to profiling details port */
+        private final ProfilingSubscription subscription;
+
+        /** Name of thread container */
+        private final String name;
+
+        /** Number of tasks */
+        private int count;
+
+        /** Task data (index as in profile list - without totals entry) */
+        private int[] handles = new int[0], schedulePositions = new int[0];
+        private long[] durations = new long[0];
+        private byte[] classifications = new byte[0];
+
+        /** Task names (short) - only looked up when handle changes */
+        private String[] names = new String[0];
+
+        /** Task indices sorted by schedule position */
+        private int[] order = new int[0];
+
+        /** Sum of task durations in last cycle (in nanoseconds) */
+        private volatile long cycleDuration;
+
+        /** Has data changed since lane was last repainted? */
+        private volatile boolean changed;
+
+        private Lane(RemotePort detailsPort) {
+            ModelNode profilingInterface = (ModelNode)detailsPort.getParent();
+            ModelNode threadContainer = profilingInterface != null ? (ModelNode)profilingInterface.getParent() : null;
+            name = threadContainer != null ? threadContainer.getQualifiedName('/') : detailsPort.getQualifiedName('/');
+            subscription = ProfilingSubscription.subscribe(detailsPort, this);
+        }
+
+        @Override
+        public synchronized void profilesChanged(ProfilingSubscription subscription, TaskProfile.List profiles) {
+            int newCount = Math.max(0, profiles.size() - 1);
+            ensureCapacity(newCount);
+            long sum = 0;
+            for (int i = 0; i < newCount; i++) {
+                TaskProfile profile = profiles.get(i + 1);
+                if (i >= count || handles[i] != profile.handle || names[i] == null) {
+                    handles[i] = profile.handle;
+                    names[i] = getShortName(ProfileRecorder.getTaskName(subscription.getRuntime(), profile.handle));
+                }
+                schedulePositions[i] = profile.schedulePosition;
+                durations[i] = DurationHistory.getLastExecutionDuration(profile);
+                classifications[i] = (byte)profile.taskClassification.ordinal();
+                sum += durations[i];
+            }
+            if (newCount != count) {
+                for (int i = 0; i < newCount; i++) {
+                    order[i] = i;
+                }
+                count = newCount;
+            }
+
+            // insertion sort: order is usually unchanged, so this is linear
+            for (int i = 1; i < count; i++) {
+                int index = order[i];
+                int j = i - 1;
+                while (j >= 0 && schedulePositions[order[j]] > schedulePositions[index]) {
+                    order[j + 1] = order[j];
+                    j--;
+                }
+                order[j + 1] = index;
+            }
+            cycleDuration = sum;
+            changed = true;
+        }
+
+        /**
+         * Enlarges arrays if they cannot hold the specified number of tasks
+         *
+         * @param capacity Required capacity
+         */
+        private void ensureCapacity(int capacity) {
+            if (handles.length >= capacity) {
+                return;
+            }
+            handles = Arrays.copyOf(handles, capacity);
+            schedulePositions = Arrays.copyOf(schedulePositions, capacity);
+            durations = Arrays.copyOf(durations, capacity);
+            classifications = Arrays.copyOf(classifications, capacity);
+            names = Arrays.copyOf(names, capacity);
+            order = Arrays.copyOf(order, capacity);
+        }
+
+        /**
+         * @param qualifiedName Qualified name of task
+         * @return Last element of name
+         */
+        private String getShortName(String qualifiedName) {
+            return qualifiedName.substring(qualifiedName.lastIndexOf('/') + 1);
+        }
+    }
+}
@@ -52,9 +52,11 @@ import java.awt.image.RGBImageFilter;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 
 import javax.swing.JButton;
+import javax.swing.JComboBox;
 import javax.swing.JLabel;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
@@ -63,6 +65,7 @@ import javax.swing.JSpinner;
 import javax.swing.JToggleButton;
 import javax.swing.SpinnerNumberModel;
 import javax.swing.Timer;
+import javax.swing.ToolTipManager;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 
@@ -148,12 +151,33 @@ public class StandardViewGraphViz extends AbstractGraphView<StandardViewGraphViz
 
     private static final double NODE_SEP_DEFAULT = 0.25, RANK_SEP_DEFAULT = 0.5;
 
+
     /** Spinners in toolbar */
     private JSpinner nodeSep = new JSpinner(new SpinnerNumberModel(NODE_SEP_DEFAULT, 0.05, 2.0, 0.05));
     private JSpinner rankSep = new JSpinner(new SpinnerNumberModel(RANK_SEP_DEFAULT, 0.05, 2.0, 0.05));
 
     /** Diverse toolbar switches */
-    protected enum DiverseSwitches { antialiasing, lineBreaks, constructionPanel }
+    protected enum DiverseSwitches { antialiasing, lineBreaks, constructionPanel, heatmap, portStatistics, throughput }
+
+    /** Execution-time heatmap overlay */
+    private final ExecutionTimeHeatmap heatmap = new ExecutionTimeHeatmap();
+
+    /** Heatmap settings in toolbar */
+    private final JComboBox heatmapMetric = new JComboBox(ExecutionTimeHeatmap.Metric.values());
+    private final JComboBox heatmapColorScale = new JComboBox(ExecutionTimeHeatmap.ColorScale.values());
+    private final JSpinner heatmapMaximum = new JSpinner(new SpinnerNumberModel(0.0, 0.0, 10000.0, 0.5));
+
+    /** Update rate and bandwidth annotations for edges */
+    private final PortStatisticsOverlay portStatistics = new PortStatisticsOverlay();
+
+    /** Data-flow throughput overlay for edges */
+    private final ThroughputOverlay throughput = new ThroughputOverlay();
+
+    /** Throughput overlay settings in toolbar */
+    private final JComboBox throughputMetric = new JComboBox(ThroughputOverlay.Metric.values());
+
+    /** Font for edge annotations */
+    private static final Font ANNOTATION_FONT = FONT.deriveFont(FONT.getSize2D() * 0.8f);
 
     /** Zoom factor */
     private float zoom = 1.0f;
@@ -315,6 +339,46 @@ public class StandardViewGraphViz extends AbstractGraphView<StandardViewGraphViz
             } catch (Exception e) {
                 nodeSep.setValue(NODE_SEP_DEFAULT);
             }
+            try {
+                toolBar.setSelected(DiverseSwitches.heatmap, viewConfiguration.getBoolAttribute("heatmap"));
+            } catch (Exception e) {
+                toolBar.setSelected(DiverseSwitches.heatmap, false);
+            }
+            try {
+                heatmapMetric.setSelectedItem(ExecutionTimeHeatmap.Metric.valueOf(viewConfiguration.getStringAttribute("heatmap-metric")));
+            } catch (Exception e) {
+                heatmapMetric.setSelectedItem(ExecutionTimeHeatmap.Metric.Average);
+            }
+            try {
+                heatmapColorScale.setSelectedItem(ExecutionTimeHeatmap.ColorScale.valueOf(viewConfiguration.getStringAttribute("heatmap-color-scale")));
+            } catch (Exception e) {
+                heatmapColorScale.setSelectedItem(ExecutionTimeHeatmap.ColorScale.Heat);
+            }
+            try {
+                heatmapMaximum.setValue(viewConfiguration.getDoubleAttribute("heatmap-maximum"));
+            } catch (Exception e) {
+                heatmapMaximum.setValue(0.0);
+            }
+            try {
+                heatmap.setUpdateInterval(viewConfiguration.getIntAttribute("heatmap-update-interval"));
+            } catch (Exception e) {
+                heatmap.setUpdateInterval(ExecutionTimeHeatmap.DEFAULT_UPDATE_INTERVAL);
+            }
+            try {
+                toolBar.setSelected(DiverseSwitches.portStatistics, viewConfiguration.getBoolAttribute("port-statistics"));
+            } catch (Exception e) {
+                toolBar.setSelected(DiverseSwitches.portStatistics, false);
+            }
+            try {
+                toolBar.setSelected(DiverseSwitches.throughput, viewConfiguration.getBoolAttribute("throughput"));
+            } catch (Exception e) {
+                toolBar.setSelected(DiverseSwitches.throughput, false);
+            }
+            try {
+                throughputMetric.setSelectedItem(ThroughputOverlay.Metric.valueOf(viewConfiguration.getStringAttribute("throughput-metric")));
+            } catch (Exception e) {
+                throughputMetric.setSelectedItem(ThroughputOverlay.Metric.UpdateRate);
+            }
         }
 
         relayout(false);
@@ -428,6 +492,11 @@ public class StandardViewGraphViz extends AbstractGraphView<StandardViewGraphViz
 
             // Layout
             graph.applyLayout(Finstruct.EXPERIMENTAL_FEATURES ? toolBar.getSelection(Graph.Layout.values()) : Graph.Layout.dot, false);
+            if (!keepVerticesAndEdges) {
+                updateHeatmapVertices();
+                updateStatisticsPorts();
+                updateThroughputEdges();
+            }
 
             revalidate();
             repaint();
@@ -441,6 +510,36 @@ public class StandardViewGraphViz extends AbstractGraphView<StandardViewGraphViz
         }
     }
 
+    /**
+     * Adapts vertex bounds to their current size after vertices were scaled (e.g. after change of visualization zoom level).
+     * The existing layout - including subgraph bounds - is scaled in place by the specified factor, so the layout tool is not run again.
+     * Vertices that were not scaled keep their size (and are centered at their scaled positions).
+     *
+     * @param factor Factor that vertices were scaled with
+     */
+    public void rescaleLayout(double factor) {
+        if (!doingPdfExport()) {
+            setFontMetricsToDefault(zoom);
+        }
+        for (Vertex vertex : vertices) {
+            if (vertex.gvVertex.getLayoutPosition() == null) {
+                relayout(true); // no layout yet
+                return;
+            }
+        }
+        for (Vertex vertex : vertices) {
+            vertex.reset();
+        }
+        if (factor != 1.0) {
+            graph.scaleLayout(factor, factor);
+        }
+        for (Subgraph subgraph : subgraphs) {
+            subgraph.labelBounds = null; // place labels again
+        }
+        revalidate();
+        repaint();
+    }
+
     /**
      * Floods unknown edges in graph until already classified edges are reached
      *
@@ -543,6 +642,15 @@ public class StandardViewGraphViz extends AbstractGraphView<StandardViewGraphViz
                 }
             }
 
+            if (isHeatmapEnabled()) {
+                Rectangle visible = getVisibleRect();
+                heatmap.paintLegend((Graphics2D)g, visible.x + 5, visible.y + 5);
+            }
+            if (isThroughputEnabled()) {
+                Rectangle visible = getVisibleRect();
+                throughput.paintLegend((Graphics2D)g, visible.x + 5, visible.y + visible.height - 5);
+            }
+
             // draw connection line
             MouseHandler mh = mouseHandlers.getActiveHandler();
             if (mh != null && mh instanceof Vertex && inConnectionMode() && lastMouseDragPoint != null) {
@@ -957,11 +1065,21 @@ public class StandardViewGraphViz extends AbstractGraphView<StandardViewGraphViz
         /** Flags from flooding all unknown edges in graph */
         protected int floodedFlags;
 
+        /** Source ports of all connections that this edge represents */
+        private final ArrayList<RemotePort> sourcePorts = new ArrayList<RemotePort>();
+
         protected Edge(Vertex src, Vertex dest) {
             super(src, dest);
             gvEdge = new org.finroc.tools.finstruct.graphviz.Edge(src.gvVertex, dest.gvVertex);
         }
 
+        @Override
+        protected void addConnection(RemotePort sourcePort, RemotePort destinationPort) {
+            if (!sourcePorts.contains(sourcePort)) {
+                sourcePorts.add(sourcePort);
+            }
+        }
+
         /**
          * Inizializes flags variable
          */
@@ -1016,13 +1134,64 @@ public class StandardViewGraphViz extends AbstractGraphView<StandardViewGraphViz
         public void paint(Graphics2D g2d) {
             Stroke oldStroke = g2d.getStroke();
             g2d.setColor(getColor());
-            //g2d.set
+            if (isThroughputEnabled()) {
+                g2d.setColor(throughput.getColor(this, getColor()));
+                Stroke throughputStroke = throughput.getStroke(this);
+                if (throughputStroke != null) {
+                    g2d.setStroke(throughputStroke);
+                }
+            }
             processHighlighting(g2d);
             g2d.draw(gvEdge.getPath());
             drawArrow(g2d, !gvEdge.isReversedInDotLayout());
             if (g2d.getStroke() != oldStroke) {
                 g2d.setStroke(oldStroke);
             }
+            if (isPortStatisticsEnabled()) {
+                String annotation = portStatistics.getAnnotation(sourcePorts);
+                if (annotation != null) {
+                    drawAnnotation(g2d, annotation);
+                }
+            }
+        }
+
+        /**
+         * Draws annotation next to middle of edge
+         *
+         * @param g2d Graphics object
+         * @param annotation Annotation text
+         */
+        private void drawAnnotation(Graphics2D g2d, String annotation) {
+            double length = 0;
+            double[] coords = new double[6];
+            double lastX = 0, lastY = 0;
+            for (PathIterator pi = gvEdge.getPath().getPathIterator(null, 2); !pi.isDone(); pi.next()) {
+                if (pi.currentSegment(coords) == PathIterator.SEG_LINETO) {
+                    length += Point2D.distance(lastX, lastY, coords[0], coords[1]);
+                }
+                lastX = coords[0];
+                lastY = coords[1];
+            }
+            double remaining = length / 2;
+            for (PathIterator pi = gvEdge.getPath().getPathIterator(null, 2); !pi.isDone(); pi.next()) {
+                if (pi.currentSegment(coords) == PathIterator.SEG_LINETO) {
+                    double segmentLength = Point2D.distance(lastX, lastY, coords[0], coords[1]);
+                    if (segmentLength >= remaining) {
+                        double fraction = segmentLength > 0 ? remaining / segmentLength : 0;
+                        lastX += (coords[0] - lastX) * fraction;
+                        lastY += (coords[1] - lastY) * fraction;
+                        break;
+                    }
+                    remaining -= segmentLength;
+                }
+                lastX = coords[0];
+                lastY = coords[1];
+            }
+            Font oldFont = g2d.getFont();
+            g2d.setFont(ANNOTATION_FONT);
+            g2d.setColor(Color.DARK_GRAY);
+            g2d.drawString(annotation, (float)lastX + 4, (float)lastY - 2);
+            g2d.setFont(oldFont);
         }
 
         /**
@@ -1453,6 +1622,29 @@ public class StandardViewGraphViz extends AbstractGraphView<StandardViewGraphViz
         }
         toolBar.addSeparator();
         toolBar.addToggleButton(new MAction(DiverseSwitches.constructionPanel, "tools-wikimedia-public_domain.png", "Show Construction Panel", this), true);
+        toolBar.addSeparator();
+        toolBar.addToggleButton(new MAction(DiverseSwitches.heatmap, null, "Execution Time Heatmap", this), true);
+        toolBar.add(heatmapMetric);
+        heatmapMetric.addActionListener(this);
+        heatmapMetric.setMaximumSize(heatmapMetric.getPreferredSize());
+        toolBar.add(heatmapColorScale);
+        heatmapColorScale.addActionListener(this);
+        heatmapColorScale.setMaximumSize(heatmapColorScale.getPreferredSize());
+        toolBar.add(new JLabel("max [ms]"));
+        toolBar.add(heatmapMaximum);
+        heatmapMaximum.addChangeListener(this);
+        heatmapMaximum.setToolTipText("Execution duration displayed in last color of scale (0 = maximum of displayed elements)");
+        heatmapMaximum.setPreferredSize(new Dimension(60, heatmapMaximum.getPreferredSize().height));
+        heatmapMaximum.setMaximumSize(heatmapMaximum.getPreferredSize());
+        if (getFinstruct() != null) {
+            heatmapMaximum.getEditor().getComponent(0).addKeyListener(getFinstruct());
+        }
+        toolBar.addSeparator();
+        toolBar.addToggleButton(new MAction(DiverseSwitches.portStatistics, null, "Port Statistics", this), true);
+        toolBar.addToggleButton(new MAction(DiverseSwitches.throughput, null, "Throughput", this), true);
+        toolBar.add(throughputMetric);
+        throughputMetric.addActionListener(this);
+        throughputMetric.setMaximumSize(throughputMetric.getPreferredSize());
     }
 
     @SuppressWarnings("rawtypes")
@@ -1467,12 +1659,30 @@ public class StandardViewGraphViz extends AbstractGraphView<StandardViewGraphViz
                 repaint();
             } else if (e == DiverseSwitches.lineBreaks) {
                 relayout(true);
+            } else if (e == DiverseSwitches.heatmap) {
+                updateHeatmapVertices();
+                repaint();
+            } else if (e == DiverseSwitches.portStatistics) {
+                updateStatisticsPorts();
+                repaint();
+            } else if (e == DiverseSwitches.throughput) {
+                updateThroughputEdges();
+                repaint();
             } else if (e == DiverseSwitches.constructionPanel) {
                 getFinstructWindow().setRightPanelVisible(toolBar.isSelected(DiverseSwitches.constructionPanel));
                 if (toolBar.isSelected(DiverseSwitches.constructionPanel)) {
                     getFinstructWindow().getRightPanel().setRootElement(getRootElement());
                 }
             }
+        } else if (ae.getSource() == heatmapMetric) {
+            heatmap.setMetric((ExecutionTimeHeatmap.Metric)heatmapMetric.getSelectedItem());
+        } else if (ae.getSource() == throughputMetric) {
+            throughput.setMetric((ThroughputOverlay.Metric)throughputMetric.getSelectedItem());
+            if (throughput.update()) {
+                repaint();
+            }
+        } else if (ae.getSource() == heatmapColorScale) {
+            heatmap.setColorScale((ExecutionTimeHeatmap.ColorScale)heatmapColorScale.getSelectedItem());
         } else if (ae.getSource() == zoomIn) {
             setZoom(zoom * 1.33);
         } else if (ae.getSource() == zoomOut) {
@@ -1558,12 +1768,117 @@ public class StandardViewGraphViz extends AbstractGraphView<StandardViewGraphViz
                 tryReconnectingToRootNode();
                 repaint |= isConnectedToRootNode();
             }
+            if (isHeatmapEnabled()) {
+                repaint |= heatmap.update();
+            }
+            if (isPortStatisticsEnabled()) {
+                repaint |= portStatistics.update();
+            }
+            if (isThroughputEnabled()) {
+                repaint |= throughput.update();
+            }
             if (repaint) {
                 repaint();
             }
         }
     }
 
+    @Override
+    protected void destroy() {
+        heatmap.clear();
+        portStatistics.clear();
+        throughput.clear();
+    }
+
+    /**
+     * @return Is execution-time heatmap overlay currently enabled?
+     */
+    public boolean isHeatmapEnabled() {
+        return toolBar != null && toolBar.isSelected(DiverseSwitches.heatmap);
+    }
+
+    /**
+     * Passes current vertices to heatmap if it is enabled (otherwise, unsubscribes heatmap from profiling ports)
+     */
+    private void updateHeatmapVertices() {
+        if (isHeatmapEnabled()) {
+            heatmap.setVertices(vertices);
+        } else {
+            heatmap.clear();
+        }
+    }
+
+    /**
+     * @return Are update rate and bandwidth annotations of edges currently enabled?
+     */
+    public boolean isPortStatisticsEnabled() {
+        return toolBar != null && toolBar.isSelected(DiverseSwitches.portStatistics);
+    }
+
+    /**
+     * Subscribes to source ports of all edges if port statistics are enabled (otherwise, unsubscribes from all ports)
+     */
+    private void updateStatisticsPorts() {
+        if (isPortStatisticsEnabled() && edges != null) {
+            ArrayList<RemotePort> ports = new ArrayList<RemotePort>();
+            for (Edge edge : edges) {
+                ports.addAll(edge.sourcePorts);
+            }
+            portStatistics.setPorts(ports);
+            ToolTipManager.sharedInstance().registerComponent(this);
+        } else {
+            portStatistics.clear();
+            ToolTipManager.sharedInstance().unregisterComponent(this);
+        }
+    }
+
+    /**
+     * @return Is data-flow throughput overlay currently enabled?
+     */
+    public boolean isThroughputEnabled() {
+        return toolBar != null && toolBar.isSelected(DiverseSwitches.throughput);
+    }
+
+    /**
+     * Subscribes throughput overlay to one representative port of each edge if it is enabled (otherwise, unsubscribes from all ports)
+     */
+    private void updateThroughputEdges() {
+        if (isThroughputEnabled() && edges != null) {
+            IdentityHashMap<AbstractGraphView.Edge, RemotePort> representatives = new IdentityHashMap<AbstractGraphView.Edge, RemotePort>();
+            for (Edge edge : edges) {
+                if (edge.sourcePorts.size() > 0) {
+                    representatives.put(edge, edge.sourcePorts.get(0));
+                }
+            }
+            throughput.setEdges(representatives);
+        } else {
+            throughput.clear();
+        }
+    }
+
+    @Override
+    public String getToolTipText(MouseEvent e) {
+        if (!isPortStatisticsEnabled() || edges == null) {
+            return null;
+        }
+        Point p = e.getPoint();
+        if (zoom != 1.0) {
+            p = new Point((int)(e.getX() / zoom), (int)(e.getY() / zoom));
+        }
+        for (Edge edge : edges) {
+            if (edge.gvEdge.getPath() != null && edge.handlesPoint(p)) {
+                return portStatistics.getToolTip(edge.sourcePorts);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Color getVertexColor(AbstractGraphView.Vertex v) {
+        Color heatmapColor = isHeatmapEnabled() ? heatmap.getColor(v) : null;
+        return heatmapColor != null ? heatmapColor : super.getVertexColor(v);
+    }
+
     /**
      * Set Zoom
      *
@@ -1643,6 +1958,8 @@ public class StandardViewGraphViz extends AbstractGraphView<StandardViewGraphViz
                 graph.setAttribute("nodesep", ("" + ns).replace(',', '.'));
                 relayout(true);
             }
+        } else if (e.getSource() == heatmapMaximum) {
+            heatmap.setScaleMaximum((long)(((Number)heatmapMaximum.getValue()).doubleValue() * 1000000));
         }
 
     }
@@ -1798,6 +2115,30 @@ public class StandardViewGraphViz extends AbstractGraphView<StandardViewGraphViz
         if (((Number)nodeSep.getValue()).doubleValue() != NODE_SEP_DEFAULT) {
             node.setAttribute("nodesep", ((Number)nodeSep.getValue()).doubleValue());
         }
+        if (toolBar.isSelected(DiverseSwitches.heatmap)) {
+            node.setAttribute("heatmap", true);
+        }
+        if (heatmap.getMetric() != ExecutionTimeHeatmap.Metric.Average) {
+            node.setAttribute("heatmap-metric", heatmap.getMetric().name());
+        }
+        if (heatmap.getColorScale() != ExecutionTimeHeatmap.ColorScale.Heat) {
+            node.setAttribute("heatmap-color-scale", heatmap.getColorScale().name());
+        }
+        if (heatmap.getScaleMaximum() != 0) {
+            node.setAttribute("heatmap-maximum", ((Number)heatmapMaximum.getValue()).doubleValue());
+        }
+        if (heatmap.getUpdateInterval() != ExecutionTimeHeatmap.DEFAULT_UPDATE_INTERVAL) {
+            node.setAttribute("heatmap-update-interval", heatmap.getUpdateInterval());
+        }
+        if (toolBar.isSelected(DiverseSwitches.portStatistics)) {
+            node.setAttribute("port-statistics", true);
+        }
+        if (toolBar.isSelected(DiverseSwitches.throughput)) {
+            node.setAttribute("throughput", true);
+        }
+        if (throughput.getMetric() != ThroughputOverlay.Metric.UpdateRate) {
+            node.setAttribute("throughput-metric", throughput.getMetric().name());
+        }
     }
 
     /**
@@ -0,0 +1,193 @@
+//
+// You received this file as part of Finroc
+// A framework for intelligent robot control
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.finroc.tools.finstruct.views;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Stroke;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.finroc.core.remote.RemotePort;
+import org.finroc.tools.finstruct.propertyeditor.PortStatistics;
+
+/**
+ * @author Max Reichardt
+ *
+ * Data-flow throughput overlay for edges in graph views.
+ *
+ * Scales stroke width and color of edges by the update rate or bandwidth of the data they carry.
+ * Edges may aggregate many connections - to keep overhead low, only one representative port per edge is subscribed
+ * (the edge's first source port). Values are displayed on a logarithmic scale relative to the edge with the highest
+ * throughput - so that connections carrying little data remain distinguishable from idle ones.
+ * Widths and colors are only recalculated every UPDATE_INTERVAL ms.
+ */
+public class ThroughputOverlay {
+
+    /** Throughput that edges are scaled by */
+    public enum Metric { UpdateRate, Bandwidth }
+
+    /** Minimum interval between updates of edge widths and colors (in ms) */
+    public static final int UPDATE_INTERVAL = PortStatisticsOverlay.UPDATE_INTERVAL;
+
+    /** Maximum stroke width of edges (edge with highest throughput) */
+    public static final float MAX_STROKE_WIDTH = 8.0f;
+
+    /** Number of different stroke widths */
+    private static final int STROKE_LEVELS = 16;
+
+    /** Color of edge with highest throughput */
+    private static final Color MAX_COLOR = new Color(220, 30, 30);
+
+    /** Strokes for each level (from thinnest to widest) */
+    private static final Stroke[] STROKES = new Stroke[STROKE_LEVELS];
+
+    static {
+        for (int i = 0; i < STROKE_LEVELS; i++) {
+            STROKES[i] = new BasicStroke(1.0f + (MAX_STROKE_WIDTH - 1.0f) * i / (STROKE_LEVELS - 1));
+        }
+    }
+
+    /** Subscriptions of representative ports */
+    private final PortStatisticsOverlay statistics = new PortStatisticsOverlay(false);
+
+    /** Representative port of each edge */
+    private final IdentityHashMap<AbstractGraphView.Edge, RemotePort> representatives = new IdentityHashMap<AbstractGraphView.Edge, RemotePort>();
+
+    /** Current throughput of each edge relative to edge with highest throughput (0 to 1, logarithmic) */
+    private final IdentityHashMap<AbstractGraphView.Edge, Float> edgeLoad = new IdentityHashMap<AbstractGraphView.Edge, Float>();
+
+    /** Throughput that edges are scaled by */
+    private Metric metric = Metric.UpdateRate;
+
+    /** Highest throughput of all edges */
+    private double currentMaximum;
+
+    /** Time of last update */
+    private long lastUpdate;
+
+    /**
+     * Sets edges to display throughput of (subscribes to new representative ports and unsubscribes from ports that are no longer needed)
+     * (must be called from AWT thread)
+     *
+     * @param edges Edges with their representative ports
+     */
+    public void setEdges(Map<AbstractGraphView.Edge, RemotePort> edges) {
+        representatives.clear();
+        representatives.putAll(edges);
+        edgeLoad.clear();
+        statistics.setPorts(edges.values());
+        lastUpdate = 0;
+    }
+
+    /**
+     * Unsubscribes from all ports
+     */
+    public void clear() {
+        representatives.clear();
+        edgeLoad.clear();
+        statistics.clear();
+        currentMaximum = 0;
+    }
+
+    /**
+     * @param metric Throughput that edges are scaled by
+     */
+    public void setMetric(Metric metric) {
+        this.metric = metric;
+        lastUpdate = 0;
+    }
+
+    /**
+     * @return Throughput that edges are scaled by
+     */
+    public Metric getMetric() {
+        return metric;
+    }
+
+    /**
+     * Recalculates edge widths and colors if UPDATE_INTERVAL has passed since last update
+     * (should be called regularly from AWT thread - e.g. in updateView())
+     *
+     * @return True if edges should be repainted
+     */
+    public boolean update() {
+        long now = System.currentTimeMillis();
+        if (representatives.isEmpty() || now - lastUpdate < UPDATE_INTERVAL) {
+            return false;
+        }
+        lastUpdate = now;
+        IdentityHashMap<AbstractGraphView.Edge, Double> values = new IdentityHashMap<AbstractGraphView.Edge, Double>();
+        double maximum = 0;
+        for (Map.Entry<AbstractGraphView.Edge, RemotePort> entry : representatives.entrySet()) {
+            PortStatistics portStatistics = statistics.getStatistics(entry.getValue());
+            if (portStatistics != null) {
+                double value = Math.max(0, metric == Metric.UpdateRate ? portStatistics.getUpdateRate() : portStatistics.getByteRate());
+                values.put(entry.getKey(), value);
+                maximum = Math.max(maximum, value);
+            }
+        }
+        currentMaximum = maximum;
+        edgeLoad.clear();
+        for (Map.Entry<AbstractGraphView.Edge, Double> entry : values.entrySet()) {
+            edgeLoad.put(entry.getKey(), maximum > 0 ? (float)(Math.log1p(entry.getValue()) / Math.log1p(maximum)) : 0f);
+        }
+        return true;
+    }
+
+    /**
+     * @param edge Edge
+     * @return Stroke to draw edge with - null if throughput of edge is not known
+     */
+    public Stroke getStroke(AbstractGraphView.Edge edge) {
+        Float load = edgeLoad.get(edge);
+        return load != null ? STROKES[Math.round(load * (STROKE_LEVELS - 1))] : null;
+    }
+
+    /**
+     * @param edge Edge
+     * @param baseColor Color of edge without overlay
+     * @return Color to draw edge in (blend of base color and MAX_COLOR)
+     */
+    public Color getColor(AbstractGraphView.Edge edge, Color baseColor) {
+        Float load = edgeLoad.get(edge);
+        if (load == null || load <= 0) {
+            return baseColor;
+        }
+        float f = load;
+        return new Color((int)(baseColor.getRed() * (1 - f) + MAX_COLOR.getRed() * f), (int)(baseColor.getGreen() * (1 - f) + MAX_COLOR.getGreen() * f), (int)(baseColor.getBlue() * (1 - f) + MAX_COLOR.getBlue() * f));
+    }
+
+    /**
+     * Draws legend (scale maximum)
+     *
+     * @param g2d Graphics to draw to
+     * @param x Left coordinate
+     * @param y Baseline of text
+     */
+    public void paintLegend(Graphics2D g2d, int x, int y) {
+        String maximum = metric == Metric.UpdateRate ? String.format("%.1f Hz", currentMaximum) : PortStatistics.formatByteRate(currentMaximum);
+        g2d.setColor(Color.BLACK);
+        g2d.drawString("Edge width: " + (metric == Metric.UpdateRate ? "update rate" : "bandwidth") + " of first port (logarithmic, max. " + maximum + ")", x, y);
+    }
+}